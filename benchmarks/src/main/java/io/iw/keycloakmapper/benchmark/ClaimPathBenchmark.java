@@ -0,0 +1,32 @@
+package io.iw.keycloakmapper.benchmark;
+
+import io.iw.keycloakmapper.UtilMapper;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClaimPathBenchmark {
+
+    @Param({"project", "ext.project.id", "ext\\.v2.project\\.id.value", "a.b.c.d.e.f.g.h.i.j"})
+    public String claimPath;
+
+    @Benchmark
+    public List<String> splitClaimPath() {
+        return UtilMapper.splitClaimPath(claimPath);
+    }
+}
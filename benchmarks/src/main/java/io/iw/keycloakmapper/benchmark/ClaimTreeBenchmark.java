@@ -0,0 +1,62 @@
+package io.iw.keycloakmapper.benchmark;
+
+import io.iw.keycloakmapper.ClaimTreeBuilder;
+import io.iw.keycloakmapper.MapperPlan;
+import io.iw.keycloakmapper.MapperPlanCache;
+import io.iw.keycloakmapper.UtilMapper;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.representations.IDToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes one claim per mapper under a shared {@code ext.*} subtree into a fresh token, either one
+ * root-to-leaf walk per mapper or collected and merged once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClaimTreeBenchmark {
+
+    @Param({"15"})
+    public int mappers;
+
+    private MapperPlan[] plans;
+
+    @Setup
+    public void setUp() {
+        plans = new MapperPlan[mappers];
+        for (int i = 0; i < mappers; i++)
+            plans[i] = MapperPlanCache.get(Fixtures.mapper("tree-" + i, "ext.abac.attr" + i, "String", false));
+    }
+
+    @Benchmark
+    public IDToken perMapperWalk() {
+        IDToken token = new IDToken();
+        for (MapperPlan plan : plans)
+            UtilMapper.mapClaim(token, plan, "value");
+        return token;
+    }
+
+    @Benchmark
+    public IDToken singleMerge() {
+        IDToken token = new IDToken();
+        ClaimTreeBuilder claims = new ClaimTreeBuilder();
+        for (MapperPlan plan : plans)
+            UtilMapper.mapClaim(claims, plan, "value");
+        claims.writeTo(token.getOtherClaims());
+        return token;
+    }
+}
@@ -0,0 +1,48 @@
+package io.iw.keycloakmapper.benchmark;
+
+import io.iw.keycloakmapper.UtilMapper;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.models.ProtocolMapperModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"String", "long", "int", "boolean"})
+    public String jsonType;
+
+    @Param({"1", "5000"})
+    public int size;
+
+    private ProtocolMapperModel mapper;
+
+    private Object value;
+
+    @Setup
+    public void setUp() {
+        mapper = Fixtures.mapper("conversion-" + jsonType, "ext.value", jsonType, size > 1);
+        List<String> values = Fixtures.values(jsonType, size);
+        value = size > 1 ? values : values.get(0);
+    }
+
+    @Benchmark
+    public Object mapAttributeValue() {
+        return UtilMapper.mapAttributeValue(mapper, value);
+    }
+}
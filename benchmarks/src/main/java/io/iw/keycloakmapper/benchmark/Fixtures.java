@@ -0,0 +1,135 @@
+package io.iw.keycloakmapper.benchmark;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.iw.keycloakmapper.KeycloakMapper;
+import io.iw.keycloakmapper.UtilMapper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.representations.IDToken;
+
+/**
+ * Realistic inputs shared by the benchmarks. Realm, client and user models are Mockito mocks;
+ * they are set up once and are not called on the measured paths unless a benchmark says so.
+ */
+public final class Fixtures {
+
+    public static final String REALM_ID = "benchmark-realm";
+
+    public static final String CLIENT_UUID = "0b6a1c3e-7b0e-4a7e-9b1d-3c2f1e0d9a8b";
+
+    public static final String CLIENT_ID = "portal";
+
+    public static final String USER_ID = "5d3e7c1a-2b4f-4e6d-8a9c-0f1e2d3c4b5a";
+
+    private static final String[] COMMON_SCOPES = {"openid", "profile", "email", "roles", "web-origins", "offline_access"};
+
+    private Fixtures() {
+    }
+
+    public static ProtocolMapperModel mapper(String id, String claimName, String jsonType, boolean multivalued) {
+        ProtocolMapperModel mapper = UtilMapper.createClaimMapper(id, "project", claimName, jsonType, true, true, new KeycloakMapper().getId());
+        mapper.setId(id);
+        if (multivalued)
+            mapper.getConfig().put("multivalued", "true");
+        return mapper;
+    }
+
+    /**
+     * @return a scope string of {@code count} scopes ending with the requested project scope
+     */
+    public static String scopes(int count, String project) {
+        StringBuilder scopes = new StringBuilder();
+        for (int i = 0; i < count - 1; i++) {
+            if (i > 0)
+                scopes.append(' ');
+            scopes.append(i < COMMON_SCOPES.length ? COMMON_SCOPES[i] : "api:resource-" + i + ":read");
+        }
+        if (count > 1)
+            scopes.append(' ');
+        scopes.append(KeycloakMapper.PROJECT_SCOPE_PREFIX).append(project);
+        return scopes.toString();
+    }
+
+    /**
+     * @return string attribute values that parse as the given JSON type
+     */
+    public static List<String> values(String jsonType, int size) {
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            switch (jsonType) {
+                case "boolean":
+                    values.add(i % 2 == 0 ? "true" : "false");
+                    break;
+                case "long":
+                    values.add(Long.toString(10_000_000_000L + i * 7919L));
+                    break;
+                case "int":
+                    values.add(Integer.toString(i * 31));
+                    break;
+                default:
+                    values.add("group-" + i);
+                    break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return an ID token that already carries the kind of claims other mappers add
+     */
+    public static IDToken populatedToken() {
+        IDToken token = new IDToken();
+        token.setPreferredUsername("jdoe");
+        token.setEmail("jdoe@example.org");
+        Map<String, Object> ext = new HashMap<>();
+        ext.put("department", "engineering");
+        ext.put("cost_centre", "cc-4711");
+        token.getOtherClaims().put("ext", ext);
+        for (int i = 0; i < 16; i++)
+            token.getOtherClaims().put("claim" + i, "value-" + i);
+        return token;
+    }
+
+    public static RealmModel realm() {
+        RealmModel realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn(REALM_ID);
+        when(realm.getName()).thenReturn(REALM_ID);
+        return realm;
+    }
+
+    public static ClientModel client(RealmModel realm) {
+        ClientModel client = mock(ClientModel.class);
+        when(client.getId()).thenReturn(CLIENT_UUID);
+        when(client.getClientId()).thenReturn(CLIENT_ID);
+        when(client.getRealm()).thenReturn(realm);
+        when(realm.getClientByClientId(CLIENT_ID)).thenReturn(client);
+        return client;
+    }
+
+    public static UserModel user() {
+        UserModel user = mock(UserModel.class);
+        when(user.getId()).thenReturn(USER_ID);
+        when(user.getUsername()).thenReturn("jdoe");
+        return user;
+    }
+
+    /**
+     * @return a user session with one client session whose scope note holds the given scopes
+     */
+    public static StubUserSession userSession(RealmModel realm, ClientModel client, UserModel user, String scopes) {
+        StubUserSession userSession = new StubUserSession("user-session", realm, user);
+        StubClientSession clientSession = new StubClientSession("client-session", realm, client);
+        clientSession.setNote(OAuth2Constants.SCOPE, scopes);
+        userSession.addClientSession(clientSession);
+        return userSession;
+    }
+}
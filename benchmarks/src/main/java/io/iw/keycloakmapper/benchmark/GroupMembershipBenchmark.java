@@ -0,0 +1,114 @@
+package io.iw.keycloakmapper.benchmark;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import io.iw.keycloakmapper.ProjectGroupIndex;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a group membership check against the {@link ProjectGroupIndex} with looking up the
+ * project group by path and walking the parent chain of every group the user is in, as
+ * {@code UserModel.isMemberOf} does. The realm has 50 projects of 41 nested groups each, and the
+ * user sits in {@code groupCount} of the deepest groups of other projects, plus one of the
+ * requested project's when {@code member} is set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupMembershipBenchmark {
+
+    private static final int PROJECTS = 50;
+
+    private static final String GROUP_PATH = "/projects/project-0";
+
+    @Param({"10", "300"})
+    public int groupCount;
+
+    @Param({"true", "false"})
+    public boolean member;
+
+    private RealmModel realm;
+
+    private UserModel user;
+
+    private ProjectGroupIndex index;
+
+    @Setup
+    public void setUp() {
+        // Stub-only mocks do not record their invocations, which would otherwise dominate the measurement
+        realm = mock(RealmModel.class, withSettings().stubOnly());
+        when(realm.getId()).thenReturn(Fixtures.REALM_ID);
+        StubGroup root = new StubGroup("projects", "projects");
+        when(realm.getTopLevelGroups()).thenReturn(Collections.singletonList(root));
+        List<List<GroupModel>> leaves = new ArrayList<>();
+        for (int p = 0; p < PROJECTS; p++) {
+            StubGroup project = group("project-" + p, root);
+            List<GroupModel> projectLeaves = new ArrayList<>();
+            for (int branch = 0; branch < 8; branch++) {
+                GroupModel parent = project;
+                for (int depth = 0; depth < 5; depth++)
+                    parent = group(project.getName() + "-" + branch + "-" + depth, parent);
+                projectLeaves.add(parent);
+            }
+            leaves.add(projectLeaves);
+        }
+        Set<GroupModel> groups = new LinkedHashSet<>();
+        for (int i = 0; groups.size() < groupCount; i++)
+            groups.add(leaves.get(1 + i % (PROJECTS - 1)).get(i / (PROJECTS - 1) % 8));
+        if (member)
+            groups.add(leaves.get(0).get(3));
+        user = mock(UserModel.class, withSettings().stubOnly());
+        when(user.getGroups()).thenReturn(groups);
+        index = new ProjectGroupIndex();
+    }
+
+    private static StubGroup group(String name, GroupModel parent) {
+        StubGroup group = new StubGroup(name, name);
+        group.setParent(parent);
+        return group;
+    }
+
+    @Benchmark
+    public boolean index() {
+        return index.isMember(realm, user, GROUP_PATH);
+    }
+
+    @Benchmark
+    public boolean parentWalk() {
+        GroupModel projectGroup = KeycloakModelUtils.findGroupByPath(realm, GROUP_PATH);
+        if (projectGroup == null)
+            return false;
+        for (GroupModel group : user.getGroups()) {
+            for (GroupModel ancestor = group; ancestor != null; ancestor = ancestor.getParent()) {
+                if (ancestor.getId().equals(projectGroup.getId()))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+package io.iw.keycloakmapper.benchmark;
+
+import io.iw.keycloakmapper.UtilMapper;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.representations.IDToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapClaimBenchmark {
+
+    @Param({"project", "ext.project", "ext.abac.project.id"})
+    public String claimPath;
+
+    private ProtocolMapperModel mapper;
+
+    private IDToken token;
+
+    @Setup
+    public void setUp() {
+        mapper = Fixtures.mapper("map-claim", claimPath, "String", false);
+        token = Fixtures.populatedToken();
+    }
+
+    @Benchmark
+    public IDToken mapClaim() {
+        UtilMapper.mapClaim(token, mapper, "apollo");
+        return token;
+    }
+}
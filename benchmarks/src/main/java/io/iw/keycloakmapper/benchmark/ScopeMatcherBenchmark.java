@@ -0,0 +1,55 @@
+package io.iw.keycloakmapper.benchmark;
+
+import io.iw.keycloakmapper.ScopeMatcher;
+import io.iw.keycloakmapper.ScopeScanner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares matching four scope families in one pass with scanning the scope string once per
+ * family, as one mapper instance per family would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScopeMatcherBenchmark {
+
+    @Param({"5", "25", "60"})
+    public int scopeCount;
+
+    private final ScopeMatcher matcher = ScopeMatcher.compile("project:=project, team:=teams;many, region:=region, tenant:=tenant;3");
+
+    private String scopes;
+
+    @Setup
+    public void setUp() {
+        scopes = Fixtures.scopes(scopeCount, "apollo") + " team:core team:platform region:eu-west tenant:acme";
+    }
+
+    @Benchmark
+    public Object[] singlePass() {
+        return matcher.match(scopes);
+    }
+
+    @Benchmark
+    public void scanPerFamily(Blackhole blackhole) {
+        blackhole.consume(ScopeScanner.findSingleValue(scopes, "project:"));
+        blackhole.consume(ScopeScanner.findAllValues(scopes, "team:"));
+        blackhole.consume(ScopeScanner.findSingleValue(scopes, "region:"));
+        blackhole.consume(ScopeScanner.findAllValues(scopes, "tenant:"));
+    }
+}
@@ -0,0 +1,61 @@
+package io.iw.keycloakmapper.benchmark;
+
+import io.iw.keycloakmapper.KeycloakMapper;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.representations.AccessToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the whole project mapper through its public token transformation entry point, with the
+ * requested scopes read from the current client session.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SetClaimBenchmark {
+
+    @Param({"1", "5", "25", "60"})
+    public int scopeCount;
+
+    private final KeycloakMapper mapper = new KeycloakMapper();
+
+    private ProtocolMapperModel mappingModel;
+
+    private StubUserSession userSession;
+
+    private StubClientSessionContext clientSessionCtx;
+
+    private AccessToken token;
+
+    @Setup
+    public void setUp() {
+        RealmModel realm = Fixtures.realm();
+        ClientModel client = Fixtures.client(realm);
+        mappingModel = Fixtures.mapper("set-claim", "project", "String", false);
+        mappingModel.setProtocolMapper(mapper.getId());
+        userSession = Fixtures.userSession(realm, client, Fixtures.user(), Fixtures.scopes(scopeCount, "apollo"));
+        clientSessionCtx = new StubClientSessionContext(userSession.getAuthenticatedClientSessions().get(Fixtures.CLIENT_UUID));
+        token = new AccessToken();
+    }
+
+    @Benchmark
+    public AccessToken transformAccessToken() {
+        return mapper.transformAccessToken(token, mappingModel, null, userSession, clientSessionCtx);
+    }
+}
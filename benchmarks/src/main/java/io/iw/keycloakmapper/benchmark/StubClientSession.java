@@ -0,0 +1,134 @@
+package io.iw.keycloakmapper.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserSessionModel;
+
+/**
+ * A plain in-memory client session. Hand written rather than mocked so benchmarks measure the
+ * mapper and not the mocking framework.
+ */
+public class StubClientSession implements AuthenticatedClientSessionModel {
+
+    private final String id;
+
+    private final RealmModel realm;
+
+    private final ClientModel client;
+
+    private final Map<String, String> notes = new HashMap<>();
+
+    private UserSessionModel userSession;
+
+    public StubClientSession(String id, RealmModel realm, ClientModel client) {
+        this.id = id;
+        this.realm = realm;
+        this.client = client;
+    }
+
+    void setUserSession(UserSessionModel userSession) {
+        this.userSession = userSession;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public int getTimestamp() {
+        return 0;
+    }
+
+    @Override
+    public void setTimestamp(int timestamp) {
+    }
+
+    @Override
+    public void detachFromUserSession() {
+        userSession = null;
+    }
+
+    @Override
+    public UserSessionModel getUserSession() {
+        return userSession;
+    }
+
+    @Override
+    public String getCurrentRefreshToken() {
+        return null;
+    }
+
+    @Override
+    public void setCurrentRefreshToken(String currentRefreshToken) {
+    }
+
+    @Override
+    public int getCurrentRefreshTokenUseCount() {
+        return 0;
+    }
+
+    @Override
+    public void setCurrentRefreshTokenUseCount(int currentRefreshTokenUseCount) {
+    }
+
+    @Override
+    public String getNote(String name) {
+        return notes.get(name);
+    }
+
+    @Override
+    public void setNote(String name, String value) {
+        notes.put(name, value);
+    }
+
+    @Override
+    public void removeNote(String name) {
+        notes.remove(name);
+    }
+
+    @Override
+    public Map<String, String> getNotes() {
+        return notes;
+    }
+
+    @Override
+    public String getRedirectUri() {
+        return null;
+    }
+
+    @Override
+    public void setRedirectUri(String uri) {
+    }
+
+    @Override
+    public RealmModel getRealm() {
+        return realm;
+    }
+
+    @Override
+    public ClientModel getClient() {
+        return client;
+    }
+
+    @Override
+    public String getAction() {
+        return null;
+    }
+
+    @Override
+    public void setAction(String action) {
+    }
+
+    @Override
+    public String getProtocol() {
+        return "openid-connect";
+    }
+
+    @Override
+    public void setProtocol(String method) {
+    }
+}
@@ -0,0 +1,62 @@
+package io.iw.keycloakmapper.benchmark;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientScopeModel;
+import org.keycloak.models.ClientSessionContext;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RoleModel;
+
+public class StubClientSessionContext implements ClientSessionContext {
+
+    private final AuthenticatedClientSessionModel clientSession;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    public StubClientSessionContext(AuthenticatedClientSessionModel clientSession) {
+        this.clientSession = clientSession;
+    }
+
+    @Override
+    public AuthenticatedClientSessionModel getClientSession() {
+        return clientSession;
+    }
+
+    @Override
+    public Set<String> getClientScopeIds() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<ClientScopeModel> getClientScopes() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<RoleModel> getRoles() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<ProtocolMapperModel> getProtocolMappers() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public String getScopeString() {
+        return clientSession.getNote("scope");
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public <T> T getAttribute(String attribute, Class<T> clazz) {
+        return clazz.cast(attributes.get(attribute));
+    }
+}
@@ -0,0 +1,149 @@
+package io.iw.keycloakmapper.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RoleModel;
+
+/**
+ * A plain in-memory group with a name, a parent and subgroups; attributes and role mappings are
+ * not supported.
+ */
+public class StubGroup implements GroupModel {
+
+    private final String id;
+
+    private String name;
+
+    private GroupModel parent;
+
+    private final Set<GroupModel> subGroups = new LinkedHashSet<>();
+
+    public StubGroup(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public GroupModel getParent() {
+        return parent;
+    }
+
+    @Override
+    public String getParentId() {
+        return parent != null ? parent.getId() : null;
+    }
+
+    @Override
+    public Set<GroupModel> getSubGroups() {
+        return subGroups;
+    }
+
+    @Override
+    public void setParent(GroupModel group) {
+        if (parent != null)
+            parent.removeChild(this);
+        parent = group;
+        if (group != null)
+            group.addChild(this);
+    }
+
+    @Override
+    public void addChild(GroupModel subGroup) {
+        subGroups.add(subGroup);
+    }
+
+    @Override
+    public void removeChild(GroupModel subGroup) {
+        subGroups.remove(subGroup);
+    }
+
+    @Override
+    public void setSingleAttribute(String name, String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAttribute(String name, List<String> values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getFirstAttribute(String name) {
+        return null;
+    }
+
+    @Override
+    public List<String> getAttribute(String name) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Map<String, List<String>> getAttributes() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Set<RoleModel> getRealmRoleMappings() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<RoleModel> getClientRoleMappings(ClientModel app) {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public boolean hasRole(RoleModel role) {
+        return false;
+    }
+
+    @Override
+    public void grantRole(RoleModel role) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<RoleModel> getRoleMappings() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void deleteRoleMapping(RoleModel role) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof GroupModel && id.equals(((GroupModel) o).getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+}
@@ -0,0 +1,146 @@
+package io.iw.keycloakmapper.benchmark;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+
+/**
+ * A plain in-memory user session holding client sessions keyed by client UUID.
+ */
+public class StubUserSession implements UserSessionModel {
+
+    private final String id;
+
+    private final RealmModel realm;
+
+    private final UserModel user;
+
+    private final Map<String, AuthenticatedClientSessionModel> clientSessions = new HashMap<>();
+
+    private final Map<String, String> notes = new HashMap<>();
+
+    private State state = State.LOGGED_IN;
+
+    public StubUserSession(String id, RealmModel realm, UserModel user) {
+        this.id = id;
+        this.realm = realm;
+        this.user = user;
+    }
+
+    public void addClientSession(StubClientSession clientSession) {
+        clientSession.setUserSession(this);
+        clientSessions.put(clientSession.getClient().getId(), clientSession);
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public RealmModel getRealm() {
+        return realm;
+    }
+
+    @Override
+    public String getBrokerSessionId() {
+        return null;
+    }
+
+    @Override
+    public String getBrokerUserId() {
+        return null;
+    }
+
+    @Override
+    public UserModel getUser() {
+        return user;
+    }
+
+    @Override
+    public String getLoginUsername() {
+        return null;
+    }
+
+    @Override
+    public String getIpAddress() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public String getAuthMethod() {
+        return "openid-connect";
+    }
+
+    @Override
+    public boolean isRememberMe() {
+        return false;
+    }
+
+    @Override
+    public int getStarted() {
+        return 0;
+    }
+
+    @Override
+    public int getLastSessionRefresh() {
+        return 0;
+    }
+
+    @Override
+    public void setLastSessionRefresh(int seconds) {
+    }
+
+    @Override
+    public boolean isOffline() {
+        return false;
+    }
+
+    @Override
+    public Map<String, AuthenticatedClientSessionModel> getAuthenticatedClientSessions() {
+        return clientSessions;
+    }
+
+    @Override
+    public void removeAuthenticatedClientSessions(Collection<String> removedClientUUIDS) {
+        clientSessions.keySet().removeAll(removedClientUUIDS);
+    }
+
+    @Override
+    public String getNote(String name) {
+        return notes.get(name);
+    }
+
+    @Override
+    public void setNote(String name, String value) {
+        notes.put(name, value);
+    }
+
+    @Override
+    public void removeNote(String name) {
+        notes.remove(name);
+    }
+
+    @Override
+    public Map<String, String> getNotes() {
+        return notes;
+    }
+
+    @Override
+    public State getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    @Override
+    public void restartSession(RealmModel realm, UserModel user, String loginUsername, String ipAddress, String authMethod, boolean rememberMe, String brokerSessionId, String brokerUserId) {
+    }
+}
@@ -0,0 +1,230 @@
+package io.iw.keycloakmapper.benchmark;
+
+import io.iw.keycloakmapper.KeycloakMapper;
+import io.iw.keycloakmapper.LatencyHistogram;
+import io.iw.keycloakmapper.MapperPlanCache;
+import io.iw.keycloakmapper.UtilMapper;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * In-process load simulation of token mapping. Every simulated token runs the project mapper
+ * several times with different claim paths and modes plus a few attribute mappings through
+ * {@link UtilMapper#mapClaim}, against a pool of user sessions with mixed scope strings.
+ *
+ * <p>For each thread count the harness first runs a cold phase right after dropping the compiled
+ * mapper plans and the per-session memos, then warms up and runs the measured warm phase. It
+ * reports throughput, per-token latency percentiles and bytes allocated per token as JSON, one
+ * object per run, so results can be diffed across releases:
+ *
+ * <p>The harness lives with the tests, so it is not part of the benchmarks jar. Run it with the test
+ * classpath:
+ *
+ * <pre>
+ * cd benchmarks
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) \
+ *     io.iw.keycloakmapper.benchmark.LoadHarness --threads=1,4,16 --tokens=2000000 --out=load.json
+ * </pre>
+ *
+ * Each thread reuses one token and clears its claims between tokens, so allocation figures cover
+ * the mappers rather than token construction. Latencies include the cost of two
+ * {@code System.nanoTime()} calls.
+ */
+public final class LoadHarness {
+
+    private static final String[] PROJECTS = {
+            "apollo", "gemini", "mercury", "artemis", "voyager", "pioneer", "viking", "cassini", "juno", "galileo",
+            "hubble", "kepler", "spitzer", "chandra", "fermi", "swift", "webb", "rosetta", "huygens", "magellan"};
+
+    private static final int[] SCOPE_COUNTS = {1, 3, 6, 12, 25, 60};
+
+    private static final int SESSIONS = 512;
+
+    private final KeycloakMapper mapper = new KeycloakMapper();
+
+    private final List<ProtocolMapperModel> scopeMappers = new ArrayList<>();
+
+    private final List<ProtocolMapperModel> attributeMappers = new ArrayList<>();
+
+    private final List<Object> attributeValues = new ArrayList<>();
+
+    private final RealmModel realm = Fixtures.realm();
+
+    private final ClientModel client = Fixtures.client(realm);
+
+    private StubUserSession[] sessions;
+
+    private StubClientSessionContext[] contexts;
+
+    private LoadHarness() {
+        scopeMappers.add(scopeMapper("load-project", "project", false));
+        scopeMappers.add(scopeMapper("load-ext-project", "ext.project", false));
+        scopeMappers.add(scopeMapper("load-authz-project", "authz.tenant.project.id", false));
+        scopeMappers.add(scopeMapper("load-projects", "projects", true));
+
+        attributeMappers.add(Fixtures.mapper("load-department", "ext.department", "String", false));
+        attributeValues.add("engineering");
+        attributeMappers.add(Fixtures.mapper("load-groups", "groups", "String", true));
+        attributeValues.add(Fixtures.values("String", 12));
+        attributeMappers.add(Fixtures.mapper("load-ids", "ext.ids", "long", true));
+        attributeValues.add(Fixtures.values("long", 32));
+        attributeMappers.add(Fixtures.mapper("load-flag", "ext.abac.enabled", "boolean", false));
+        attributeValues.add("true");
+    }
+
+    private ProtocolMapperModel scopeMapper(String id, String claimName, boolean multiProject) {
+        ProtocolMapperModel model = Fixtures.mapper(id, claimName, "String", false);
+        model.setProtocolMapper(mapper.getId());
+        if (multiProject)
+            model.getConfig().put(KeycloakMapper.MULTI_PROJECT, "true");
+        return model;
+    }
+
+    /**
+     * Builds fresh sessions, so no client session carries a memo from an earlier run. A tenth of
+     * the sessions request no project and another tenth request two.
+     */
+    private void resetSessions() {
+        sessions = new StubUserSession[SESSIONS];
+        contexts = new StubClientSessionContext[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            String scopes = Fixtures.scopes(SCOPE_COUNTS[i % SCOPE_COUNTS.length], PROJECTS[i % PROJECTS.length]);
+            if (i % 10 == 3)
+                scopes = scopes.substring(0, scopes.lastIndexOf(' ') + 1) + "profile";
+            else if (i % 10 == 7)
+                scopes = scopes + " " + KeycloakMapper.PROJECT_SCOPE_PREFIX + PROJECTS[(i + 1) % PROJECTS.length];
+            sessions[i] = Fixtures.userSession(realm, client, Fixtures.user(), scopes);
+            contexts[i] = new StubClientSessionContext(sessions[i].getAuthenticatedClientSessions().get(Fixtures.CLIENT_UUID));
+        }
+    }
+
+    private void mapToken(AccessToken token, int session) {
+        StubUserSession userSession = sessions[session];
+        StubClientSessionContext clientSessionCtx = contexts[session];
+        for (int i = 0; i < scopeMappers.size(); i++)
+            mapper.transformAccessToken(token, scopeMappers.get(i), null, userSession, clientSessionCtx);
+        for (int i = 0; i < attributeMappers.size(); i++)
+            UtilMapper.mapClaim(token, attributeMappers.get(i), attributeValues.get(i));
+    }
+
+    private Map<String, Object> run(String phase, int threads, long tokens) throws InterruptedException {
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong allocated = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int t = 0; t < threads; t++) {
+            long share = tokens / threads + (t < tokens % threads ? 1 : 0);
+            int seed = 0x9e3779b9 * (t + 1);
+            Thread worker = new Thread(() -> {
+                LatencyHistogram local = new LatencyHistogram();
+                AccessToken token = new AccessToken();
+                int random = seed;
+                try {
+                    start.await();
+                    long allocatedBefore = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    for (long n = 0; n < share; n++) {
+                        random ^= random << 13;
+                        random ^= random >>> 17;
+                        random ^= random << 5;
+                        token.getOtherClaims().clear();
+                        long began = System.nanoTime();
+                        mapToken(token, (random & 0x7fffffff) % SESSIONS);
+                        local.record(System.nanoTime() - began);
+                    }
+                    allocated.addAndGet(threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore);
+                    latencies.add(local);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + phase + "-" + t);
+            worker.start();
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - began;
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50", latencies.getValueAtPercentile(50));
+        latency.put("p99", latencies.getValueAtPercentile(99));
+        latency.put("p999", latencies.getValueAtPercentile(99.9));
+        latency.put("max", latencies.getMax());
+        latency.put("mean", round(latencies.getMean()));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("phase", phase);
+        result.put("threads", threads);
+        result.put("tokens", tokens);
+        result.put("mappingsPerToken", scopeMappers.size() + attributeMappers.size());
+        result.put("durationMillis", elapsed / 1_000_000);
+        result.put("tokensPerSecond", round(tokens * 1e9 / elapsed));
+        result.put("latencyNanos", latency);
+        result.put("allocatedBytesPerToken", round((double) allocated.get() / tokens));
+        return result;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("threads", "1,2,4,8");
+        options.put("tokens", "1000000");
+        options.put("warmup", "200000");
+        options.put("cold", "20000");
+        options.put("out", "-");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 2 ? arg.substring(2, equals) : null;
+            if (name == null || !options.containsKey(name))
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of --" + String.join("=, --", options.keySet()) + "=");
+            options.put(name, arg.substring(equals + 1));
+        }
+
+        LoadHarness harness = new LoadHarness();
+        List<Object> runs = new ArrayList<>();
+        for (String count : options.get("threads").split(",")) {
+            int threads = Integer.parseInt(count.trim());
+            MapperPlanCache.clear();
+            harness.resetSessions();
+            runs.add(harness.run("cold", threads, Long.parseLong(options.get("cold"))));
+            harness.run("warmup", threads, Long.parseLong(options.get("warmup")));
+            runs.add(harness.run("warm", threads, Long.parseLong(options.get("tokens"))));
+            System.err.println("finished " + threads + " thread(s)");
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("harness", "keycloak-mapper-load");
+        report.put("javaVersion", System.getProperty("java.version"));
+        report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        report.put("runs", runs);
+        String json = JsonSerialization.writeValueAsPrettyString(report) + "\n";
+        String out = options.get("out");
+        if ("-".equals(out)) {
+            PrintStream stdout = System.out;
+            stdout.print(json);
+            stdout.flush();
+        } else {
+            Files.write(Paths.get(out), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
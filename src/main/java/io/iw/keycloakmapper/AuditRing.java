@@ -0,0 +1,87 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free queue for many producers and a single consumer. Every slot carries a
+ * sequence number: producers claim a position with a compare-and-set on the tail and publish their
+ * record by advancing the slot's sequence, and the consumer takes records in order as their slots
+ * are published. A full ring rejects records instead of waiting.
+ */
+final class AuditRing {
+
+    private final ClaimAuditRecord[] records;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    AuditRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.records = new ClaimAuditRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * @return false when the ring is full
+     */
+    boolean offer(ClaimAuditRecord record) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    records[index] = record;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (available < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes up to {@code batch.length} published records. Only the consumer thread may call this.
+     *
+     * @return the number of records taken
+     */
+    int drain(ClaimAuditRecord[] batch) {
+        long position = head;
+        int count = 0;
+        while (count < batch.length) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1)
+                break;
+            batch[count++] = records[index];
+            records[index] = null;
+            sequences.lazySet(index, position + mask + 1);
+            position++;
+        }
+        head = position;
+        return count;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
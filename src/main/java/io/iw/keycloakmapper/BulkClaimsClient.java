@@ -0,0 +1,61 @@
+package io.iw.keycloakmapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Command line client of the {@link BulkClaimsResource}. It streams the computed claims to stdout
+ * as NDJSON, for all users of the realm or for the users listed in an NDJSON file. The bearer token
+ * is read from the {@code KEYCLOAK_TOKEN} environment variable, so it does not show up in the
+ * process list.
+ *
+ * <pre>KEYCLOAK_TOKEN=... java -cp keycloak-mapper.jar io.iw.keycloakmapper.BulkClaimsClient \
+ *     https://sso.example.com/auth my-realm 2f5c1d0e-... "openid project:apollo" [users.ndjson] > claims.ndjson</pre>
+ */
+public final class BulkClaimsClient {
+
+    private BulkClaimsClient() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String token = System.getenv("KEYCLOAK_TOKEN");
+        if (args.length < 4 || args.length > 5 || token == null) {
+            System.err.println("usage: KEYCLOAK_TOKEN=<token> BulkClaimsClient <server-url> <realm> <mapper-id> <scopes> [users.ndjson]");
+            System.exit(2);
+        }
+        URL url = new URL(args[0] + "/realms/" + URLEncoder.encode(args[1], "UTF-8") + "/" + BulkClaimsResourceProviderFactory.ID
+                + "/claims?mapper=" + URLEncoder.encode(args[2], "UTF-8") + "&scopes=" + URLEncoder.encode(args[3], "UTF-8"));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Authorization", "Bearer " + token);
+        connection.setRequestProperty("Accept", BulkClaimsResource.NDJSON);
+        connection.setReadTimeout(0);
+        if (args.length == 5) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(1 << 16);
+            connection.setRequestProperty("Content-Type", BulkClaimsResource.NDJSON);
+            try (OutputStream out = connection.getOutputStream()) {
+                Files.copy(Paths.get(args[4]), out);
+            }
+        }
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            System.err.println("Computing project claims failed with HTTP " + status + " " + connection.getResponseMessage());
+            System.exit(1);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                System.out.write(buffer, 0, read);
+                System.out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package io.iw.keycloakmapper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.jboss.logging.Logger;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ProtocolMapperContainerModel;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+import org.keycloak.services.resources.admin.permissions.UserPermissionEvaluator;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Computes the claims a project mapper would issue for many users at once, at
+ * {@code /realms/{realm}/project-claims/claims?mapper={mapperId}}. The caller needs a bearer token
+ * of the realm that may view its users.
+ *
+ * <ul>
+ * <li>{@code GET} evaluates every user of the realm with the {@code scopes} query parameter.</li>
+ * <li>{@code POST} evaluates the users of an NDJSON body with one {@code {"user": ..., "scopes": ...}}
+ * object per line; the user is an id or username and the line's scopes default to the
+ * {@code scopes} query parameter. The body is spooled to a temporary file first, so the client need
+ * not read the response while it is still uploading; bodies larger than {@code maxBodySize} are
+ * rejected with {@code 413}.</li>
+ * </ul>
+ *
+ * <p>Users are evaluated in chunks on a fork-join pool, each chunk in its own Keycloak session and
+ * transaction, with {@link KeycloakMapper#computeClaims}. Memberships are asked from the entitlement
+ * source directly, so a bulk run neither evicts the cached memberships of active users nor shares
+ * their lookups. The response is NDJSON with one
+ * {@code {"line": ..., "user": ..., "userId": ..., "claims": {...}}} object per user, or an
+ * {@code "error"} instead of the claims, in the order the chunks complete. Only a bounded number
+ * of chunks is in flight, so neither the users nor the results are held in memory.
+ */
+public class BulkClaimsResource implements RealmResourceProvider {
+
+    protected static Logger log = Logger.getLogger(BulkClaimsResource.class);
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private final KeycloakSession session;
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    private final long maxBodySize;
+
+    public BulkClaimsResource(KeycloakSession session, ForkJoinPool pool, int chunkSize, long maxBodySize) {
+        this.session = session;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    @GET
+    @Path("claims")
+    @Produces(NDJSON)
+    public Response computeAll(@QueryParam("mapper") String mapperId, @QueryParam("scopes") String scopes) {
+        RealmModel realm = session.getContext().getRealm();
+        MapperPlan plan = authorize(realm, mapperId);
+        int count = session.users().getUsersCount(realm);
+        Iterator<Chunk> chunks = new Iterator<Chunk>() {
+            private int first;
+
+            @Override
+            public boolean hasNext() {
+                return first < count;
+            }
+
+            @Override
+            public Chunk next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int start = first;
+                first += chunkSize;
+                return (chunkSession, chunkRealm, out) -> {
+                    long line = start;
+                    for (UserModel user : chunkSession.users().getUsers(chunkRealm, start, chunkSize, false))
+                        evaluate(out, ++line, user.getUsername(), user, scopes, plan, chunkSession, chunkRealm);
+                };
+            }
+        };
+        return stream(realm.getId(), chunks, null);
+    }
+
+    @POST
+    @Path("claims")
+    @Consumes({NDJSON, MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
+    @Produces(NDJSON)
+    public Response compute(@QueryParam("mapper") String mapperId, @QueryParam("scopes") String scopes, InputStream input) throws IOException {
+        RealmModel realm = session.getContext().getRealm();
+        MapperPlan plan = authorize(realm, mapperId);
+        java.nio.file.Path spool = Files.createTempFile("project-claims", ".ndjson");
+        try {
+            spool(input, spool);
+            LineChunks chunks = new LineChunks(spool, scopes, plan);
+            return stream(realm.getId(), chunks, chunks);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(spool);
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the request body to the spool file, failing with {@code 413} once it exceeds {@code maxBodySize}.
+     */
+    private void spool(InputStream input, java.nio.file.Path spool) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(spool)) {
+            for (int read; (read = input.read(buffer)) != -1; ) {
+                size += read;
+                if (size > maxBodySize)
+                    throw new WebApplicationException("Request body exceeds " + maxBodySize + " bytes", Response.Status.REQUEST_ENTITY_TOO_LARGE);
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private MapperPlan authorize(RealmModel realm, String mapperId) {
+        userPermissions(realm).requireView();
+        ProtocolMapperModel mapper = mapperId != null ? findMapper(realm, mapperId) : null;
+        if (mapper == null)
+            throw new NotFoundException("No project mapper " + mapperId + " in realm " + realm.getName());
+        return MapperPlanCache.get(mapper);
+    }
+
+    /**
+     * @return the user permissions of the caller the bearer token was issued to
+     */
+    UserPermissionEvaluator userPermissions(RealmModel realm) {
+        AuthenticationManager.AuthResult auth = new AppAuthManager().authenticateBearerToken(session, realm);
+        if (auth == null)
+            throw new NotAuthorizedException("Bearer");
+        ClientModel client = realm.getClientByClientId(auth.getToken().getIssuedFor());
+        return AdminPermissions.evaluator(session, realm, new AdminAuth(realm, auth.getToken(), auth.getUser(), client)).users();
+    }
+
+    private static ProtocolMapperModel findMapper(RealmModel realm, String mapperId) {
+        List<ProtocolMapperContainerModel> containers = new ArrayList<>(realm.getClientScopes());
+        containers.addAll(realm.getClients());
+        for (ProtocolMapperContainerModel container : containers) {
+            ProtocolMapperModel mapper = container.getProtocolMapperById(mapperId);
+            if (mapper != null)
+                return KeycloakMapper.ID.equals(mapper.getProtocolMapper()) ? mapper : null;
+        }
+        return null;
+    }
+
+    private Response stream(String realmId, Iterator<Chunk> chunks, Closeable resources) {
+        KeycloakSessionFactory sessionFactory = session.getKeycloakSessionFactory();
+        int maxInFlight = Math.max(2, pool.getParallelism() * 2);
+        StreamingOutput output = out -> {
+            ExecutorCompletionService<String> completion = new ExecutorCompletionService<>(pool);
+            Set<Future<String>> inFlight = new HashSet<>();
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            try {
+                while (chunks.hasNext()) {
+                    Chunk chunk = chunks.next();
+                    inFlight.add(completion.submit(() -> run(sessionFactory, realmId, chunk)));
+                    if (inFlight.size() >= maxInFlight)
+                        write(writer, completion.take(), inFlight);
+                }
+                while (!inFlight.isEmpty())
+                    write(writer, completion.take(), inFlight);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while computing project claims", e);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                for (Future<String> future : inFlight)
+                    future.cancel(false);
+                if (resources != null)
+                    resources.close();
+            }
+        };
+        return Response.ok(output, NDJSON).build();
+    }
+
+    private static void write(Writer writer, Future<String> completed, Set<Future<String>> inFlight) throws IOException, InterruptedException {
+        inFlight.remove(completed);
+        try {
+            writer.write(completed.get());
+        } catch (ExecutionException e) {
+            throw new IOException("Computing project claims failed", e.getCause());
+        }
+        writer.flush();
+    }
+
+    private static String run(KeycloakSessionFactory sessionFactory, String realmId, Chunk chunk) {
+        StringBuilder out = new StringBuilder();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, chunkSession -> {
+            ProjectEntitlements.bypassCache(chunkSession);
+            RealmModel realm = chunkSession.realms().getRealm(realmId);
+            if (realm != null)
+                chunk.evaluate(chunkSession, realm, out);
+        });
+        return out.toString();
+    }
+
+    private static void evaluate(StringBuilder out, long line, String userRef, UserModel user, String scopes, MapperPlan plan,
+                                 KeycloakSession session, RealmModel realm) {
+        ObjectNode result = JsonSerialization.mapper.createObjectNode();
+        result.put("line", line);
+        result.put("user", userRef);
+        try {
+            if (user == null) {
+                result.put("error", "user not found");
+            } else {
+                result.put("userId", user.getId());
+                result.set("claims", JsonSerialization.mapper.valueToTree(KeycloakMapper.computeClaims(plan, scopes, realm, user, session)));
+            }
+            out.append(JsonSerialization.mapper.writeValueAsString(result)).append('\n');
+        } catch (IOException | RuntimeException e) {
+            log.debugf(e, "Computing the project claims of %s failed", userRef);
+            out.append("{\"line\":").append(line).append(",\"error\":")
+                    .append(JsonSerialization.mapper.valueToTree(String.valueOf(e.getMessage())).toString()).append("}\n");
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Evaluates a chunk of users in a session of its own.
+     */
+    private interface Chunk {
+
+        void evaluate(KeycloakSession session, RealmModel realm, StringBuilder out);
+    }
+
+    /**
+     * Reads the spooled request body a chunk at a time and deletes it when closed.
+     */
+    private final class LineChunks implements Iterator<Chunk>, Closeable {
+
+        private final java.nio.file.Path file;
+
+        private final BufferedReader reader;
+
+        private final String defaultScopes;
+
+        private final MapperPlan plan;
+
+        private long line;
+
+        private String next;
+
+        LineChunks(java.nio.file.Path file, String defaultScopes, MapperPlan plan) throws IOException {
+            this.file = file;
+            this.reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            this.defaultScopes = defaultScopes;
+            this.plan = plan;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    next = reader.readLine();
+                    if (next == null)
+                        return false;
+                    line++;
+                    if (next.trim().isEmpty())
+                        next = null;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Chunk next() {
+            List<String> lines = new ArrayList<>(chunkSize);
+            List<Long> numbers = new ArrayList<>(chunkSize);
+            while (lines.size() < chunkSize && hasNext()) {
+                lines.add(next);
+                numbers.add(line);
+                next = null;
+            }
+            if (lines.isEmpty())
+                throw new NoSuchElementException();
+            return (chunkSession, chunkRealm, out) -> {
+                for (int i = 0; i < lines.size(); i++)
+                    evaluateLine(out, numbers.get(i), lines.get(i), chunkSession, chunkRealm);
+            };
+        }
+
+        private void evaluateLine(StringBuilder out, long number, String request, KeycloakSession session, RealmModel realm) {
+            JsonNode json;
+            try {
+                json = JsonSerialization.mapper.readTree(request);
+            } catch (IOException e) {
+                out.append("{\"line\":").append(number).append(",\"error\":\"invalid JSON\"}\n");
+                return;
+            }
+            String userRef = json.path("user").asText(null);
+            String scopes = json.path("scopes").asText(defaultScopes);
+            UserModel user = null;
+            if (userRef != null) {
+                user = session.users().getUserById(userRef, realm);
+                if (user == null)
+                    user = session.users().getUserByUsername(userRef, realm);
+            }
+            evaluate(out, number, userRef, user, scopes, plan, session, realm);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+/**
+ * Registers the {@link BulkClaimsResource}. {@code parallelism} sets the size of its fork-join pool
+ * (the number of processors by default), {@code chunkSize} the number of users evaluated per
+ * task and transaction and {@code maxBodySize} the largest request body accepted, in bytes.
+ */
+public class BulkClaimsResourceProviderFactory implements RealmResourceProviderFactory {
+
+    public static final String ID = "project-claims";
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    public static final long DEFAULT_MAX_BODY_SIZE = 64L << 20;
+
+    private ForkJoinPool pool;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private long maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+    @Override
+    public RealmResourceProvider create(KeycloakSession session) {
+        return new BulkClaimsResource(session, pool, chunkSize, maxBodySize);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        chunkSize = Math.max(1, config.getInt("chunkSize", DEFAULT_CHUNK_SIZE));
+        maxBodySize = config.getLong("maxBodySize", DEFAULT_MAX_BODY_SIZE);
+        pool = new ForkJoinPool(config.getInt("parallelism", Runtime.getRuntime().availableProcessors()), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("project-claims-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public void close() {
+        if (pool != null)
+            pool.shutdownNow();
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
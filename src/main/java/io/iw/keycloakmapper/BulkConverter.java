@@ -0,0 +1,242 @@
+package io.iw.keycloakmapper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Converts all values of a multivalued attribute in one pass. The output is sized once from the
+ * input, longs, ints and doubles are parsed into primitive arrays wrapped in list views, and
+ * duplicates are dropped while converting, so no boxed intermediate values or lists are created.
+ * Values that do not parse are handled by the mapper's {@link ParseFailurePolicy}. Null values and
+ * values that are collections themselves are not handled here; {@link #convert} then returns
+ * {@link #UNSUPPORTED} and the caller converts item by item.
+ */
+final class BulkConverter {
+
+    static final Object UNSUPPORTED = new Object();
+
+    enum Kind {
+        STRING, LONG, INT, DOUBLE, BOOLEAN, JSON_OBJECT, JSON_ARRAY, UNCONVERTED
+    }
+
+    private BulkConverter() {
+    }
+
+    static Kind kindFor(String jsonType) {
+        if (jsonType == null)
+            return Kind.UNCONVERTED;
+        switch (jsonType) {
+            case "String":
+                return Kind.STRING;
+            case "long":
+                return Kind.LONG;
+            case "int":
+                return Kind.INT;
+            case "double":
+                return Kind.DOUBLE;
+            case "boolean":
+                return Kind.BOOLEAN;
+            case "JSON":
+                return Kind.JSON_OBJECT;
+            case "JSON array":
+                return Kind.JSON_ARRAY;
+        }
+        return Kind.UNCONVERTED;
+    }
+
+    static Object convert(MapperPlan plan, Collection<?> values) {
+        switch (plan.getValueKind()) {
+            case LONG:
+                return convertLongs(plan, values);
+            case INT:
+                return convertInts(plan, values);
+            case DOUBLE:
+                return convertDoubles(plan, values);
+            default:
+                return convertObjects(plan, values);
+        }
+    }
+
+    private static Object convertLongs(MapperPlan plan, Collection<?> values) {
+        MultivaluedOrder order = plan.getMultivaluedOrder();
+        long[] result = new long[values.size()];
+        LongHashSet seen = order == MultivaluedOrder.DISTINCT ? new LongHashSet(result.length) : null;
+        int size = 0;
+        for (Object value : values) {
+            if (value == null)
+                return UNSUPPORTED;
+            long converted;
+            if (value instanceof String)
+                converted = ValueParser.parseLong((String) value);
+            else if (value instanceof Long)
+                converted = (Long) value;
+            else if (value instanceof Collection)
+                return UNSUPPORTED;
+            else
+                converted = ValueParser.INVALID;
+            if (converted == ValueParser.INVALID) {
+                Object replacement = plan.onParseFailure(value);
+                if (replacement == null)
+                    continue;
+                converted = (Long) replacement;
+            }
+            if (seen == null || seen.add(converted))
+                result[size++] = converted;
+        }
+        if (order == MultivaluedOrder.SORTED)
+            size = sortDistinct(result, size);
+        return new PrimitiveLists.LongList(result, size);
+    }
+
+    private static Object convertInts(MapperPlan plan, Collection<?> values) {
+        MultivaluedOrder order = plan.getMultivaluedOrder();
+        int[] result = new int[values.size()];
+        LongHashSet seen = order == MultivaluedOrder.DISTINCT ? new LongHashSet(result.length) : null;
+        int size = 0;
+        for (Object value : values) {
+            if (value == null)
+                return UNSUPPORTED;
+            long parsed;
+            if (value instanceof String)
+                parsed = ValueParser.parseInt((String) value);
+            else if (value instanceof Integer)
+                parsed = (Integer) value;
+            else if (value instanceof Collection)
+                return UNSUPPORTED;
+            else
+                parsed = ValueParser.INVALID;
+            if (parsed == ValueParser.INVALID) {
+                Object replacement = plan.onParseFailure(value);
+                if (replacement == null)
+                    continue;
+                parsed = (Integer) replacement;
+            }
+            int converted = (int) parsed;
+            if (seen == null || seen.add(converted))
+                result[size++] = converted;
+        }
+        if (order == MultivaluedOrder.SORTED)
+            size = sortDistinct(result, size);
+        return new PrimitiveLists.IntList(result, size);
+    }
+
+    private static Object convertDoubles(MapperPlan plan, Collection<?> values) {
+        MultivaluedOrder order = plan.getMultivaluedOrder();
+        double[] result = new double[values.size()];
+        LongHashSet seen = order == MultivaluedOrder.DISTINCT ? new LongHashSet(result.length) : null;
+        int size = 0;
+        for (Object value : values) {
+            if (value == null)
+                return UNSUPPORTED;
+            double converted;
+            if (value instanceof String)
+                converted = ValueParser.parseDouble((String) value);
+            else if (value instanceof Number)
+                converted = ((Number) value).doubleValue();
+            else if (value instanceof Collection)
+                return UNSUPPORTED;
+            else
+                converted = Double.NaN;
+            if (Double.isNaN(converted)) {
+                Object replacement = plan.onParseFailure(value);
+                if (replacement == null)
+                    continue;
+                converted = (Double) replacement;
+            }
+            if (seen == null || seen.add(Double.doubleToLongBits(converted)))
+                result[size++] = converted;
+        }
+        if (order == MultivaluedOrder.SORTED)
+            size = sortDistinct(result, size);
+        return new PrimitiveLists.DoubleList(result, size);
+    }
+
+    private static Object convertObjects(MapperPlan plan, Collection<?> values) {
+        Kind kind = plan.getValueKind();
+        MultivaluedOrder order = plan.getMultivaluedOrder();
+        Object[] result = new Object[values.size()];
+        HashSet<Object> seen = order != MultivaluedOrder.KEEP ? new HashSet<>(values.size() * 4 / 3 + 1) : null;
+        int size = 0;
+        for (Object value : values) {
+            if (value == null)
+                return UNSUPPORTED;
+            if (!(value instanceof String) && value instanceof Collection)
+                return UNSUPPORTED;
+            Object converted = ValueParser.parse(kind, value);
+            if (converted == ValueParser.FAILED) {
+                converted = plan.onParseFailure(value);
+                if (converted == null)
+                    continue;
+            }
+            if (seen == null || seen.add(converted))
+                result[size++] = converted;
+        }
+        // Unconverted values and JSON need not be mutually comparable, so they are only made distinct
+        if (order == MultivaluedOrder.SORTED && (kind == Kind.STRING || kind == Kind.BOOLEAN))
+            Arrays.sort(result, 0, size);
+        return new PrimitiveLists.ObjectList(result, size);
+    }
+
+    private static int sortDistinct(long[] values, int size) {
+        Arrays.sort(values, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || values[i] != values[distinct - 1])
+                values[distinct++] = values[i];
+        }
+        return distinct;
+    }
+
+    private static int sortDistinct(double[] values, int size) {
+        Arrays.sort(values, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || Double.compare(values[i], values[distinct - 1]) != 0)
+                values[distinct++] = values[i];
+        }
+        return distinct;
+    }
+
+    private static int sortDistinct(int[] values, int size) {
+        Arrays.sort(values, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || values[i] != values[distinct - 1])
+                values[distinct++] = values[i];
+        }
+        return distinct;
+    }
+
+    /**
+     * An open addressing set of longs, sized for the number of values it will see.
+     */
+    private static final class LongHashSet {
+
+        private final long[] keys;
+
+        private final boolean[] used;
+
+        private final int mask;
+
+        LongHashSet(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected * 2, 2) - 1) << 1;
+            this.keys = new long[capacity];
+            this.used = new boolean[capacity];
+            this.mask = capacity - 1;
+        }
+
+        boolean add(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            int index = (int) (hash ^ (hash >>> 32)) & mask;
+            while (used[index]) {
+                if (keys[index] == key)
+                    return false;
+                index = (index + 1) & mask;
+            }
+            used[index] = true;
+            keys[index] = key;
+            return true;
+        }
+    }
+}
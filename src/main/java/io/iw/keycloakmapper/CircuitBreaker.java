@@ -0,0 +1,62 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops calling a failing source for a while. After {@code failureThreshold} consecutive failures
+ * the breaker opens for {@code openMillis}; after that a single trial call is let through, which
+ * closes the breaker again on success and reopens it on failure. A trial call that is abandoned
+ * before it answers lets the next call through as the trial instead.
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final AtomicBoolean trial = new AtomicBoolean();
+
+    private volatile long openUntil;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    boolean allowRequest() {
+        long until = openUntil;
+        if (until == 0)
+            return true;
+        if (System.currentTimeMillis() < until)
+            return false;
+        return trial.compareAndSet(false, true);
+    }
+
+    void onSuccess() {
+        failures.set(0);
+        openUntil = 0;
+        trial.set(false);
+    }
+
+    void onFailure() {
+        if (failures.incrementAndGet() >= failureThreshold || trial.get()) {
+            openUntil = System.currentTimeMillis() + openMillis;
+            trial.set(false);
+        }
+    }
+
+    /**
+     * Records a call that was abandoned before it answered, which says nothing about the source.
+     */
+    void onCancel() {
+        if (openUntil != 0)
+            trial.set(false);
+    }
+
+    boolean isOpen() {
+        return openUntil != 0;
+    }
+}
@@ -0,0 +1,80 @@
+package io.iw.keycloakmapper;
+
+import java.nio.file.Paths;
+import org.keycloak.Config;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientSessionContext;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.IDToken;
+
+/**
+ * The audit trail of the project claims put into tokens, written by a {@link ClaimAuditSink} when
+ * {@code auditFile} is configured. The other settings are {@code auditBufferSize} (records held in
+ * memory), {@code auditBatchSize}, {@code auditMaxFileSize} (in megabytes), {@code auditMaxFiles}
+ * (rotated files kept), {@code auditSync} (fsync every batch) and {@code auditOverflow}
+ * ({@code drop} or {@code block}).
+ */
+public final class ClaimAudit {
+
+    public static final String ACCESS_TOKEN = "access";
+
+    public static final String ID_TOKEN = "id";
+
+    public static final String USERINFO = "userinfo";
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    public static final long DEFAULT_MAX_FILE_MEGABYTES = 100;
+
+    public static final int DEFAULT_MAX_FILES = 10;
+
+    private static final String MBEAN_NAME = Jmx.DOMAIN + ":type=ClaimAuditSink";
+
+    private static volatile ClaimAuditSink sink;
+
+    private ClaimAudit() {
+    }
+
+    public static void configure(Config.Scope config) {
+        ClaimAuditSink previous = sink;
+        if (previous != null)
+            previous.close();
+        String file = config.get("auditFile");
+        if (file == null) {
+            sink = null;
+            return;
+        }
+        sink = new ClaimAuditSink(Paths.get(file),
+                config.getInt("auditBufferSize", DEFAULT_BUFFER_SIZE),
+                config.getInt("auditBatchSize", DEFAULT_BATCH_SIZE),
+                config.getLong("auditMaxFileSize", DEFAULT_MAX_FILE_MEGABYTES) * 1024 * 1024,
+                config.getInt("auditMaxFiles", DEFAULT_MAX_FILES),
+                config.getBoolean("auditSync", true),
+                ClaimAuditSink.Overflow.fromConfig(config.get("auditOverflow")));
+        Jmx.register(MBEAN_NAME, sink);
+    }
+
+    public static boolean isEnabled() {
+        return sink != null;
+    }
+
+    /**
+     * Records a claim put into a token. Does nothing when auditing is disabled.
+     */
+    public static void record(IDToken token, String tokenType, MapperPlan plan, String claim, Object value,
+                              UserSessionModel userSession, ClientSessionContext clientSessionCtx) {
+        ClaimAuditSink sink = ClaimAudit.sink;
+        if (sink == null)
+            return;
+        AuthenticatedClientSessionModel clientSession = clientSessionCtx != null ? clientSessionCtx.getClientSession() : null;
+        sink.record(new ClaimAuditRecord(System.currentTimeMillis(), userSession.getRealm().getName(),
+                clientSession != null ? clientSession.getClient().getClientId() : null, userSession.getUser().getId(),
+                tokenType, token.getId(), plan.getMapperName(), claim, value));
+    }
+
+    public static ClaimAuditSink getSink() {
+        return sink;
+    }
+}
@@ -0,0 +1,75 @@
+package io.iw.keycloakmapper;
+
+/**
+ * One project claim put into a token, as written to the audit trail: a JSON object per line with
+ * the time in epoch milliseconds, the realm name, client id, user id, token type and id, mapper
+ * name, claim name and claim value.
+ */
+public final class ClaimAuditRecord {
+
+    private final long time;
+
+    private final String realm;
+
+    private final String client;
+
+    private final String user;
+
+    private final String tokenType;
+
+    private final String tokenId;
+
+    private final String mapper;
+
+    private final String claim;
+
+    private final Object value;
+
+    public ClaimAuditRecord(long time, String realm, String client, String user, String tokenType, String tokenId, String mapper, String claim, Object value) {
+        this.time = time;
+        this.realm = realm;
+        this.client = client;
+        this.user = user;
+        this.tokenType = tokenType;
+        this.tokenId = tokenId;
+        this.mapper = mapper;
+        this.claim = claim;
+        this.value = value;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getRealm() {
+        return realm;
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getTokenType() {
+        return tokenType;
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public String getMapper() {
+        return mapper;
+    }
+
+    public String getClaim() {
+        return claim;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,279 @@
+package io.iw.keycloakmapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.jboss.logging.Logger;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Writes {@link ClaimAuditRecord}s to an append-only file without making the token request wait
+ * on disk. Records go into a lock-free {@link AuditRing}; a single writer thread drains it in
+ * batches, appends a batch as JSON lines with one write and syncs it to disk with one fsync (group
+ * commit), so the cost of a sync is shared by every record of the batch.
+ *
+ * <p>When the file has grown beyond {@code maxFileBytes} it is rotated: {@code audit.log} becomes
+ * {@code audit.log.1}, older files move up by one and the oldest beyond {@code maxFiles} is
+ * deleted. When the ring is full the {@link Overflow} policy decides whether the record is dropped
+ * and counted or the request waits for space.
+ */
+public final class ClaimAuditSink implements ClaimAuditSinkMXBean {
+
+    protected static Logger log = Logger.getLogger(ClaimAuditSink.class);
+
+    private static final byte NEWLINE = '\n';
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final long BLOCKED_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    public enum Overflow {
+
+        /**
+         * Drop the record and count it.
+         */
+        DROP,
+
+        /**
+         * Wait until the writer has made room.
+         */
+        BLOCK;
+
+        public static Overflow fromConfig(String value) {
+            if (value == null)
+                return DROP;
+            for (Overflow overflow : values()) {
+                if (overflow.name().equalsIgnoreCase(value.trim()))
+                    return overflow;
+            }
+            log.warnf("Unknown auditOverflow %s, using %s", value, DROP.name().toLowerCase());
+            return DROP;
+        }
+    }
+
+    private final Path file;
+
+    private final AuditRing ring;
+
+    private final ClaimAuditRecord[] batch;
+
+    private final long maxFileBytes;
+
+    private final int maxFiles;
+
+    private final boolean sync;
+
+    private final Overflow overflow;
+
+    private final Thread writer;
+
+    private final ByteArrayOutputStream lines = new ByteArrayOutputStream(1 << 16);
+
+    private FileChannel channel;
+
+    private volatile boolean running = true;
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder blocked = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder syncs = new LongAdder();
+
+    private final LongAdder rotations = new LongAdder();
+
+    private final LongAdder writeFailures = new LongAdder();
+
+    public ClaimAuditSink(Path file, int bufferSize, int batchSize, long maxFileBytes, int maxFiles, boolean sync, Overflow overflow) {
+        this.file = file;
+        this.ring = new AuditRing(bufferSize);
+        this.batch = new ClaimAuditRecord[batchSize];
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.sync = sync;
+        this.overflow = overflow;
+        this.writer = new Thread(this::run, "project-claim-audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Hands the record to the writer. Returns immediately unless the buffer is full and the
+     * overflow policy is {@link Overflow#BLOCK}.
+     */
+    public void record(ClaimAuditRecord record) {
+        if (ring.offer(record))
+            return;
+        if (overflow == Overflow.DROP) {
+            dropped.increment();
+            return;
+        }
+        blocked.increment();
+        do {
+            if (!running) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.parkNanos(this, BLOCKED_NANOS);
+        } while (!ring.offer(record));
+    }
+
+    private void run() {
+        while (true) {
+            int count = ring.drain(batch);
+            if (count == 0) {
+                if (!running)
+                    break;
+                LockSupport.parkNanos(this, IDLE_NANOS);
+                continue;
+            }
+            write(count);
+        }
+        closeChannel();
+    }
+
+    private void write(int count) {
+        lines.reset();
+        for (int i = 0; i < count; i++) {
+            try {
+                JsonSerialization.mapper.writeValue(lines, batch[i]);
+                lines.write(NEWLINE);
+            } catch (IOException e) {
+                log.debugf(e, "Could not serialize audit record of user %s", batch[i].getUser());
+                dropped.increment();
+                count--;
+            }
+            batch[i] = null;
+        }
+        try {
+            FileChannel channel = channel();
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            if (sync) {
+                channel.force(false);
+                syncs.increment();
+            }
+            written.add(count);
+            batches.increment();
+            if (channel.size() >= maxFileBytes)
+                rotate();
+        } catch (IOException e) {
+            writeFailures.increment();
+            dropped.add(count);
+            log.warnf("Could not write %d project claim audit records to %s: %s", count, file, e.getMessage());
+            closeChannel();
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null)
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return channel;
+    }
+
+    private void rotate() throws IOException {
+        closeChannel();
+        Files.deleteIfExists(rotated(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path older = rotated(i);
+            if (Files.exists(older))
+                Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (maxFiles >= 1)
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        else
+            Files.delete(file);
+        rotations.increment();
+    }
+
+    private Path rotated(int index) {
+        return Paths.get(file + "." + index);
+    }
+
+    private void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debugf(e, "Could not close %s", file);
+        }
+        channel = null;
+    }
+
+    /**
+     * Stops taking records, writes what is buffered and closes the file.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String getFile() {
+        return file.toString();
+    }
+
+    @Override
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getSyncCount() {
+        return syncs.sum();
+    }
+
+    @Override
+    public long getRotationCount() {
+        return rotations.sum();
+    }
+
+    @Override
+    public long getWriteFailureCount() {
+        return writeFailures.sum();
+    }
+
+    @Override
+    public int getBufferedCount() {
+        return ring.size();
+    }
+
+    @Override
+    public int getBufferCapacity() {
+        return ring.capacity();
+    }
+}
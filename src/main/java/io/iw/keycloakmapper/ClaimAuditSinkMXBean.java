@@ -0,0 +1,33 @@
+package io.iw.keycloakmapper;
+
+/**
+ * JMX view of the {@link ClaimAuditSink} counters.
+ */
+public interface ClaimAuditSinkMXBean {
+
+    String getFile();
+
+    long getWrittenCount();
+
+    /**
+     * @return records dropped because the buffer was full or the file could not be written
+     */
+    long getDroppedCount();
+
+    /**
+     * @return records that waited for buffer space with the {@code block} overflow policy
+     */
+    long getBlockedCount();
+
+    long getBatchCount();
+
+    long getSyncCount();
+
+    long getRotationCount();
+
+    long getWriteFailureCount();
+
+    int getBufferedCount();
+
+    int getBufferCapacity();
+}
@@ -0,0 +1,15 @@
+package io.iw.keycloakmapper;
+
+/**
+ * Thrown when an attribute value cannot be converted and the mapper is configured to
+ * {@link ParseFailurePolicy#FAIL fail}. It carries no stack trace, which would only point at the
+ * converter and is costly to fill in on the token path.
+ */
+public class ClaimConversionException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ClaimConversionException(String message) {
+        super(message, null, false, false);
+    }
+}
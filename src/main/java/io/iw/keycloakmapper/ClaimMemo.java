@@ -0,0 +1,100 @@
+package io.iw.keycloakmapper;
+
+/**
+ * Reads and writes the claim value a mapper resolved for a client session, so access token,
+ * ID token and userinfo requests of the same session do not repeat the scope parsing and the
+ * membership check. The memo is stored as a client session note of the form
+ * {@code configHash:membershipVersion:aliasesVersion:expiresAt:scopesLength:scopes+value}
+ * ({@code -} instead of {@code +value} when no claim is issued) and is only reused while the
+ * mapper config, the user's membership version, the project aliases and the requested scopes are
+ * unchanged and it has not expired. The scopes are kept verbatim rather than hashed, so a session
+ * can never be handed the memo of other scopes whose hash collides.
+ */
+public final class ClaimMemo {
+
+    public static final String NOTE_PREFIX = "project-mapper.memo.";
+
+    /**
+     * Returned by {@link #lookup} when the memo says no claim is issued.
+     */
+    public static final String NO_CLAIM = new String("-");
+
+    private static final int FIELDS = 5;
+
+    private ClaimMemo() {
+    }
+
+    /**
+     * @return the memoized value, {@link #NO_CLAIM}, or null when the note is missing or stale
+     */
+    public static String lookup(String note, int configHash, String scopes, long membershipVersion, long aliasesVersion, long nowSeconds) {
+        if (note == null)
+            return null;
+        int length = note.length();
+        int start = 0;
+        long configField = 0, versionField = 0, aliasesField = 0, expiresField = 0, scopesLength = 0;
+        for (int field = 0; field < FIELDS; field++) {
+            int end = note.indexOf(':', start);
+            if (end < 0)
+                return null;
+            long value = parseLong(note, start, end);
+            if (value == Long.MIN_VALUE)
+                return null;
+            switch (field) {
+                case 0: configField = value; break;
+                case 1: versionField = value; break;
+                case 2: aliasesField = value; break;
+                case 3: expiresField = value; break;
+                default: scopesLength = value; break;
+            }
+            start = end + 1;
+        }
+        if (scopes == null)
+            scopes = "";
+        if (configField != configHash || versionField != membershipVersion || aliasesField != aliasesVersion
+                || expiresField <= nowSeconds || scopesLength != scopes.length() || start + scopesLength >= length
+                || !note.regionMatches(start, scopes, 0, scopes.length()))
+            return null;
+        start += scopes.length();
+        if (note.charAt(start) == '-')
+            return NO_CLAIM;
+        if (note.charAt(start) != '+' || start + 1 == length)
+            return null;
+        return note.substring(start + 1, length);
+    }
+
+    public static String write(int configHash, String scopes, long membershipVersion, long aliasesVersion, long expiresAtSeconds, String value) {
+        if (scopes == null)
+            scopes = "";
+        StringBuilder note = new StringBuilder(80 + scopes.length() + (value != null ? value.length() : 0));
+        note.append(configHash).append(':').append(membershipVersion).append(':').append(aliasesVersion).append(':')
+                .append(expiresAtSeconds).append(':').append(scopes.length()).append(':').append(scopes);
+        if (value == null)
+            note.append('-');
+        else
+            note.append('+').append(value);
+        return note.toString();
+    }
+
+    /**
+     * @return the decimal number between start and end, or Long.MIN_VALUE when it is malformed
+     */
+    private static long parseLong(String s, int start, int end) {
+        if (start >= end)
+            return Long.MIN_VALUE;
+        boolean negative = s.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 19)
+            return Long.MIN_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return Long.MIN_VALUE;
+            value = value * 10 + (c - '0');
+            if (value < 0)
+                return Long.MIN_VALUE;
+        }
+        return negative ? -value : value;
+    }
+}
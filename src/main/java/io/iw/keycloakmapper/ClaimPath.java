@@ -0,0 +1,46 @@
+package io.iw.keycloakmapper;
+
+import java.util.List;
+
+/**
+ * An immutable, pre-split token claim path such as {@code ext.project} or {@code a\.b.c}.
+ * Splitting (and unescaping) is done once when the path is compiled so the token
+ * building path only has to walk an array.
+ */
+public final class ClaimPath {
+
+    private final String claimName;
+
+    private final String[] components;
+
+    private ClaimPath(String claimName, String[] components) {
+        this.claimName = claimName;
+        this.components = components;
+    }
+
+    public static ClaimPath compile(String claimName) {
+        List<String> split = UtilMapper.splitClaimPath(claimName);
+        return new ClaimPath(claimName, split.toArray(new String[split.size()]));
+    }
+
+    public String getClaimName() {
+        return claimName;
+    }
+
+    public int length() {
+        return components.length;
+    }
+
+    public String component(int index) {
+        return components[index];
+    }
+
+    public boolean isEmpty() {
+        return components.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return claimName;
+    }
+}
@@ -0,0 +1,182 @@
+package io.iw.keycloakmapper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects claim writes for one token and merges them into the token's claims in a single pass,
+ * instead of walking the claims from the root once per claim. Intermediate objects that do not
+ * exist yet are created with exactly the capacity their children need.
+ *
+ * <p>Conflicts are resolved deterministically:
+ * <ul>
+ * <li>between writes collected by the builder, the later write wins: a value replaces anything
+ * written earlier at or below its path, and a nested write replaces a value written earlier at
+ * one of its parents;</li>
+ * <li>against claims already in the token, leaves overwrite existing values, but a claim that is
+ * not a JSON object is never replaced by an intermediate object. The writes below it are skipped
+ * and reported as conflicts.</li>
+ * </ul>
+ */
+public final class ClaimTreeBuilder {
+
+    private final Node root = new Node();
+
+    public ClaimTreeBuilder put(ClaimPath path, Object value) {
+        if (path == null || path.isEmpty() || value == null)
+            return this;
+        Node node = root;
+        int last = path.length() - 1;
+        for (int i = 0; i < last; i++) {
+            node = node.child(path.component(i));
+            node.value = null;
+        }
+        Node leaf = node.child(path.component(last));
+        leaf.value = value;
+        leaf.clearChildren();
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return root.size == 0;
+    }
+
+    /**
+     * Merges the collected claims into {@code claims}.
+     *
+     * @return the number of collected values that were skipped because of a conflicting claim
+     */
+    public int writeTo(Map<String, Object> claims) {
+        return merge(claims, root);
+    }
+
+    /**
+     * Writes a single value without collecting it first, with the same conflict rules.
+     *
+     * @return false when the value was skipped because the path is empty or a parent claim is not
+     * a JSON object
+     */
+    public static boolean write(Map<String, Object> claims, ClaimPath path, Object value) {
+        if (path.isEmpty())
+            return false;
+        Map<String, Object> jsonObject = claims;
+        int last = path.length() - 1;
+        for (int i = 0; i < last; i++) {
+            String component = path.component(i);
+            Object nested = jsonObject.get(component);
+            if (nested == null) {
+                // Sized for the one child written below it
+                nested = new HashMap<String, Object>(capacityFor(1));
+                jsonObject.put(component, nested);
+            } else if (!(nested instanceof Map)) {
+                return false;
+            }
+            jsonObject = asJsonObject(nested);
+        }
+        jsonObject.put(path.component(last), value);
+        return true;
+    }
+
+    /**
+     * @return the value at the path, or null when there is none
+     */
+    public static Object read(Map<String, Object> claims, ClaimPath path) {
+        Object claim = claims;
+        for (int i = 0; i < path.length(); i++) {
+            if (!(claim instanceof Map))
+                return null;
+            claim = asJsonObject(claim).get(path.component(i));
+        }
+        return path.isEmpty() ? null : claim;
+    }
+
+    private static int merge(Map<String, Object> target, Node node) {
+        int conflicts = 0;
+        for (int i = 0; i < node.size; i++) {
+            String name = node.names[i];
+            Node child = node.nodes[i];
+            if (child.value != null) {
+                target.put(name, child.value);
+                continue;
+            }
+            Object existing = target.get(name);
+            if (existing == null)
+                target.put(name, materialize(child));
+            else if (existing instanceof Map)
+                conflicts += merge(asJsonObject(existing), child);
+            else
+                conflicts += child.leafCount();
+        }
+        return conflicts;
+    }
+
+    private static Map<String, Object> materialize(Node node) {
+        Map<String, Object> jsonObject = new HashMap<>(capacityFor(node.size));
+        for (int i = 0; i < node.size; i++) {
+            Node child = node.nodes[i];
+            jsonObject.put(node.names[i], child.value != null ? child.value : materialize(child));
+        }
+        return jsonObject;
+    }
+
+    /**
+     * Claims that are maps are JSON objects, keyed by their claim names.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asJsonObject(Object claim) {
+        return (Map<String, Object>) claim;
+    }
+
+    private static int capacityFor(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    /**
+     * A trie node. Claim objects have few children, so they are kept in insertion ordered arrays
+     * and found by a linear scan.
+     */
+    private static final class Node {
+
+        private Object value;
+
+        private String[] names;
+
+        private Node[] nodes;
+
+        private int size;
+
+        private Node child(String name) {
+            for (int i = 0; i < size; i++) {
+                if (names[i].equals(name))
+                    return nodes[i];
+            }
+            if (names == null) {
+                names = new String[4];
+                nodes = new Node[4];
+            } else if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            Node child = new Node();
+            names[size] = name;
+            nodes[size++] = child;
+            return child;
+        }
+
+        private void clearChildren() {
+            names = null;
+            nodes = null;
+            size = 0;
+        }
+
+        private int leafCount() {
+            if (value != null)
+                return 1;
+            int count = 0;
+            for (int i = 0; i < size; i++)
+                count += nodes[i].leafCount();
+            return count;
+        }
+    }
+}
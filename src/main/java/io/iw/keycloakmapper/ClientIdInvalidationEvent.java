@@ -0,0 +1,27 @@
+package io.iw.keycloakmapper;
+
+import org.keycloak.cluster.ClusterEvent;
+
+/**
+ * Tells the other cluster nodes to drop the clientId mappings {@link ClientIdResolver} cached for a
+ * realm, after one of its clients was created, updated or removed.
+ */
+public class ClientIdInvalidationEvent implements ClusterEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String realmId;
+
+    public ClientIdInvalidationEvent(String realmId) {
+        this.realmId = realmId;
+    }
+
+    public String getRealmId() {
+        return realmId;
+    }
+
+    @Override
+    public String toString() {
+        return "clients of realm " + realmId;
+    }
+}
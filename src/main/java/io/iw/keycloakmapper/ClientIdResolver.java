@@ -0,0 +1,95 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Resolves clientIds to client UUIDs, caching the result per realm. Clients that do not exist are
+ * cached for {@code clientMissingTtl} seconds (30 by default). A realm's mappings are dropped on every cluster node
+ * whenever one of its clients is created, updated or removed, so renamed and recreated clients are
+ * picked up on the next lookup.
+ */
+public final class ClientIdResolver {
+
+    public static final long DEFAULT_MISSING_TTL_SECONDS = 30;
+
+    private static volatile long missingTtlMillis = DEFAULT_MISSING_TTL_SECONDS * 1000;
+
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Resolved>> realms = new ConcurrentHashMap<>();
+
+    private ClientIdResolver() {
+    }
+
+    /**
+     * @return the UUID of the client, or null when the realm has no client with that clientId
+     */
+    public static String resolve(RealmModel realm, String clientId) {
+        ConcurrentHashMap<String, Resolved> clients = realms.computeIfAbsent(realm.getId(), id -> new ConcurrentHashMap<>());
+        Resolved resolved = clients.get(clientId);
+        if (resolved == null || resolved.id == null && resolved.expiresAt <= System.currentTimeMillis()) {
+            ClientModel client = realm.getClientByClientId(clientId);
+            resolved = client != null ? new Resolved(client.getId(), 0) : new Resolved(null, System.currentTimeMillis() + missingTtlMillis);
+            clients.put(clientId, resolved);
+        }
+        return resolved.id;
+    }
+
+    public static void setMissingTtlMillis(long millis) {
+        missingTtlMillis = millis;
+    }
+
+    public static void invalidateRealm(String realmId) {
+        realms.remove(realmId);
+    }
+
+    public static void registerListeners(KeycloakSessionFactory factory) {
+        factory.register(event -> {
+            if (event instanceof RealmModel.ClientCreationEvent) {
+                String realmId = ((RealmModel.ClientCreationEvent) event).getCreatedClient().getRealm().getId();
+                // The creation event carries no session, but a client created by a request belongs to the request's
+                KeycloakSession session = ResteasyProviderFactory.getContextData(KeycloakSession.class);
+                if (session != null)
+                    clientsChanged(session, realmId);
+                else
+                    KeycloakModelUtils.runJobInTransaction(factory, jobSession -> clientsChanged(jobSession, realmId));
+            } else if (event instanceof RealmModel.ClientUpdatedEvent) {
+                RealmModel.ClientUpdatedEvent updated = (RealmModel.ClientUpdatedEvent) event;
+                clientsChanged(updated.getKeycloakSession(), updated.getUpdatedClient().getRealm().getId());
+            } else if (event instanceof RealmModel.ClientRemovedEvent) {
+                RealmModel.ClientRemovedEvent removed = (RealmModel.ClientRemovedEvent) event;
+                clientsChanged(removed.getKeycloakSession(), removed.getClient().getRealm().getId());
+            } else if (event instanceof RealmModel.RealmRemovedEvent) {
+                invalidateRealm(((RealmModel.RealmRemovedEvent) event).getRealm().getId());
+            }
+        });
+    }
+
+    /**
+     * Drops the realm's mappings right away, and on every node once the change is committed, so no
+     * node caches the client as missing before it exists.
+     */
+    private static void clientsChanged(KeycloakSession session, String realmId) {
+        invalidateRealm(realmId);
+        EntitlementInvalidation.local().publish(session, new ClientIdInvalidationEvent(realmId));
+    }
+
+    private static final class Resolved {
+
+        /**
+         * The client UUID, or null when the client does not exist.
+         */
+        final String id;
+
+        final long expiresAt;
+
+        Resolved(String id, long expiresAt) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
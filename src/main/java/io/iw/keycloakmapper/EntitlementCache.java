@@ -0,0 +1,320 @@
+package io.iw.keycloakmapper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A bounded cache of project membership decisions keyed by (realm, user, project).
+ *
+ * <p>Entries live in independently locked LRU segments so concurrent token requests rarely
+ * contend. Granted and denied decisions have separate time to live values, which allows denials
+ * to be cached for a shorter time than grants.
+ *
+ * <p>Invalidation is O(1): every load is stamped with a sequence number taken before the source
+ * is asked, and invalidating a user or a realm records a newer sequence number for it. Entries
+ * loaded before that stamp are treated as absent, even when the load raced with the invalidation,
+ * and are evicted as the segments fill up. Stamps are only kept for as long as an entry written
+ * before them could still be alive; when old stamps are pruned, every entry loaded before them is
+ * treated as invalidated, so expired entries are no longer returned by {@link #getStale} either.
+ */
+public final class EntitlementCache implements EntitlementCacheMXBean {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final int maximumSize;
+
+    private final long ttlMillis;
+
+    private final long negativeTtlMillis;
+
+    // Seeded from the clock so versions handed out by different nodes or restarts do not collide
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() << 20);
+
+    private final ConcurrentHashMap<String, Stamp> userStamps = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Stamp> realmStamps = new ConcurrentHashMap<>();
+
+    /**
+     * Entries loaded at or before this sequence are invalidated: the newest pruned stamp.
+     */
+    private final AtomicLong prunedSequence = new AtomicLong();
+
+    /**
+     * The sequence of the last {@link #invalidateAll}, which invalidates every entry loaded before it.
+     */
+    private volatile long allSequence;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    public EntitlementCache(int maximumSize, long ttlMillis, long negativeTtlMillis) {
+        if (maximumSize < SEGMENTS)
+            throw new IllegalArgumentException("maximum size must be at least " + SEGMENTS);
+        this.maximumSize = maximumSize;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(maximumSize / SEGMENTS);
+    }
+
+    /**
+     * @return the cached decision, or null when there is no live entry for the key
+     */
+    public Boolean getIfPresent(EntitlementKey key) {
+        Segment segment = segmentFor(key);
+        Entry entry = segment.get(key);
+        if (entry == null || isInvalidated(key, entry)) {
+            if (entry != null)
+                segment.remove(key, entry);
+            misses.increment();
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.granted;
+    }
+
+    /**
+     * Returns the last decision cached for the key even when its time to live has passed, as long
+     * as it was not invalidated. Expired entries stay around until they are evicted or replaced,
+     * which lets callers fall back to them when the source is too slow.
+     *
+     * @return the decision, or null when there is none
+     */
+    public Boolean getStale(EntitlementKey key) {
+        Entry entry = segmentFor(key).get(key);
+        return entry == null || isInvalidated(key, entry) ? null : entry.granted;
+    }
+
+    /**
+     * Returns the cached decision for the key, asking the loader on a miss. Failures of the loader
+     * are propagated and nothing is cached for them.
+     */
+    public boolean get(EntitlementKey key, Predicate<EntitlementKey> loader) {
+        Boolean cached = getIfPresent(key);
+        if (cached != null)
+            return cached;
+        return load(key, loader);
+    }
+
+    /**
+     * Asks the loader without looking at the cache first and caches its decision.
+     */
+    public boolean load(EntitlementKey key, Predicate<EntitlementKey> loader) {
+        long loadSequence = sequence.incrementAndGet();
+        boolean granted = loader.test(key);
+        put(key, granted, loadSequence);
+        return granted;
+    }
+
+    public void put(EntitlementKey key, boolean granted) {
+        put(key, granted, sequence.incrementAndGet());
+    }
+
+    private void put(EntitlementKey key, boolean granted, long loadSequence) {
+        long expiresAt = System.currentTimeMillis() + (granted ? ttlMillis : negativeTtlMillis);
+        segmentFor(key).put(key, new Entry(granted, loadSequence, expiresAt));
+    }
+
+    /**
+     * Drops every decision made for the user so far, in all realms.
+     */
+    public void invalidateUser(String userId) {
+        stamp(userStamps, userId);
+    }
+
+    /**
+     * Drops every decision made for any user of the realm so far.
+     */
+    public void invalidateRealm(String realmId) {
+        stamp(realmStamps, realmId);
+    }
+
+    /**
+     * @return a number that changes whenever the user's or the realm's decisions are invalidated,
+     * 0 when they never were (or so long ago that no cached decision can predate it)
+     */
+    public long membershipVersion(String realmId, String userId) {
+        Stamp user = userStamps.isEmpty() ? null : userStamps.get(userId);
+        Stamp realm = realmStamps.isEmpty() ? null : realmStamps.get(realmId);
+        return Math.max(allSequence, Math.max(user != null ? user.sequence : 0, realm != null ? realm.sequence : 0));
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getNegativeTtlMillis() {
+        return negativeTtlMillis;
+    }
+
+    /**
+     * Drops every decision, and changes the {@link #membershipVersion} of every user.
+     */
+    @Override
+    public void invalidateAll() {
+        invalidations.increment();
+        allSequence = sequence.incrementAndGet();
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    private void stamp(ConcurrentHashMap<String, Stamp> stamps, String id) {
+        invalidations.increment();
+        long now = System.currentTimeMillis();
+        stamps.put(id, new Stamp(sequence.incrementAndGet(), now));
+        if (stamps.size() > maximumSize)
+            prune(stamps, now);
+    }
+
+    private void prune(ConcurrentHashMap<String, Stamp> stamps, long now) {
+        long oldest = now - Math.max(ttlMillis, negativeTtlMillis);
+        long newestPruned = 0;
+        for (Stamp stamp : stamps.values()) {
+            if (stamp.time < oldest)
+                newestPruned = Math.max(newestPruned, stamp.sequence);
+        }
+        // Raised before the stamps go, so the entries they cover never look valid in between
+        long floor = prunedSequence.accumulateAndGet(newestPruned, Math::max);
+        for (Iterator<Stamp> iterator = stamps.values().iterator(); iterator.hasNext(); ) {
+            Stamp stamp = iterator.next();
+            if (stamp.time < oldest && stamp.sequence <= floor)
+                iterator.remove();
+        }
+    }
+
+    private boolean isInvalidated(EntitlementKey key, Entry entry) {
+        if (entry.sequence <= allSequence || entry.sequence <= prunedSequence.get())
+            return true;
+        if (!userStamps.isEmpty() && isStale(userStamps.get(key.getUserId()), entry))
+            return true;
+        return !realmStamps.isEmpty() && isStale(realmStamps.get(key.getRealmId()), entry);
+    }
+
+    private static boolean isStale(Stamp stamp, Entry entry) {
+        return stamp != null && stamp.sequence >= entry.sequence;
+    }
+
+    private Segment segmentFor(EntitlementKey key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size();
+        return size;
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    public String toString() {
+        return "EntitlementCache[size=" + getSize() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", invalidations=" + getInvalidationCount() + "]";
+    }
+
+    private final class Segment {
+
+        private final LinkedHashMap<EntitlementKey, Entry> entries;
+
+        private Segment(int capacity) {
+            this.entries = new LinkedHashMap<EntitlementKey, Entry>(capacity * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<EntitlementKey, Entry> eldest) {
+                    if (size() <= capacity)
+                        return false;
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        synchronized Entry get(EntitlementKey key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(EntitlementKey key, Entry entry) {
+            entries.put(key, entry);
+        }
+
+        synchronized void remove(EntitlementKey key, Entry entry) {
+            entries.remove(key, entry);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+    }
+
+    private static final class Entry {
+
+        private final boolean granted;
+
+        private final long sequence;
+
+        private final long expiresAt;
+
+        private Entry(boolean granted, long sequence, long expiresAt) {
+            this.granted = granted;
+            this.sequence = sequence;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Stamp {
+
+        private final long sequence;
+
+        private final long time;
+
+        private Stamp(long sequence, long time) {
+            this.sequence = sequence;
+            this.time = time;
+        }
+    }
+}
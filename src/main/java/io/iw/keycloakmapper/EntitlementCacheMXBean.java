@@ -0,0 +1,21 @@
+package io.iw.keycloakmapper;
+
+/**
+ * JMX view of the {@link EntitlementCache} counters, used to size the cache.
+ */
+public interface EntitlementCacheMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    long getInvalidationCount();
+
+    int getSize();
+
+    int getMaximumSize();
+
+    void invalidateAll();
+}
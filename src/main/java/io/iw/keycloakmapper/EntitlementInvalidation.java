@@ -0,0 +1,112 @@
+package io.iw.keycloakmapper;
+
+import java.util.function.Supplier;
+import org.jboss.logging.Logger;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Keeps the entitlement caches of all cluster nodes coherent. Every node answers from its own
+ * in-memory {@link EntitlementCache}; an invalidation is applied to the local cache and sent to the
+ * other nodes through Keycloak's {@link ClusterProvider}, which delivers it over the embedded
+ * Infinispan work cache, so each node drops the same entries from its cache. The same channel
+ * carries the {@link ClientIdInvalidationEvent}s of the {@link ClientIdResolver}. Without a cluster
+ * provider invalidations stay local.
+ *
+ * <p>Like Keycloak's own cache invalidations, they are sent once the transaction that changed the
+ * memberships has completed, so no node can reload and cache the old memberships in between.
+ *
+ * <p>An instance applies invalidations to the entitlement cache and group index of one node;
+ * {@link #local()} is the one of this node.
+ */
+final class EntitlementInvalidation {
+
+    protected static Logger log = Logger.getLogger(EntitlementInvalidation.class);
+
+    static final String TASK_KEY = "project-entitlements.invalidate";
+
+    private static final EntitlementInvalidation local = new EntitlementInvalidation(ProjectEntitlements::getCache, ProjectEntitlements.getGroupIndex());
+
+    /**
+     * Supplies the current cache, which is replaced when the entitlements are configured.
+     */
+    private final Supplier<EntitlementCache> cache;
+
+    private final ProjectGroupIndex groupIndex;
+
+    EntitlementInvalidation(Supplier<EntitlementCache> cache, ProjectGroupIndex groupIndex) {
+        this.cache = cache;
+        this.groupIndex = groupIndex;
+    }
+
+    static EntitlementInvalidation local() {
+        return local;
+    }
+
+    void registerListener(KeycloakSessionFactory factory) {
+        KeycloakModelUtils.runJobInTransaction(factory, session -> {
+            ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+            if (cluster == null) {
+                log.debug("No cluster provider, project entitlement invalidations stay local");
+                return;
+            }
+            cluster.registerListener(TASK_KEY, this::received);
+        });
+    }
+
+    void publish(KeycloakSession session, ClusterEvent event) {
+        KeycloakTransactionManager transaction = session.getTransactionManager();
+        if (!transaction.isActive()) {
+            send(session, event);
+            return;
+        }
+        transaction.enlistAfterCompletion(new AbstractKeycloakTransaction() {
+            @Override
+            protected void commitImpl() {
+                send(session, event);
+            }
+
+            @Override
+            protected void rollbackImpl() {
+            }
+        });
+    }
+
+    private void send(KeycloakSession session, ClusterEvent event) {
+        apply(event);
+        ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+        if (cluster != null)
+            cluster.notify(TASK_KEY, event, true, ClusterProvider.DCNotify.ALL_DCS);
+    }
+
+    private void received(ClusterEvent event) {
+        if (!(event instanceof EntitlementInvalidationEvent || event instanceof ClientIdInvalidationEvent))
+            return;
+        log.debugf("Invalidating the cached %s on behalf of another node", event);
+        apply(event);
+    }
+
+    private void apply(ClusterEvent event) {
+        if (event instanceof ClientIdInvalidationEvent)
+            ClientIdResolver.invalidateRealm(((ClientIdInvalidationEvent) event).getRealmId());
+        else if (event instanceof EntitlementInvalidationEvent)
+            apply((EntitlementInvalidationEvent) event);
+    }
+
+    private void apply(EntitlementInvalidationEvent event) {
+        if (event.getUserId() != null) {
+            cache.get().invalidateUser(event.getUserId());
+            return;
+        }
+        cache.get().invalidateRealm(event.getRealmId());
+        if (event.getGroupId() != null)
+            groupIndex.groupChanged(event.getRealmId(), event.getGroupId());
+        else
+            groupIndex.invalidateRealm(event.getRealmId());
+    }
+}
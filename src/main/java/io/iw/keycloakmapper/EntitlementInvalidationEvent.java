@@ -0,0 +1,56 @@
+package io.iw.keycloakmapper;
+
+import org.keycloak.cluster.ClusterEvent;
+
+/**
+ * Tells the other cluster nodes to drop the cached project memberships of a user, or of a whole
+ * realm when no user is given. A realm event naming a group also drops the projects of the
+ * {@link ProjectGroupIndex} that the group can affect.
+ */
+public class EntitlementInvalidationEvent implements ClusterEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String realmId;
+
+    private final String userId;
+
+    private final String groupId;
+
+    private EntitlementInvalidationEvent(String realmId, String userId, String groupId) {
+        this.realmId = realmId;
+        this.userId = userId;
+        this.groupId = groupId;
+    }
+
+    public static EntitlementInvalidationEvent user(String userId) {
+        return new EntitlementInvalidationEvent(null, userId, null);
+    }
+
+    public static EntitlementInvalidationEvent realm(String realmId) {
+        return new EntitlementInvalidationEvent(realmId, null, null);
+    }
+
+    public static EntitlementInvalidationEvent group(String realmId, String groupId) {
+        return new EntitlementInvalidationEvent(realmId, null, groupId);
+    }
+
+    public String getRealmId() {
+        return realmId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    @Override
+    public String toString() {
+        if (userId != null)
+            return "project entitlements of user " + userId;
+        return "project entitlements of " + (groupId != null ? "group " + groupId + " of realm " + realmId : "realm " + realmId);
+    }
+}
@@ -0,0 +1,55 @@
+package io.iw.keycloakmapper;
+
+/**
+ * Identifies a single project membership decision: may this user of this realm be issued this project.
+ */
+public final class EntitlementKey {
+
+    private final String realmId;
+
+    private final String userId;
+
+    private final String project;
+
+    private final int hash;
+
+    public EntitlementKey(String realmId, String userId, String project) {
+        this.realmId = realmId;
+        this.userId = userId;
+        this.project = project;
+        this.hash = 31 * (31 * realmId.hashCode() + userId.hashCode()) + project.hashCode();
+    }
+
+    public String getRealmId() {
+        return realmId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof EntitlementKey))
+            return false;
+        EntitlementKey other = (EntitlementKey) o;
+        return hash == other.hash && project.equals(other.project) && userId.equals(other.userId)
+                && realmId.equals(other.realmId);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return realmId + "/" + userId + "/" + project;
+    }
+}
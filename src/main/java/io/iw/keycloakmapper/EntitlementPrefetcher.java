@@ -0,0 +1,202 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Resolves project memberships in the background as soon as a user has logged in, so the backend
+ * latency overlaps with the rest of the login flow instead of adding to the token request.
+ *
+ * <p>Lookups run on a bounded pool, each in its own Keycloak session and transaction, and their
+ * results go into the {@link EntitlementCache}. They are coalesced with the token requests' own
+ * lookups through a shared {@link SingleFlight}. When the pool is saturated the lookup is simply not
+ * prefetched. A token request that finds a prefetch still in flight waits for it at most
+ * {@code deadlineMillis} and then applies the {@link Fallback}, whose decision is not cached;
+ * lookups started by other token requests are joined as usual.
+ */
+public final class EntitlementPrefetcher implements EntitlementPrefetcherMXBean {
+
+    protected static Logger log = Logger.getLogger(EntitlementPrefetcher.class);
+
+    public enum Fallback {
+
+        /**
+         * Do not map the project.
+         */
+        OMIT,
+
+        /**
+         * Use the last cached decision even if it has expired, otherwise do not map the project.
+         */
+        STALE,
+
+        /**
+         * Fail the token request.
+         */
+        FAIL;
+
+        public static Fallback fromConfig(String value) {
+            if (value == null)
+                return OMIT;
+            for (Fallback fallback : values()) {
+                if (fallback.name().equalsIgnoreCase(value.trim()))
+                    return fallback;
+            }
+            log.warnf("Unknown prefetchFallback %s, using %s", value, OMIT.name().toLowerCase());
+            return OMIT;
+        }
+    }
+
+    private final KeycloakSessionFactory sessionFactory;
+
+    private final ThreadPoolExecutor executor;
+
+    private final SingleFlight<EntitlementKey, Boolean> lookups;
+
+    private final long deadlineMillis;
+
+    private final Fallback fallback;
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder awaited = new LongAdder();
+
+    private final LongAdder fallbacks = new LongAdder();
+
+    public EntitlementPrefetcher(KeycloakSessionFactory sessionFactory, SingleFlight<EntitlementKey, Boolean> lookups, int threads, int queueSize,
+                                 long deadlineMillis, Fallback fallback) {
+        this.sessionFactory = sessionFactory;
+        this.lookups = lookups;
+        this.deadlineMillis = deadlineMillis;
+        this.fallback = fallback;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "project-entitlement-prefetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts resolving the membership in the background unless it is cached or already in flight.
+     */
+    public void prefetch(EntitlementKey key, EntitlementCache cache, EntitlementSource source) {
+        if (cache.getIfPresent(key) != null)
+            return;
+        try {
+            if (lookups.submit(key, cache.membershipVersion(key.getRealmId(), key.getUserId()), executor, () -> load(key, cache, source)))
+                submitted.increment();
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+        }
+    }
+
+    private Boolean load(EntitlementKey key, EntitlementCache cache, EntitlementSource source) {
+        try {
+            boolean[] granted = new boolean[1];
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(key.getRealmId());
+                UserModel user = realm != null ? session.users().getUserById(key.getUserId(), realm) : null;
+                granted[0] = user != null && cache.load(key, k -> source.isMember(session, realm, user, key.getProject()));
+            });
+            return granted[0];
+        } catch (RuntimeException e) {
+            log.debugf(e, "Prefetching project membership %s failed", key);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a prefetch of the key in flight. Lookups started by token requests are left to
+     * {@link SingleFlight#execute}, which waits for them as long as any other caller.
+     *
+     * @return the decision of the prefetch in flight for the key, or null when there is none
+     * @throws EntitlementUnavailableException with the {@link Fallback} decision when the lookup did
+     * not complete within the deadline
+     * @throws RuntimeException when the lookup failed, or it did not complete in time and the
+     * fallback is to fail
+     */
+    public Boolean await(EntitlementKey key, EntitlementCache cache) {
+        CompletableFuture<Boolean> future = lookups.getSubmitted(key, cache.membershipVersion(key.getRealmId(), key.getUserId()));
+        if (future == null)
+            return null;
+        awaited.increment();
+        try {
+            return future.get(deadlineMillis, TimeUnit.MILLISECONDS);
+        } catch (CancellationException e) {
+            // The prefetch was never started, the caller looks the membership up itself
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("concurrent lookup of " + key + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw fallback(key, cache, e);
+        } catch (TimeoutException e) {
+            throw fallback(key, cache, e);
+        }
+    }
+
+    private RuntimeException fallback(EntitlementKey key, EntitlementCache cache, Exception cause) {
+        fallbacks.increment();
+        String message = "project membership of " + key + " not resolved within " + deadlineMillis + " ms";
+        switch (fallback) {
+            case STALE:
+                Boolean stale = cache.getStale(key);
+                return new EntitlementUnavailableException(message, stale != null && stale, cause);
+            case FAIL:
+                return new RuntimeException(message, cause);
+            default:
+                return new EntitlementUnavailableException(message, false, cause);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getAwaitedCount() {
+        return awaited.sum();
+    }
+
+    @Override
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    @Override
+    public int getPendingCount() {
+        return lookups.getInFlightCount();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+}
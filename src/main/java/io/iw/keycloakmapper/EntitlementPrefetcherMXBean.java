@@ -0,0 +1,19 @@
+package io.iw.keycloakmapper;
+
+/**
+ * JMX view of the {@link EntitlementPrefetcher} counters.
+ */
+public interface EntitlementPrefetcherMXBean {
+
+    long getSubmittedCount();
+
+    long getRejectedCount();
+
+    long getAwaitedCount();
+
+    long getFallbackCount();
+
+    int getPendingCount();
+
+    int getQueueSize();
+}
@@ -0,0 +1,214 @@
+package io.iw.keycloakmapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only, memory-mapped project membership snapshot written by {@link EntitlementSnapshotWriter}.
+ *
+ * <p>Users and projects are found by 64-bit hashes, so lookups hash the ids in place and binary
+ * search the mapped file without copying or allocating anything on the heap. Every entry also
+ * points to its ids, which a lookup compares with the requested ones before it answers, so two ids
+ * with the same hash never grant each other's memberships. The layout is
+ * <pre>
+ * header   int magic, int version, long createdAt, int userCount, int edgeCount, int namesSize
+ * users    userCount x (long userHash, int firstEdge, int edgeCount, int realmName, int userName), sorted by userHash
+ * edges    edgeCount x (long projectHash, int projectName), sorted by projectHash within each user
+ * names    namesSize bytes of ids, each an int length followed by its UTF-16 chars
+ * </pre>
+ * Names are offsets into the names section. Users missing from the snapshot are members of no
+ * project.
+ */
+public final class EntitlementSnapshot {
+
+    static final int MAGIC = 0x50524a53;
+
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 28;
+
+    static final int USER_ENTRY_SIZE = 24;
+
+    static final int EDGE_ENTRY_SIZE = 12;
+
+    private final Path path;
+
+    private final ByteBuffer buffer;
+
+    private final long createdAt;
+
+    private final int userCount;
+
+    private final int edgeCount;
+
+    private final int edgesOffset;
+
+    private final int namesOffset;
+
+    private final int namesSize;
+
+    private EntitlementSnapshot(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not an entitlement snapshot: " + path);
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported entitlement snapshot version " + buffer.getInt(4) + ": " + path);
+        this.createdAt = buffer.getLong(8);
+        this.userCount = buffer.getInt(16);
+        this.edgeCount = buffer.getInt(20);
+        this.namesSize = buffer.getInt(24);
+        long edgesOffset = HEADER_SIZE + (long) userCount * USER_ENTRY_SIZE;
+        long namesOffset = edgesOffset + (long) edgeCount * EDGE_ENTRY_SIZE;
+        if (userCount < 0 || edgeCount < 0 || namesSize < 0 || namesOffset + namesSize != buffer.limit())
+            throw new IOException("Truncated entitlement snapshot: " + path);
+        this.edgesOffset = (int) edgesOffset;
+        this.namesOffset = (int) namesOffset;
+        validate();
+    }
+
+    /**
+     * Checks that users are sorted, their edge ranges lie within the file and are sorted, and every
+     * name lies within the names section, so a corrupt file is rejected at load instead of failing
+     * or answering wrongly on lookups.
+     */
+    private void validate() throws IOException {
+        for (int user = 0; user < userCount; user++) {
+            int entry = HEADER_SIZE + user * USER_ENTRY_SIZE;
+            if (user > 0 && buffer.getLong(entry) < buffer.getLong(entry - USER_ENTRY_SIZE))
+                throw new IOException("Users out of order at entry " + user + " of entitlement snapshot " + path);
+            int first = buffer.getInt(entry + 8);
+            int count = buffer.getInt(entry + 12);
+            if (first < 0 || count < 0 || (long) first + count > edgeCount)
+                throw new IOException("Edges of user entry " + user + " out of bounds in entitlement snapshot " + path);
+            if (!isName(buffer.getInt(entry + 16)) || !isName(buffer.getInt(entry + 20)))
+                throw new IOException("Ids of user entry " + user + " out of bounds in entitlement snapshot " + path);
+            for (int edge = 0; edge < count; edge++) {
+                int offset = edgesOffset + (first + edge) * EDGE_ENTRY_SIZE;
+                if (edge > 0 && buffer.getLong(offset) < buffer.getLong(offset - EDGE_ENTRY_SIZE))
+                    throw new IOException("Edges of user entry " + user + " out of order in entitlement snapshot " + path);
+                if (!isName(buffer.getInt(offset + 8)))
+                    throw new IOException("Project ids of user entry " + user + " out of bounds in entitlement snapshot " + path);
+            }
+        }
+    }
+
+    private boolean isName(int name) {
+        if (name < 0 || (long) name + 4 > namesSize)
+            return false;
+        int length = buffer.getInt(namesOffset + name);
+        return length >= 0 && name + 4 + 2L * length <= namesSize;
+    }
+
+    public static EntitlementSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Entitlement snapshot too large to map: " + path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new EntitlementSnapshot(path, buffer);
+        }
+    }
+
+    public boolean isMember(String realmId, String userId, String project) {
+        long userHash = userHash(realmId, userId);
+        for (int user = firstAtLeast(HEADER_SIZE, USER_ENTRY_SIZE, 0, userCount, userHash); user < userCount; user++) {
+            int entry = HEADER_SIZE + user * USER_ENTRY_SIZE;
+            if (buffer.getLong(entry) != userHash)
+                return false;
+            if (nameEquals(buffer.getInt(entry + 16), realmId) && nameEquals(buffer.getInt(entry + 20), userId))
+                return hasProject(buffer.getInt(entry + 8), buffer.getInt(entry + 12), project);
+        }
+        return false;
+    }
+
+    private boolean hasProject(int first, int count, String project) {
+        long projectHash = projectHash(project);
+        int end = first + count;
+        for (int edge = firstAtLeast(edgesOffset, EDGE_ENTRY_SIZE, first, end, projectHash); edge < end; edge++) {
+            int offset = edgesOffset + edge * EDGE_ENTRY_SIZE;
+            if (buffer.getLong(offset) != projectHash)
+                return false;
+            if (nameEquals(buffer.getInt(offset + 8), project))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the first of the entries {@code low} to {@code high} (exclusive) whose hash is not
+     * less than {@code hash}, or {@code high} when there is none
+     */
+    private int firstAtLeast(int offset, int entrySize, int low, int high, long hash) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(offset + mid * entrySize) < hash)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Compares a name of the snapshot with an id in place.
+     */
+    private boolean nameEquals(int name, String value) {
+        int start = namesOffset + name;
+        int length = buffer.getInt(start);
+        if (length != value.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(start + 4 + i * 2) != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    static long userHash(String realmId, String userId) {
+        long hash = hash(FNV_OFFSET, realmId);
+        hash = (hash ^ '/') * FNV_PRIME;
+        return mix(hash(hash, userId));
+    }
+
+    static long projectHash(String project) {
+        return mix(hash(FNV_OFFSET, project));
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++)
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
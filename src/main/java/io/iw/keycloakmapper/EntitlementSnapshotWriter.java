@@ -0,0 +1,221 @@
+package io.iw.keycloakmapper;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds an {@link EntitlementSnapshot} offline from an export with one {@code realmId,userId,project}
+ * line per membership. The snapshot is written to a temporary file next to the target and then
+ * moved over it atomically, so a running {@link SnapshotEntitlementSource} never maps a half written file.
+ *
+ * <pre>java -cp keycloak-mapper.jar io.iw.keycloakmapper.EntitlementSnapshotWriter memberships.csv entitlements.snapshot</pre>
+ */
+public final class EntitlementSnapshotWriter {
+
+    private long[] users = new long[1024];
+
+    private long[] projects = new long[1024];
+
+    private String[] realmIds = new String[1024];
+
+    private String[] userIds = new String[1024];
+
+    private String[] projectIds = new String[1024];
+
+    private int size;
+
+    public EntitlementSnapshotWriter add(String realmId, String userId, String project) {
+        if (size == users.length) {
+            users = Arrays.copyOf(users, size * 2);
+            projects = Arrays.copyOf(projects, size * 2);
+            realmIds = Arrays.copyOf(realmIds, size * 2);
+            userIds = Arrays.copyOf(userIds, size * 2);
+            projectIds = Arrays.copyOf(projectIds, size * 2);
+        }
+        users[size] = EntitlementSnapshot.userHash(realmId, userId);
+        projects[size] = EntitlementSnapshot.projectHash(project);
+        realmIds[size] = realmId;
+        userIds[size] = userId;
+        projectIds[size] = project;
+        size++;
+        return this;
+    }
+
+    public void write(Path target) throws IOException {
+        sort(0, size - 1);
+        int edgeCount = 0;
+        int userCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (edgeCount > 0 && compare(edgeCount - 1, i) == 0)
+                continue;
+            move(i, edgeCount);
+            if (edgeCount == 0 || !sameUser(edgeCount, edgeCount - 1))
+                userCount++;
+            edgeCount++;
+        }
+
+        Map<String, Integer> names = new LinkedHashMap<>();
+        long namesSize = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            namesSize = addName(names, namesSize, realmIds[i]);
+            namesSize = addName(names, namesSize, userIds[i]);
+            namesSize = addName(names, namesSize, projectIds[i]);
+        }
+        if (namesSize > Integer.MAX_VALUE)
+            throw new IOException("Too many ids for an entitlement snapshot: " + namesSize + " bytes");
+
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(EntitlementSnapshot.MAGIC);
+            out.writeInt(EntitlementSnapshot.VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(userCount);
+            out.writeInt(edgeCount);
+            out.writeInt((int) namesSize);
+            int first = 0;
+            for (int i = 1; i <= edgeCount; i++) {
+                if (i == edgeCount || !sameUser(i, first)) {
+                    out.writeLong(users[first]);
+                    out.writeInt(first);
+                    out.writeInt(i - first);
+                    out.writeInt(names.get(realmIds[first]));
+                    out.writeInt(names.get(userIds[first]));
+                    first = i;
+                }
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                out.writeLong(projects[i]);
+                out.writeInt(names.get(projectIds[i]));
+            }
+            for (String name : names.keySet()) {
+                out.writeInt(name.length());
+                out.writeChars(name);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long addName(Map<String, Integer> names, long namesSize, String name) {
+        if (names.containsKey(name))
+            return namesSize;
+        names.put(name, (int) Math.min(namesSize, Integer.MAX_VALUE));
+        return namesSize + 4 + 2L * name.length();
+    }
+
+    private boolean sameUser(int i, int j) {
+        return users[i] == users[j] && realmIds[i].equals(realmIds[j]) && userIds[i].equals(userIds[j]);
+    }
+
+    /**
+     * Sorts the memberships by user hash and project hash, and by the ids themselves where hashes
+     * collide, so the memberships of every user stay together.
+     */
+    private void sort(int low, int high) {
+        while (low < high) {
+            int pivot = size;
+            ensureSpare();
+            move((low + high) >>> 1, pivot);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compare(i, pivot) < 0)
+                    i++;
+                while (compare(j, pivot) > 0)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--);
+            }
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+    }
+
+    private int compare(int i, int j) {
+        int result = Long.compare(users[i], users[j]);
+        if (result == 0)
+            result = realmIds[i].compareTo(realmIds[j]);
+        if (result == 0)
+            result = userIds[i].compareTo(userIds[j]);
+        if (result == 0)
+            result = Long.compare(projects[i], projects[j]);
+        return result != 0 ? result : projectIds[i].compareTo(projectIds[j]);
+    }
+
+    /**
+     * Makes room for the pivot the sort keeps past the last membership.
+     */
+    private void ensureSpare() {
+        if (size == users.length) {
+            users = Arrays.copyOf(users, size + 1);
+            projects = Arrays.copyOf(projects, size + 1);
+            realmIds = Arrays.copyOf(realmIds, size + 1);
+            userIds = Arrays.copyOf(userIds, size + 1);
+            projectIds = Arrays.copyOf(projectIds, size + 1);
+        }
+    }
+
+    private void move(int from, int to) {
+        users[to] = users[from];
+        projects[to] = projects[from];
+        realmIds[to] = realmIds[from];
+        userIds[to] = userIds[from];
+        projectIds[to] = projectIds[from];
+    }
+
+    private void swap(int i, int j) {
+        long user = users[i];
+        users[i] = users[j];
+        users[j] = user;
+        long project = projects[i];
+        projects[i] = projects[j];
+        projects[j] = project;
+        String realmId = realmIds[i];
+        realmIds[i] = realmIds[j];
+        realmIds[j] = realmId;
+        String userId = userIds[i];
+        userIds[i] = userIds[j];
+        userIds[j] = userId;
+        String projectId = projectIds[i];
+        projectIds[i] = projectIds[j];
+        projectIds[j] = projectId;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: EntitlementSnapshotWriter <memberships.csv> <snapshot>");
+            System.exit(2);
+        }
+        EntitlementSnapshotWriter writer = new EntitlementSnapshotWriter();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int first = line.indexOf(',');
+                int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+                if (second < 0)
+                    continue;
+                writer.add(line.substring(0, first).trim(), line.substring(first + 1, second).trim(), line.substring(second + 1).trim());
+            }
+        }
+        writer.write(Paths.get(args[1]));
+    }
+}
@@ -0,0 +1,21 @@
+package io.iw.keycloakmapper;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Decides whether a user is a member of a project. Implementations may be slow (LDAP, database,
+ * remote directories) and are always called through {@link ProjectEntitlements}, which caches
+ * their answers.
+ */
+public interface EntitlementSource {
+
+    boolean isMember(KeycloakSession session, RealmModel realm, UserModel user, String project);
+
+    /**
+     * Releases background threads and files when the source is replaced.
+     */
+    default void close() {
+    }
+}
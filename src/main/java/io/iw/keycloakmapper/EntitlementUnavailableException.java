@@ -0,0 +1,24 @@
+package io.iw.keycloakmapper;
+
+/**
+ * Thrown when a project membership could not be resolved, because no entitlement source answered
+ * or a lookup did not complete in time, and a fallback decision applies instead. The decision is not authoritative, so it must be neither cached nor memoized.
+ */
+public class EntitlementUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean granted;
+
+    public EntitlementUnavailableException(String message, boolean granted, Throwable cause) {
+        super(message, cause);
+        this.granted = granted;
+    }
+
+    /**
+     * @return the fallback decision to use in place of the unresolved membership
+     */
+    public boolean isGranted() {
+        return granted;
+    }
+}
@@ -0,0 +1,286 @@
+package io.iw.keycloakmapper;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Asks several sources at once and merges their answers. {@link RemoteEntitlementSource}s are
+ * started first on a pool sized for blocking I/O, then the session bound sources run on the
+ * request thread while the remote calls are in flight. The check returns as soon as the answers
+ * so far decide it and abandons the remaining calls.
+ *
+ * <p>Each remote source has its own timeout. A source that fails, times out or whose
+ * {@link CircuitBreaker} is open has no answer; when no source has an answer the check fails with
+ * an {@link EntitlementUnavailableException}, so the denial that falls back from it is not cached.
+ */
+public class FanOutEntitlementSource implements EntitlementSource {
+
+    protected static Logger log = Logger.getLogger(FanOutEntitlementSource.class);
+
+    public enum Merge {
+
+        /**
+         * Grant when any source grants, deny once all sources have denied or have no answer and at
+         * least one has denied.
+         */
+        ANY,
+
+        /**
+         * Use the answer of the first source in configuration order that has one.
+         */
+        PRECEDENCE;
+
+        public static Merge fromConfig(String value) {
+            if (value == null)
+                return ANY;
+            for (Merge merge : values()) {
+                if (merge.name().equalsIgnoreCase(value.trim()))
+                    return merge;
+            }
+            log.warnf("Unknown entitlementMerge %s, using %s", value, ANY.name().toLowerCase());
+            return ANY;
+        }
+    }
+
+    /**
+     * A source with its name, breaker and, for remote sources, timeout.
+     */
+    public static final class Member {
+
+        final String name;
+
+        final EntitlementSource local;
+
+        final RemoteEntitlementSource remote;
+
+        final long timeoutNanos;
+
+        final CircuitBreaker breaker;
+
+        private Member(String name, EntitlementSource local, RemoteEntitlementSource remote, long timeoutMillis, CircuitBreaker breaker) {
+            this.name = name;
+            this.local = local;
+            this.remote = remote;
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            this.breaker = breaker;
+        }
+
+        public static Member local(String name, EntitlementSource source, int failureThreshold, long openMillis) {
+            return new Member(name, source, null, 0, new CircuitBreaker(failureThreshold, openMillis));
+        }
+
+        public static Member remote(String name, RemoteEntitlementSource source, long timeoutMillis, int failureThreshold, long openMillis) {
+            return new Member(name, null, source, timeoutMillis, new CircuitBreaker(failureThreshold, openMillis));
+        }
+    }
+
+    private static final byte PENDING = 0;
+
+    private static final byte GRANT = 1;
+
+    private static final byte DENY = 2;
+
+    private static final byte NO_ANSWER = 3;
+
+    private static final class Completion {
+
+        final int member;
+
+        final boolean granted;
+
+        final Exception failure;
+
+        Completion(int member, boolean granted, Exception failure) {
+            this.member = member;
+            this.granted = granted;
+            this.failure = failure;
+        }
+    }
+
+    private final Member[] members;
+
+    private final Merge merge;
+
+    private final ThreadPoolExecutor executor;
+
+    public FanOutEntitlementSource(List<Member> members, Merge merge, int threads) {
+        this.members = members.toArray(new Member[0]);
+        this.merge = merge;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 16), runnable -> {
+            Thread thread = new Thread(runnable, "project-entitlement-resolver-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public boolean isMember(KeycloakSession session, RealmModel realm, UserModel user, String project) {
+        int count = members.length;
+        byte[] answers = new byte[count];
+        Future<?>[] calls = new Future<?>[count];
+        long[] deadlines = new long[count];
+        LinkedBlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+        String realmName = realm.getName();
+        String username = user.getUsername();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            Member member = members[i];
+            if (member.remote == null)
+                continue;
+            if (!member.breaker.allowRequest()) {
+                answers[i] = NO_ANSWER;
+                continue;
+            }
+            int index = i;
+            try {
+                calls[i] = executor.submit(() -> {
+                    try {
+                        completions.add(new Completion(index, member.remote.isMember(realmName, username, project), null));
+                    } catch (Exception e) {
+                        completions.add(new Completion(index, false, e));
+                    }
+                });
+                deadlines[i] = start + member.timeoutNanos;
+            } catch (RejectedExecutionException e) {
+                log.debugf("Resolver pool is saturated, skipping entitlement source %s", member.name);
+                answers[i] = NO_ANSWER;
+            }
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                Member member = members[i];
+                if (member.local == null)
+                    continue;
+                if (!member.breaker.allowRequest()) {
+                    answers[i] = NO_ANSWER;
+                } else {
+                    try {
+                        answers[i] = member.local.isMember(session, realm, user, project) ? GRANT : DENY;
+                        member.breaker.onSuccess();
+                    } catch (RuntimeException e) {
+                        log.debugf(e, "Entitlement source %s failed", member.name);
+                        member.breaker.onFailure();
+                        answers[i] = NO_ANSWER;
+                    }
+                }
+                int decision = decide(answers);
+                if (decision >= 0)
+                    return granted(decision, project);
+            }
+
+            while (true) {
+                int decision = decide(answers);
+                if (decision >= 0)
+                    return granted(decision, project);
+                long next = 0;
+                boolean first = true;
+                for (int i = 0; i < count; i++) {
+                    if (answers[i] == PENDING && (first || deadlines[i] - next < 0)) {
+                        next = deadlines[i];
+                        first = false;
+                    }
+                }
+                long wait = next - System.nanoTime();
+                Completion completion;
+                try {
+                    completion = wait > 0 ? completions.poll(wait, TimeUnit.NANOSECONDS) : completions.poll();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EntitlementUnavailableException("interrupted while resolving project " + project, false, e);
+                }
+                if (completion != null) {
+                    record(answers, completion);
+                } else {
+                    expire(answers, deadlines, System.nanoTime());
+                }
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                if (calls[i] != null && answers[i] == PENDING) {
+                    calls[i].cancel(true);
+                    members[i].breaker.onCancel();
+                }
+            }
+        }
+    }
+
+    private void record(byte[] answers, Completion completion) {
+        Member member = members[completion.member];
+        if (answers[completion.member] != PENDING)
+            return;
+        if (completion.failure != null) {
+            log.debugf(completion.failure, "Entitlement source %s failed", member.name);
+            member.breaker.onFailure();
+            answers[completion.member] = NO_ANSWER;
+        } else {
+            member.breaker.onSuccess();
+            answers[completion.member] = completion.granted ? GRANT : DENY;
+        }
+    }
+
+    private void expire(byte[] answers, long[] deadlines, long now) {
+        for (int i = 0; i < answers.length; i++) {
+            if (answers[i] == PENDING && deadlines[i] - now <= 0) {
+                log.debugf("Entitlement source %s timed out", members[i].name);
+                members[i].breaker.onFailure();
+                answers[i] = NO_ANSWER;
+            }
+        }
+    }
+
+    private static boolean granted(int decision, String project) {
+        if (decision == NO_ANSWER)
+            throw new EntitlementUnavailableException("no entitlement source answered for project " + project, false, null);
+        return decision == GRANT;
+    }
+
+    /**
+     * @return {@link #GRANT} or {@link #DENY} once the answers decide the check, {@link #NO_ANSWER}
+     * when no source has an answer, otherwise -1
+     */
+    private int decide(byte[] answers) {
+        if (merge == Merge.PRECEDENCE) {
+            for (byte answer : answers) {
+                if (answer == PENDING)
+                    return -1;
+                if (answer != NO_ANSWER)
+                    return answer;
+            }
+            return NO_ANSWER;
+        }
+        boolean pending = false;
+        boolean answered = false;
+        for (byte answer : answers) {
+            if (answer == GRANT)
+                return GRANT;
+            pending |= answer == PENDING;
+            answered |= answer == DENY;
+        }
+        if (pending)
+            return -1;
+        return answered ? DENY : NO_ANSWER;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (Member member : members) {
+            if (member.local != null)
+                member.local.close();
+        }
+    }
+}
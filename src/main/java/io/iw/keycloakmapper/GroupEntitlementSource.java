@@ -0,0 +1,36 @@
+package io.iw.keycloakmapper;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Grants a project to the members of the group whose path is built from a template such as
+ * {@code /projects/{project}}. Members of subgroups are members as well. The project's groups are
+ * looked up in the {@link ProjectGroupIndex}.
+ */
+public class GroupEntitlementSource implements EntitlementSource {
+
+    public static final String PROJECT_PLACEHOLDER = "{project}";
+
+    private final String groupPathPrefix;
+
+    private final String groupPathSuffix;
+
+    public GroupEntitlementSource(String groupPathTemplate) {
+        int placeholder = groupPathTemplate.indexOf(PROJECT_PLACEHOLDER);
+        if (placeholder < 0)
+            throw new IllegalArgumentException("group path template must contain " + PROJECT_PLACEHOLDER + ": " + groupPathTemplate);
+        this.groupPathPrefix = groupPathTemplate.substring(0, placeholder);
+        this.groupPathSuffix = groupPathTemplate.substring(placeholder + PROJECT_PLACEHOLDER.length());
+    }
+
+    public String groupPath(String project) {
+        return groupPathPrefix + project + groupPathSuffix;
+    }
+
+    @Override
+    public boolean isMember(KeycloakSession session, RealmModel realm, UserModel user, String project) {
+        return ProjectEntitlements.getGroupIndex().isMember(realm, user, groupPath(project));
+    }
+}
@@ -0,0 +1,66 @@
+package io.iw.keycloakmapper;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+
+/**
+ * Asks a directory service over HTTP whether a user is a member of a project. The URL is built
+ * from a template with {@code {realm}}, {@code {user}} and {@code {project}} placeholders; a
+ * {@code 2xx} response grants the project, {@code 403} and {@code 404} deny it and anything else is
+ * a failure.
+ *
+ * <p>A {@code file:} template works as a local stand-in for the directory: the project is granted
+ * when the file exists.
+ */
+public class HttpDirectoryEntitlementSource implements RemoteEntitlementSource {
+
+    private final String urlTemplate;
+
+    private final int timeoutMillis;
+
+    public HttpDirectoryEntitlementSource(String urlTemplate, int timeoutMillis) {
+        this.urlTemplate = urlTemplate;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public boolean isMember(String realmName, String username, String project) throws IOException {
+        URL url = new URL(urlTemplate.replace("{realm}", encode(realmName))
+                .replace("{user}", encode(username))
+                .replace("{project}", encode(project)));
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        if (!(connection instanceof HttpURLConnection)) {
+            InputStream in;
+            try {
+                in = connection.getInputStream();
+            } catch (FileNotFoundException e) {
+                return false;
+            }
+            in.close();
+            return true;
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        try {
+            int status = http.getResponseCode();
+            if (status >= 200 && status < 300)
+                return true;
+            if (status == HttpURLConnection.HTTP_FORBIDDEN || status == HttpURLConnection.HTTP_NOT_FOUND)
+                return false;
+            throw new IOException("directory answered " + status + " for " + url);
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
+}
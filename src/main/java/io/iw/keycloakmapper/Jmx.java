@@ -0,0 +1,44 @@
+package io.iw.keycloakmapper;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.jboss.logging.Logger;
+
+/**
+ * Registers this module's MXBeans with the platform MBean server, replacing any bean of the same
+ * name left behind by an earlier deployment. Failures are logged and otherwise ignored.
+ */
+final class Jmx {
+
+    protected static Logger log = Logger.getLogger(Jmx.class);
+
+    static final String DOMAIN = "io.iw.keycloakmapper";
+
+    private Jmx() {
+    }
+
+    static void register(String name, Object bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(bean, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register MBean " + name, e);
+        }
+    }
+
+    static void unregister(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("Could not unregister MBean " + name, e);
+        }
+    }
+}
@@ -1,25 +1,32 @@
 package io.iw.keycloakmapper;
 
+import org.keycloak.Config;
 import org.keycloak.OAuth2Constants;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientSessionContext;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ProtocolMapperContainerModel;
 import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserSessionModel;
+import org.keycloak.protocol.ProtocolMapperConfigException;
 import org.keycloak.protocol.oidc.mappers.AbstractOIDCProtocolMapper;
 import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
 import org.keycloak.protocol.oidc.mappers.OIDCAccessTokenMapper;
 import org.keycloak.protocol.oidc.mappers.OIDCIDTokenMapper;
 import org.keycloak.protocol.oidc.mappers.UserInfoTokenMapper;
 import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.IDToken;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.jboss.logging.Logger;
-import java.util.List;
-import java.util.Arrays;
-import org.keycloak.models.utils.KeycloakModelUtils;
-import org.keycloak.protocol.ProtocolMapperUtils;
 import org.keycloak.models.UserModel;
-import java.util.Collection;
 
 public class KeycloakMapper extends AbstractOIDCProtocolMapper implements OIDCAccessTokenMapper, OIDCIDTokenMapper, UserInfoTokenMapper {
 
@@ -27,9 +34,92 @@ public class KeycloakMapper extends AbstractOIDCProtocolMapper implements OIDCAc
 
     protected static Logger log = Logger.getLogger(KeycloakMapper.class);
 
+    public static final String ID = "project-mapper";
+
+    public static final String PROJECT_SCOPE_PREFIX = "project:";
+
+    public static final String MEMBERSHIP_CHECK = "project.membership.check";
+
+    public static final String REJECT_UNKNOWN_PROJECTS = "project.aliases.rejectUnknown";
+
+    public static final String SOURCE_CLIENTS = "project.source.clients";
+
+    public static final String MULTI_PROJECT = "project.multi";
+
+    public static final String PROJECT_ENCODING = "project.encoding";
+
+    public static final String SCOPE_FAMILIES = "scope.families";
+
+    private boolean warmUp = true;
+
+    private int warmUpSessions;
+
+    private long planIdleTimeout = MapperPlanCache.DEFAULT_IDLE_TIMEOUT_SECONDS;
+
     static {
         OIDCAttributeMapperHelper.addTokenClaimNameConfig(configProperties);
         OIDCAttributeMapperHelper.addIncludeInTokensConfig(configProperties, KeycloakMapper.class);
+
+        ProviderConfigProperty property = new ProviderConfigProperty();
+        property.setName(MEMBERSHIP_CHECK);
+        property.setLabel("Check project membership");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setDefaultValue("false");
+        property.setHelpText("Only map the requested project when the user is a member of its group. Enable the '"
+                + ProjectEntitlementEventListenerFactory.ID + "' event listener so membership changes are picked up immediately.");
+        configProperties.add(property);
+
+        property = new ProviderConfigProperty();
+        property.setName(REJECT_UNKNOWN_PROJECTS);
+        property.setLabel("Reject unknown projects");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setDefaultValue("false");
+        property.setHelpText("Requested projects are mapped to their canonical ids through the '" + ProjectAliases.REALM_ATTRIBUTE
+                + "' realm attribute or the configured alias file. Leave out requested projects missing from that table instead of mapping them as requested.");
+        configProperties.add(property);
+
+        property = new ProviderConfigProperty();
+        property.setName(SOURCE_CLIENTS);
+        property.setLabel("Source clients");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Comma separated clientIds whose requested project scope is mapped, in order of preference. "
+                + "Leave empty to use the scopes requested by the client the token is issued to.");
+        configProperties.add(property);
+
+        property = new ProviderConfigProperty();
+        property.setName(MULTI_PROJECT);
+        property.setLabel("Multiple projects");
+        property.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        property.setDefaultValue("false");
+        property.setHelpText("Map every requested (and, if checked, authorized) project instead of only mapping a single requested project.");
+        configProperties.add(property);
+
+        property = new ProviderConfigProperty();
+        property.setName(PROJECT_ENCODING);
+        property.setLabel("Multiple projects encoding");
+        property.setType(ProviderConfigProperty.LIST_TYPE);
+        List<String> encodings = new ArrayList<>();
+        for (ProjectClaimEncoding encoding : ProjectClaimEncoding.values())
+            encodings.add(encoding.getConfigValue());
+        property.setOptions(encodings);
+        property.setDefaultValue(ProjectClaimEncoding.LIST.getConfigValue());
+        property.setHelpText("'list' maps a JSON array of project ids. 'codes' and 'bitset' keep tokens small for users in many projects: "
+                + "they encode projects by their position in the '" + ProjectDictionary.REALM_ATTRIBUTE + "' realm attribute, "
+                + "as sorted base 36 codes or as a base64url bitset. Projects missing from the dictionary are left out.");
+        configProperties.add(property);
+
+        property = new ProviderConfigProperty();
+        property.setName(SCOPE_FAMILIES);
+        property.setLabel("Scope families");
+        property.setType(ProviderConfigProperty.STRING_TYPE);
+        property.setHelpText("Maps several families of dynamic scopes at once, as comma separated prefix=claim;cardinality entries, "
+                + "e.g. 'project:=project, team:=teams;many, region:=region;one, label:=labels;3'. The cardinality is 'one' (the default, "
+                + "mapped only when exactly one value is requested), 'many' or the maximum number of values. When set, this table replaces "
+                + "the token claim name; the membership check applies to the 'project:' family.");
+        configProperties.add(property);
+
+        UtilMapper.addMultivaluedOrderConfig(configProperties);
+        UtilMapper.addParseFailureConfig(configProperties);
     }
 
     @Override
@@ -54,25 +144,368 @@ public class KeycloakMapper extends AbstractOIDCProtocolMapper implements OIDCAc
 
     @Override
     public String getId() {
-        return "project-mapper";
+        return ID;
     }
 
+    /**
+     * Besides the entitlement settings read by {@link ProjectEntitlements}, {@code traceSampleRate}
+     * enables debug tracing of one in that many executions, {@code warmUp} (on by default)
+     * compiles all project mappers at startup and {@code warmUpSessions} prefetches the memberships
+     * of up to that many active sessions per client while doing so (see {@link MapperWarmUp}).
+     * {@code clientMissingTtl} is how many seconds a source clientId that does not exist stays
+     * cached (see {@link ClientIdResolver}), and {@code planIdleTimeout} how many seconds a compiled
+     * mapper plan and its metrics are kept without being used (see {@link MapperPlanCache}).
+     * The audit trail of issued claims is configured as described in {@link ClaimAudit} and the
+     * project alias file as described in {@link ProjectAliases}.
+     */
     @Override
-    protected void setClaim(IDToken token, ProtocolMapperModel mappingModel, UserSessionModel userSession) {
-        String scopes = userSession.getAuthenticatedClientSessionByClient("7f801643-a755-427f-b91a-e7a4775417c2").getNote(OAuth2Constants.SCOPE);
-        List<String> scopesList = Arrays.asList(scopes.split(" "));
-        List<String> projectRequested = new ArrayList<>();
-        scopesList.forEach((scope) -> {
-          if (scope.startsWith("project")) {            
-            projectRequested.add(scope);
+    public void init(Config.Scope config) {
+        ProjectEntitlements.configure(config);
+        ClaimAudit.configure(config);
+        ProjectAliases.configure(config);
+        MapperTrace.setSampleRate(config.getInt("traceSampleRate", 0));
+        ClientIdResolver.setMissingTtlMillis(config.getLong("clientMissingTtl", ClientIdResolver.DEFAULT_MISSING_TTL_SECONDS) * 1000);
+        warmUp = config.getBoolean("warmUp", true);
+        warmUpSessions = config.getInt("warmUpSessions", 0);
+        planIdleTimeout = config.getLong("planIdleTimeout", MapperPlanCache.DEFAULT_IDLE_TIMEOUT_SECONDS);
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        ClientIdResolver.registerListeners(factory);
+        MapperPlanCache.start(factory, planIdleTimeout);
+        ProjectEntitlements.start(factory);
+        if (warmUp)
+          MapperWarmUp.register(factory, getId(), warmUpSessions);
+    }
+
+    @Override
+    public void validateConfig(KeycloakSession session, RealmModel realm, ProtocolMapperContainerModel client, ProtocolMapperModel mapperModel) throws ProtocolMapperConfigException {
+        String scopeFamilies = mapperModel.getConfig().get(SCOPE_FAMILIES);
+        if (scopeFamilies == null)
+          return;
+        try {
+          ScopeMatcher.compile(scopeFamilies);
+        } catch (IllegalArgumentException e) {
+          throw new ProtocolMapperConfigException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public AccessToken transformAccessToken(AccessToken token, ProtocolMapperModel mappingModel, KeycloakSession session, UserSessionModel userSession, ClientSessionContext clientSessionCtx) {
+        MapperPlan plan = MapperPlanCache.get(mappingModel);
+        if (plan.isIncludeInAccessToken())
+          setClaim(token, ClaimAudit.ACCESS_TOKEN, plan, userSession, session, clientSessionCtx);
+        return token;
+    }
+
+    @Override
+    public IDToken transformIDToken(IDToken token, ProtocolMapperModel mappingModel, KeycloakSession session, UserSessionModel userSession, ClientSessionContext clientSessionCtx) {
+        MapperPlan plan = MapperPlanCache.get(mappingModel);
+        if (plan.isIncludeInIDToken())
+          setClaim(token, ClaimAudit.ID_TOKEN, plan, userSession, session, clientSessionCtx);
+        return token;
+    }
+
+    @Override
+    public AccessToken transformUserInfoToken(AccessToken token, ProtocolMapperModel mappingModel, KeycloakSession session, UserSessionModel userSession, ClientSessionContext clientSessionCtx) {
+        MapperPlan plan = MapperPlanCache.get(mappingModel);
+        if (plan.isIncludeInUserInfo())
+          setClaim(token, ClaimAudit.USERINFO, plan, userSession, session, clientSessionCtx);
+        return token;
+    }
+
+    @Override
+    protected void setClaim(IDToken token, ProtocolMapperModel mappingModel, UserSessionModel userSession, KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx) {
+        setClaim(token, null, MapperPlanCache.get(mappingModel), userSession, keycloakSession, clientSessionCtx);
+    }
+
+    /**
+     * @param tokenType one of the {@link ClaimAudit} token types the claim is audited with
+     */
+    private void setClaim(IDToken token, String tokenType, MapperPlan plan, UserSessionModel userSession, KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx) {
+        long start = System.nanoTime();
+        try {
+          mapProject(token, tokenType, plan, userSession, keycloakSession, clientSessionCtx);
+        } catch (RuntimeException e) {
+          plan.getMetrics().recordError();
+          throw e;
+        } finally {
+          plan.getMetrics().recordInvocation(System.nanoTime() - start);
+        }
+    }
+
+    private void mapProject(IDToken token, String tokenType, MapperPlan plan, UserSessionModel userSession, KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx) {
+        AuthenticatedClientSessionModel sourceSession = findSourceSession(plan, userSession, clientSessionCtx);
+        if (sourceSession == null)
+          return;
+        String scopes = sourceSession.getNote(OAuth2Constants.SCOPE);
+
+        ScopeMatcher scopeMatcher = plan.getScopeMatcher();
+        if (scopeMatcher != null) {
+          mapScopeFamilies(token, tokenType, plan, scopeMatcher, scopes, userSession, keycloakSession, clientSessionCtx);
+          return;
+        }
+
+        if (plan.isMultiProject()) {
+          List<String> projects;
+          if (plan.isMembershipCheck())
+            projects = splitProjects(resolveMemberProjects(plan, scopes, userSession, keycloakSession, clientSessionCtx));
+          else
+            projects = requestedProjects(plan, scopes, userSession.getRealm());
+          ProjectClaimEncoding encoding = plan.getProjectEncoding();
+          ProjectDictionary dictionary = encoding == ProjectClaimEncoding.LIST ? null : ProjectDictionary.forRealm(userSession.getRealm());
+          Object claim = encoding.encode(projects, dictionary);
+          if (claim != null)
+            audit(token, tokenType, plan, UtilMapper.mapClaim(token, plan, claim), userSession, clientSessionCtx);
+          return;
+        }
+
+        String projectValue;
+        if (plan.isMembershipCheck())
+          projectValue = resolveMemberProjects(plan, scopes, userSession, keycloakSession, clientSessionCtx);
+        else
+          projectValue = requestedProject(plan, scopes, userSession.getRealm());
+
+        if (projectValue != null) {
+          audit(token, tokenType, plan, UtilMapper.mapClaim(token, plan, projectValue), userSession, clientSessionCtx);
+        }
+    }
+
+    private static void audit(IDToken token, String tokenType, MapperPlan plan, Object claimValue, UserSessionModel userSession, ClientSessionContext clientSessionCtx) {
+        if (claimValue != null && ClaimAudit.isEnabled())
+          ClaimAudit.record(token, tokenType, plan, plan.getClaimPath().getClaimName(), claimValue, userSession, clientSessionCtx);
+    }
+
+    /**
+     * Maps every configured scope family from a single scan of the requested scopes and writes the
+     * resulting claims into the token together. Only the values that made it into the token are
+     * audited.
+     */
+    private void mapScopeFamilies(IDToken token, String tokenType, MapperPlan plan, ScopeMatcher scopeMatcher, String scopes, UserSessionModel userSession,
+                                  KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx) {
+        Object[] values = scopeMatcher.match(scopes);
+        ClaimTreeBuilder claims = null;
+        for (int i = 0; i < values.length; i++) {
+          ScopeFamily family = scopeMatcher.getFamily(i);
+          values[i] = familyValue(plan, family, values[i], userSession.getRealm(), userSession.getUser(), keycloakSession);
+          if (values[i] == null)
+            continue;
+          if (claims == null)
+            claims = new ClaimTreeBuilder();
+          claims.put(family.getClaimPath(), values[i]);
+        }
+        if (claims == null)
+          return;
+        int conflicts = claims.writeTo(token.getOtherClaims());
+        for (int i = 0; i < conflicts; i++)
+          plan.getMetrics().recordClaimConflict();
+        if (!ClaimAudit.isEnabled())
+          return;
+        for (int i = 0; i < values.length; i++) {
+          ClaimPath claimPath = scopeMatcher.getFamily(i).getClaimPath();
+          // Values lost to a conflict or to a later family of the same claim are not in the token
+          if (values[i] != null && ClaimTreeBuilder.read(token.getOtherClaims(), claimPath) == values[i])
+            ClaimAudit.record(token, tokenType, plan, claimPath.getClaimName(), values[i], userSession, clientSessionCtx);
+        }
+    }
+
+    /**
+     * Computes the claims the mapper would issue to the user for the given scopes without a user
+     * session: the same scope parsing, membership check and value conversion as for a token, but
+     * source clients and the per-session memo do not apply. Used for bulk computation by
+     * {@link BulkClaimsResource}, whose sessions {@link ProjectEntitlements#bypassCache bypass} the
+     * entitlement cache.
+     *
+     * @return the claims, empty when none would be issued
+     */
+    public static Map<String, Object> computeClaims(MapperPlan plan, String scopes, RealmModel realm, UserModel user, KeycloakSession keycloakSession) {
+        ClaimTreeBuilder claims = new ClaimTreeBuilder();
+        ScopeMatcher scopeMatcher = plan.getScopeMatcher();
+        if (scopeMatcher != null) {
+          Object[] values = scopeMatcher.match(scopes);
+          for (int i = 0; i < values.length; i++) {
+            ScopeFamily family = scopeMatcher.getFamily(i);
+            claims.put(family.getClaimPath(), familyValue(plan, family, values[i], realm, user, keycloakSession));
           }
-        });
+        } else if (plan.isMultiProject()) {
+          List<String> projects = requestedProjects(plan, scopes, realm);
+          if (plan.isMembershipCheck())
+            projects = splitProjects(checkMemberships(plan, projects, realm, user, keycloakSession));
+          ProjectClaimEncoding encoding = plan.getProjectEncoding();
+          Object claim = encoding.encode(projects, encoding == ProjectClaimEncoding.LIST ? null : ProjectDictionary.forRealm(realm));
+          if (claim != null)
+            UtilMapper.mapClaim(claims, plan, claim);
+        } else {
+          String project = requestedProject(plan, scopes, realm);
+          if (plan.isMembershipCheck())
+            project = checkMembership(plan, project, realm, user, keycloakSession);
+          if (project != null)
+            UtilMapper.mapClaim(claims, plan, project);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        claims.writeTo(result);
+        return result;
+    }
 
-        if (projectRequested.size() == 1) {
-          // check if user is part of the requested project via some means such as an ldap lookup or group check
-          String projectValue = projectRequested.get(0).split(":")[1];
-          OIDCAttributeMapperHelper.mapClaim(token, mappingModel, projectValue);
+    /**
+     * @return the value of a scope family, with canonical project ids for the project family that
+     * are limited to the granted projects when memberships are checked, or null when nothing is mapped
+     */
+    private static Object familyValue(MapperPlan plan, ScopeFamily family, Object value, RealmModel realm, UserModel user, KeycloakSession keycloakSession) {
+        if (value == null || !PROJECT_SCOPE_PREFIX.equals(family.getPrefix()))
+          return value;
+        value = canonicalizeFamily(plan, value, realm);
+        if (value != null && plan.isMembershipCheck())
+          return checkFamilyMembership(plan, value, realm, user, keycloakSession);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object canonicalizeFamily(MapperPlan plan, Object value, RealmModel realm) {
+        ProjectAliases aliases = ProjectAliases.forRealm(realm);
+        if (value instanceof String)
+          return aliases.canonicalize((String) value, plan.isRejectUnknownProjects());
+        List<String> projects = aliases.canonicalize((List<String>) value, plan.isRejectUnknownProjects());
+        return projects.isEmpty() ? null : projects;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object checkFamilyMembership(MapperPlan plan, Object value, RealmModel realm, UserModel user, KeycloakSession keycloakSession) {
+        if (value instanceof String)
+          return checkMembership(plan, (String) value, realm, user, keycloakSession);
+        List<String> granted = new ArrayList<>();
+        for (String project : (List<String>) value) {
+          if (checkMembership(plan, project, realm, user, keycloakSession) != null)
+            granted.add(project);
+        }
+        return granted.isEmpty() ? null : granted;
+    }
+
+    /**
+     * Resolves the requested projects the user is a member of: the single requested project, or
+     * in multi-project mode all of them separated by spaces. The result is memoized on the
+     * current client session (see {@link ClaimMemo}), so the access token, ID token and userinfo
+     * requests of a session only run the membership check again once the requested scopes or
+     * the user's memberships change or the entitlement TTL has passed.
+     *
+     * @return null when no requested project is granted
+     */
+    private String resolveMemberProjects(MapperPlan plan, String scopes, UserSessionModel userSession, KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx) {
+        AuthenticatedClientSessionModel memoSession = clientSessionCtx != null ? clientSessionCtx.getClientSession() : null;
+        RealmModel realm = userSession.getRealm();
+        UserModel user = userSession.getUser();
+        // The same scopes resolve to other projects once the aliases change
+        long aliasesVersion = ProjectAliases.forRealm(realm).getSourceDigest();
+        long membershipVersion = ProjectEntitlements.membershipVersion(realm.getId(), user.getId());
+        long now = System.currentTimeMillis();
+        if (memoSession != null) {
+          String memo = ClaimMemo.lookup(memoSession.getNote(plan.getMemoNoteKey()), plan.getConfigHash(), scopes, membershipVersion, aliasesVersion, now / 1000);
+          if (memo != null)
+            return memo == ClaimMemo.NO_CLAIM ? null : memo;
+        }
+
+        boolean[] fallback = new boolean[1];
+        String projectValue = plan.isMultiProject()
+            ? checkMemberships(plan, requestedProjects(plan, scopes, realm), realm, user, keycloakSession, fallback)
+            : checkMembership(plan, requestedProject(plan, scopes, realm), realm, user, keycloakSession, fallback);
+
+        // A fallback decision is retried on the next request instead of being memoized
+        if (memoSession != null && !fallback[0]) {
+          EntitlementCache cache = ProjectEntitlements.getCache();
+          long ttl = projectValue != null ? cache.getTtlMillis() : cache.getNegativeTtlMillis();
+          memoSession.setNote(plan.getMemoNoteKey(), ClaimMemo.write(plan.getConfigHash(), scopes, membershipVersion, aliasesVersion, (now + ttl) / 1000, projectValue));
+        }
+        return projectValue;
+    }
+
+    /**
+     * @return the canonical id of the single requested project, or null when none or an unknown
+     * one that is rejected is requested
+     */
+    private static String requestedProject(MapperPlan plan, String scopes, RealmModel realm) {
+        String project = ScopeScanner.findSingleValue(scopes, PROJECT_SCOPE_PREFIX);
+        return ProjectAliases.forRealm(realm).canonicalize(project, plan.isRejectUnknownProjects());
+    }
+
+    /**
+     * @return the canonical ids of all requested projects, without duplicates and rejected ones
+     */
+    private static List<String> requestedProjects(MapperPlan plan, String scopes, RealmModel realm) {
+        List<String> projects = ScopeScanner.findAllValues(scopes, PROJECT_SCOPE_PREFIX);
+        return ProjectAliases.forRealm(realm).canonicalize(projects, plan.isRejectUnknownProjects());
+    }
+
+    private static String checkMembership(MapperPlan plan, String project, RealmModel realm, UserModel user, KeycloakSession keycloakSession) {
+        return checkMembership(plan, project, realm, user, keycloakSession, null);
+    }
+
+    /**
+     * @param fallback set to true when a fallback decision was used for the project, may be null
+     */
+    private static String checkMembership(MapperPlan plan, String project, RealmModel realm, UserModel user, KeycloakSession keycloakSession, boolean[] fallback) {
+        if (project == null)
+          return null;
+        boolean member;
+        try {
+          member = ProjectEntitlements.isMember(keycloakSession, realm, user, project);
+        } catch (EntitlementUnavailableException e) {
+          log.debugf(e, "Mapper %s: using the fallback decision for project %s of user %s", plan.getMapperName(), project, user.getId());
+          if (fallback != null)
+            fallback[0] = true;
+          member = e.isGranted();
+        }
+        if (member)
+          return project;
+        if (MapperTrace.isSampled(log))
+          log.debugf("Mapper %s: user %s is not a member of project %s", plan.getMapperName(), user.getId(), project);
+        return null;
+    }
+
+    private static String checkMemberships(MapperPlan plan, List<String> projects, RealmModel realm, UserModel user, KeycloakSession keycloakSession) {
+        return checkMemberships(plan, projects, realm, user, keycloakSession, null);
+    }
+
+    private static String checkMemberships(MapperPlan plan, List<String> projects, RealmModel realm, UserModel user, KeycloakSession keycloakSession, boolean[] fallback) {
+        StringBuilder granted = null;
+        for (String project : projects) {
+          if (checkMembership(plan, project, realm, user, keycloakSession, fallback) == null)
+            continue;
+          if (granted == null)
+            granted = new StringBuilder(project);
+          else
+            granted.append(' ').append(project);
+        }
+        return granted != null ? granted.toString() : null;
+    }
+
+    private static List<String> splitProjects(String projects) {
+        if (projects == null)
+          return Collections.emptyList();
+        return Arrays.asList(projects.split(" "));
+    }
 
+    /**
+     * Picks the client session the requested scopes are read from: the session of the first
+     * configured source client the user has one for, or the current client session when no source
+     * clients are configured. The current session is used directly when it belongs to a source client.
+     */
+    private static AuthenticatedClientSessionModel findSourceSession(MapperPlan plan, UserSessionModel userSession, ClientSessionContext clientSessionCtx) {
+        AuthenticatedClientSessionModel current = clientSessionCtx != null ? clientSessionCtx.getClientSession() : null;
+        String[] sourceClientIds = plan.getSourceClientIds();
+        if (sourceClientIds.length == 0)
+          return current;
+        String currentClientId = current != null ? current.getClient().getClientId() : null;
+        for (String clientId : sourceClientIds) {
+          if (clientId.equals(currentClientId))
+            return current;
+          String clientUuid = ClientIdResolver.resolve(userSession.getRealm(), clientId);
+          if (clientUuid == null)
+            continue;
+          AuthenticatedClientSessionModel clientSession = userSession.getAuthenticatedClientSessionByClient(clientUuid);
+          if (clientSession != null)
+            return clientSession;
         }
+        return null;
     }
 }
@@ -0,0 +1,102 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocation, error, conversion failure and claim conflict counters plus a latency histogram for one protocol
+ * mapper. Instances are owned by {@link MapperMetricsRegistry} and outlive recompiled plans.
+ */
+public final class MapperMetrics implements MapperMetricsMXBean {
+
+    private volatile String mapperName;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder conversionFailures = new LongAdder();
+
+    private final LongAdder claimConflicts = new LongAdder();
+
+    MapperMetrics(String mapperName) {
+        this.mapperName = mapperName;
+    }
+
+    void setMapperName(String mapperName) {
+        this.mapperName = mapperName;
+    }
+
+    public void recordInvocation(long nanos) {
+        latency.record(nanos);
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    public void recordConversionFailure() {
+        conversionFailures.increment();
+    }
+
+    public void recordClaimConflict() {
+        claimConflicts.increment();
+    }
+
+    @Override
+    public String getMapperName() {
+        return mapperName;
+    }
+
+    @Override
+    public long getInvocationCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getConversionFailureCount() {
+        return conversionFailures.sum();
+    }
+
+    @Override
+    public long getClaimConflictCount() {
+        return claimConflicts.sum();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return latency.getMax();
+    }
+
+    @Override
+    public long getP50Latency() {
+        return latency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getP99Latency() {
+        return latency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getP999Latency() {
+        return latency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        errors.reset();
+        conversionFailures.reset();
+        claimConflicts.reset();
+    }
+}
@@ -0,0 +1,33 @@
+package io.iw.keycloakmapper;
+
+/**
+ * JMX view of the execution metrics of one protocol mapper. Latencies are in nanoseconds and
+ * cover everything the mapper does for a single token.
+ */
+public interface MapperMetricsMXBean {
+
+    String getMapperName();
+
+    long getInvocationCount();
+
+    long getErrorCount();
+
+    long getConversionFailureCount();
+
+    /**
+     * @return claims that were not written because a parent claim in the token is not a JSON object
+     */
+    long getClaimConflictCount();
+
+    double getMeanLatency();
+
+    long getMaxLatency();
+
+    long getP50Latency();
+
+    long getP99Latency();
+
+    long getP999Latency();
+
+    void reset();
+}
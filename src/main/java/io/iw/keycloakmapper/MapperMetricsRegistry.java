@@ -0,0 +1,51 @@
+package io.iw.keycloakmapper;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.ObjectName;
+import org.keycloak.models.ProtocolMapperModel;
+
+/**
+ * Holds one {@link MapperMetrics} per protocol mapper id and publishes each of them over JMX as
+ * {@code io.iw.keycloakmapper:type=MapperMetrics,id=<mapper id>}. Mappers without an id share a
+ * single instance. The metrics of a mapper are dropped and unregistered when its plan is evicted
+ * from the {@link MapperPlanCache}.
+ */
+public final class MapperMetricsRegistry {
+
+    private static final String UNSAVED = "unsaved";
+
+    private static final ConcurrentHashMap<String, MapperMetrics> metrics = new ConcurrentHashMap<>();
+
+    private MapperMetricsRegistry() {
+    }
+
+    public static MapperMetrics get(ProtocolMapperModel mappingModel) {
+        String id = mappingModel.getId() != null ? mappingModel.getId() : UNSAVED;
+        MapperMetrics mapperMetrics = metrics.get(id);
+        if (mapperMetrics == null)
+            mapperMetrics = metrics.computeIfAbsent(id, key -> register(key, mappingModel.getName()));
+        else if (mappingModel.getName() != null && !mappingModel.getName().equals(mapperMetrics.getMapperName()))
+            mapperMetrics.setMapperName(mappingModel.getName());
+        return mapperMetrics;
+    }
+
+    public static void remove(String mapperId) {
+        if (metrics.remove(mapperId) != null)
+            Jmx.unregister(objectName(mapperId));
+    }
+
+    public static Collection<MapperMetrics> all() {
+        return metrics.values();
+    }
+
+    private static MapperMetrics register(String id, String name) {
+        MapperMetrics mapperMetrics = new MapperMetrics(name);
+        Jmx.register(objectName(id), mapperMetrics);
+        return mapperMetrics;
+    }
+
+    private static String objectName(String id) {
+        return Jmx.DOMAIN + ":type=MapperMetrics,id=" + ObjectName.quote(id);
+    }
+}
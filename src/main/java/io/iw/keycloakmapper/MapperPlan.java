@@ -0,0 +1,306 @@
+package io.iw.keycloakmapper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.services.ServicesLogger;
+
+/**
+ * Everything {@link UtilMapper} needs to know about a protocol mapper, resolved once from its
+ * config: the compiled claim path, the value kind and parse failure policy for the configured
+ * JSON type and the multivalued / include-in flags. Plans are immutable and obtained through {@link MapperPlanCache}.
+ */
+public final class MapperPlan {
+
+    private final String mapperName;
+
+    private final Map<String, String> config;
+
+    private final int configHash;
+
+    private final ClaimPath claimPath;
+
+    private final String jsonType;
+
+    private final boolean multivalued;
+
+    private final BulkConverter.Kind valueKind;
+
+    private final ParseFailurePolicy parseFailurePolicy;
+
+    private final Object defaultValue;
+
+    private final MultivaluedOrder multivaluedOrder;
+
+    private final boolean includeInAccessToken;
+
+    private final boolean includeInIDToken;
+
+    private final boolean includeInUserInfo;
+
+    private final String[] sourceClientIds;
+
+    private final boolean membershipCheck;
+
+    private final boolean rejectUnknownProjects;
+
+    private final boolean multiProject;
+
+    private final ProjectClaimEncoding projectEncoding;
+
+    private final ScopeMatcher scopeMatcher;
+
+    private final MapperMetrics metrics;
+
+    private final String memoNoteKey;
+
+    private MapperPlan(ProtocolMapperModel mappingModel) {
+        Map<String, String> config = mappingModel.getConfig();
+        String claimName = config.get(UtilMapper.TOKEN_CLAIM_NAME);
+        this.mapperName = mappingModel.getName();
+        this.config = new HashMap<>(config);
+        this.configHash = config.hashCode();
+        ClaimPath claimPath = claimName != null ? ClaimPath.compile(claimName) : null;
+        // An empty claim name maps nothing, like a missing one
+        this.claimPath = claimPath != null && !claimPath.isEmpty() ? claimPath : null;
+        this.jsonType = config.get(UtilMapper.JSON_TYPE);
+        this.multiProject = isTrue(config, KeycloakMapper.MULTI_PROJECT);
+        this.projectEncoding = ProjectClaimEncoding.fromConfig(config.get(KeycloakMapper.PROJECT_ENCODING));
+        this.multivalued = isTrue(config, UtilMapper.MULTIVALUED) || multiProject;
+        this.valueKind = BulkConverter.kindFor(jsonType);
+        this.parseFailurePolicy = ParseFailurePolicy.fromConfig(config.get(UtilMapper.JSON_TYPE_FAILURE));
+        String defaultValue = config.get(UtilMapper.JSON_TYPE_DEFAULT);
+        Object parsedDefault = defaultValue != null ? ValueParser.parse(valueKind, defaultValue) : null;
+        this.defaultValue = parsedDefault != ValueParser.FAILED ? parsedDefault : null;
+        this.multivaluedOrder = MultivaluedOrder.fromConfig(config.get(UtilMapper.MULTIVALUED_ORDER));
+        this.includeInAccessToken = isTrue(config, UtilMapper.INCLUDE_IN_ACCESS_TOKEN);
+        this.includeInIDToken = isTrue(config, UtilMapper.INCLUDE_IN_ID_TOKEN);
+        String userInfo = config.get(UtilMapper.INCLUDE_IN_USERINFO);
+        this.includeInUserInfo = userInfo == null ? includeInIDToken : "true".equals(userInfo);
+        this.sourceClientIds = splitList(config.get(KeycloakMapper.SOURCE_CLIENTS));
+        this.membershipCheck = isTrue(config, KeycloakMapper.MEMBERSHIP_CHECK);
+        this.rejectUnknownProjects = isTrue(config, KeycloakMapper.REJECT_UNKNOWN_PROJECTS);
+        String scopeFamilies = config.get(KeycloakMapper.SCOPE_FAMILIES);
+        this.scopeMatcher = scopeFamilies != null && !scopeFamilies.trim().isEmpty() ? ScopeMatcher.compile(scopeFamilies) : null;
+        this.metrics = MapperMetricsRegistry.get(mappingModel);
+        this.memoNoteKey = ClaimMemo.NOTE_PREFIX + mappingModel.getId();
+    }
+
+    public static MapperPlan compile(ProtocolMapperModel mappingModel) {
+        return new MapperPlan(mappingModel);
+    }
+
+    /**
+     * @return whether the config has the same entries as the one the plan was compiled from
+     */
+    boolean isCompiledFrom(Map<String, String> config) {
+        return configHash == config.hashCode() && this.config.equals(config);
+    }
+
+    /**
+     * @return the compiled claim path, or null when the mapper's claim name is missing or empty
+     */
+    public ClaimPath getClaimPath() {
+        return claimPath;
+    }
+
+    public String getJsonType() {
+        return jsonType;
+    }
+
+    public boolean isMultivalued() {
+        return multivalued;
+    }
+
+    public MultivaluedOrder getMultivaluedOrder() {
+        return multivaluedOrder;
+    }
+
+    BulkConverter.Kind getValueKind() {
+        return valueKind;
+    }
+
+    public ParseFailurePolicy getParseFailurePolicy() {
+        return parseFailurePolicy;
+    }
+
+    public boolean isIncludeInAccessToken() {
+        return includeInAccessToken;
+    }
+
+    public boolean isIncludeInIDToken() {
+        return includeInIDToken;
+    }
+
+    public boolean isIncludeInUserInfo() {
+        return includeInUserInfo;
+    }
+
+    /**
+     * @return the clientIds whose client sessions the requested scopes are read from, empty for the
+     * client the token is issued to
+     */
+    public String[] getSourceClientIds() {
+        return sourceClientIds;
+    }
+
+    public boolean isMembershipCheck() {
+        return membershipCheck;
+    }
+
+    /**
+     * @return whether requested projects missing from the realm's {@link ProjectAliases} are left out
+     */
+    public boolean isRejectUnknownProjects() {
+        return rejectUnknownProjects;
+    }
+
+    public String getMapperName() {
+        return mapperName;
+    }
+
+    /**
+     * @return whether every requested and authorized project is mapped instead of a single one
+     */
+    public boolean isMultiProject() {
+        return multiProject;
+    }
+
+    public ProjectClaimEncoding getProjectEncoding() {
+        return projectEncoding;
+    }
+
+    /**
+     * @return the compiled scope family table, or null when the mapper only maps projects
+     */
+    public ScopeMatcher getScopeMatcher() {
+        return scopeMatcher;
+    }
+
+    public MapperMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the client session note the mapper memoizes its resolved claim value in
+     */
+    public String getMemoNoteKey() {
+        return memoNoteKey;
+    }
+
+    int getConfigHash() {
+        return configHash;
+    }
+
+    private static boolean isTrue(Map<String, String> config, String key) {
+        return "true".equals(config.get(key));
+    }
+
+    private static String[] splitList(String value) {
+        if (value == null)
+            return new String[0];
+        List<String> items = new ArrayList<>();
+        for (String item : value.split(",")) {
+            item = item.trim();
+            if (!item.isEmpty())
+                items.add(item);
+        }
+        return items.toArray(new String[items.size()]);
+    }
+
+    public Object mapAttributeValue(Object attributeValue) {
+        if (attributeValue == null)
+            return null;
+        if (attributeValue instanceof Collection) {
+            Collection<?> valueAsList = (Collection<?>) attributeValue;
+            if (valueAsList.isEmpty())
+                return null;
+            if (multivalued) {
+                Object converted = BulkConverter.convert(this, valueAsList);
+                if (converted != BulkConverter.UNSUPPORTED)
+                    return converted;
+                return mapItems(valueAsList);
+            }
+            if (valueAsList.size() > 1)
+                ServicesLogger.LOGGER.multipleValuesForMapper(attributeValue.toString(), mapperName);
+            attributeValue = valueAsList.iterator().next();
+            if (attributeValue == null)
+                return null;
+        }
+        Object converted = ValueParser.parse(valueKind, attributeValue);
+        return converted != ValueParser.FAILED ? converted : onParseFailure(attributeValue);
+    }
+
+    /**
+     * Maps the items of a multivalued attribute one by one, for values {@link BulkConverter} does not
+     * handle, and applies the {@link MultivaluedOrder} the same way it does.
+     */
+    private List<Object> mapItems(Collection<?> values) {
+        Collection<Object> mappedItems = multivaluedOrder == MultivaluedOrder.KEEP
+                ? new ArrayList<>(values.size()) : new LinkedHashSet<>(values.size() * 4 / 3 + 1);
+        for (Object valueItem : values) {
+            // Null items and nested collections are mapped as they are, only skipped values are left out
+            if (valueItem == null || valueItem instanceof Collection) {
+                mappedItems.add(mapAttributeValue(valueItem));
+                continue;
+            }
+            Object converted = ValueParser.parse(valueKind, valueItem);
+            if (converted == ValueParser.FAILED) {
+                converted = onParseFailure(valueItem);
+                if (converted == null)
+                    continue;
+            }
+            mappedItems.add(converted);
+        }
+        List<Object> result = mappedItems instanceof List ? (List<Object>) mappedItems : new ArrayList<>(mappedItems);
+        if (multivaluedOrder == MultivaluedOrder.SORTED && isSortable(result))
+            result.sort(Comparator.nullsLast(MapperPlan::compareValues));
+        return result;
+    }
+
+    /**
+     * Nested values and mixed types are not mutually comparable, so only lists of one comparable
+     * type, apart from nulls, are sorted; others are only made distinct.
+     */
+    private static boolean isSortable(List<Object> values) {
+        Class<?> type = null;
+        for (Object value : values) {
+            if (value == null)
+                continue;
+            if (type == null && value instanceof Comparable)
+                type = value.getClass();
+            else if (value.getClass() != type)
+                return false;
+        }
+        return type != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object value, Object other) {
+        return ((Comparable<Object>) value).compareTo(other);
+    }
+
+    /**
+     * Applies the parse failure policy to a value that could not be converted.
+     *
+     * @return the value to map instead, or null to leave it out
+     * @throws ClaimConversionException when the mapper is configured to fail
+     */
+    Object onParseFailure(Object attributeValue) {
+        metrics.recordConversionFailure();
+        switch (parseFailurePolicy) {
+            case SKIP:
+                return null;
+            case DEFAULT:
+                return defaultValue;
+            default:
+                throw new ClaimConversionException("Mapper " + mapperName + " cannot map " + attributeValue.getClass().getSimpleName()
+                        + " value to " + jsonType + " claim");
+        }
+    }
+}
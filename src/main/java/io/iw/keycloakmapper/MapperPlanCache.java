@@ -0,0 +1,157 @@
+package io.iw.keycloakmapper;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientScopeModel;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Caches the compiled {@link MapperPlan} of each protocol mapper, keyed by the mapper id.
+ * An entry is only reused while the mapper config it was built from is unchanged, so editing a
+ * mapper in the admin console recompiles its plan on the next token. Keycloak's realm cache hands
+ * out the same config map until the mapper is edited, so the common case is an identity check;
+ * other config instances are compared by content once and then remembered.
+ * The cache is shared by every mapper in this module.
+ *
+ * <p>The plans of removed clients and realms are evicted right away. Mappers deleted on their own
+ * are not announced, so plans that were not used for {@code planIdleTimeout} are evicted as well.
+ * Evicting a plan drops its {@link MapperMetricsRegistry metrics}.
+ */
+public final class MapperPlanCache {
+
+    public static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 3600;
+
+    /**
+     * How often the last use of a plan is recorded, so lookups rarely write to shared memory.
+     */
+    private static final long USE_RESOLUTION_MILLIS = 1000;
+
+    private static final class Entry {
+
+        final MapperPlan plan;
+
+        volatile Map<String, String> config;
+
+        volatile long lastUsed;
+
+        Entry(MapperPlan plan, Map<String, String> config, long now) {
+            this.plan = plan;
+            this.config = config;
+            this.lastUsed = now;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entry> plans = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService sweeper;
+
+    private MapperPlanCache() {
+    }
+
+    public static MapperPlan get(ProtocolMapperModel mappingModel) {
+        String id = mappingModel.getId();
+        if (id == null)
+            return MapperPlan.compile(mappingModel);
+        Map<String, String> config = mappingModel.getConfig();
+        long now = System.currentTimeMillis();
+        Entry entry = plans.get(id);
+        if (entry != null && entry.config == config) {
+            used(entry, now);
+            return entry.plan;
+        }
+        if (entry != null && entry.plan.isCompiledFrom(config)) {
+            entry.config = config;
+            used(entry, now);
+            return entry.plan;
+        }
+        MapperPlan plan = MapperPlan.compile(mappingModel);
+        plans.put(id, new Entry(plan, config, now));
+        return plan;
+    }
+
+    private static void used(Entry entry, long now) {
+        if (now - entry.lastUsed > USE_RESOLUTION_MILLIS)
+            entry.lastUsed = now;
+    }
+
+    /**
+     * Evicts the plan of a mapper and drops its metrics.
+     */
+    public static void invalidate(String mapperId) {
+        plans.remove(mapperId);
+        MapperMetricsRegistry.remove(mapperId);
+    }
+
+    static int size() {
+        return plans.size();
+    }
+
+    public static void clear() {
+        for (String mapperId : plans.keySet())
+            invalidate(mapperId);
+    }
+
+    /**
+     * Evicts the plans that were not used for the given time.
+     *
+     * @return how many plans were evicted
+     */
+    public static int evictIdle(long idleMillis) {
+        long oldest = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        for (Iterator<Map.Entry<String, Entry>> entries = plans.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<String, Entry> entry = entries.next();
+            if (entry.getValue().lastUsed < oldest && plans.remove(entry.getKey(), entry.getValue())) {
+                MapperMetricsRegistry.remove(entry.getKey());
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Evicts the plans of removed clients and realms, and every {@code idleSeconds / 4} the plans
+     * idle for longer than {@code idleSeconds}, or never when that is not positive.
+     */
+    public static synchronized void start(KeycloakSessionFactory factory, long idleSeconds) {
+        factory.register(event -> {
+            if (event instanceof RealmModel.ClientRemovedEvent) {
+                invalidateMappers(((RealmModel.ClientRemovedEvent) event).getClient());
+            } else if (event instanceof RealmModel.RealmRemovedEvent) {
+                RealmModel realm = ((RealmModel.RealmRemovedEvent) event).getRealm();
+                for (ClientModel client : realm.getClients())
+                    invalidateMappers(client);
+                for (ClientScopeModel clientScope : realm.getClientScopes()) {
+                    for (ProtocolMapperModel mapper : clientScope.getProtocolMappers())
+                        invalidate(mapper.getId());
+                }
+            }
+        });
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+        if (idleSeconds <= 0)
+            return;
+        long idleMillis = idleSeconds * 1000;
+        long interval = Math.max(idleMillis / 4, 1000);
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "project-mapper-plan-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(() -> evictIdle(idleMillis), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static void invalidateMappers(ClientModel client) {
+        for (ProtocolMapperModel mapper : client.getProtocolMappers())
+            invalidate(mapper.getId());
+    }
+}
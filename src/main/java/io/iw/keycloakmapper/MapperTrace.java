@@ -0,0 +1,34 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.ThreadLocalRandom;
+import org.jboss.logging.Logger;
+
+/**
+ * Opt-in, sampled debug tracing of mapper executions. Callers check {@link #isSampled(Logger)}
+ * before building any message, so an unsampled execution costs one branch.
+ */
+public final class MapperTrace {
+
+    private static volatile int sampleRate;
+
+    private MapperTrace() {
+    }
+
+    /**
+     * @param rate trace one in {@code rate} executions, 0 to switch tracing off
+     */
+    public static void setSampleRate(int rate) {
+        sampleRate = Math.max(0, rate);
+    }
+
+    public static int getSampleRate() {
+        return sampleRate;
+    }
+
+    public static boolean isSampled(Logger log) {
+        int rate = sampleRate;
+        if (rate == 0)
+            return false;
+        return (rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0) && log.isDebugEnabled();
+    }
+}
@@ -0,0 +1,123 @@
+package io.iw.keycloakmapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jboss.logging.Logger;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientScopeModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ProtocolMapperContainerModel;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+
+/**
+ * Prepares a freshly started node for its first tokens. Once Keycloak has migrated its model, the
+ * plan of every project mapper of every realm, on clients and client scopes alike, is compiled into
+ * the {@link MapperPlanCache}, their source clients are resolved and their project dictionaries
+ * loaded. With {@code warmUpSessions} set, the project memberships requested in up to that many
+ * active sessions of each client are {@link ProjectEntitlements#prefetch prefetched} as well, so
+ * users who are already logged in find their entitlements cached when they refresh their tokens.
+ *
+ * <p>A mapper whose config does not compile, or a realm that cannot be read, is logged and left to
+ * fail on its first token as before; warming up never stops the server from starting.
+ */
+public final class MapperWarmUp {
+
+    protected static Logger log = Logger.getLogger(MapperWarmUp.class);
+
+    private MapperWarmUp() {
+    }
+
+    /**
+     * Warms up once the model has been migrated, when the realms can be read safely.
+     */
+    public static void register(KeycloakSessionFactory factory, String mapperId, int sessionsPerClient) {
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent)
+                run(factory, mapperId, sessionsPerClient);
+        });
+    }
+
+    /**
+     * Warms up each realm in a transaction of its own, so a realm that fails does not keep the
+     * others from being warmed up.
+     */
+    public static void run(KeycloakSessionFactory factory, String mapperId, int sessionsPerClient) {
+        long start = System.currentTimeMillis();
+        int[] counts = new int[2];
+        List<String> realmIds = new ArrayList<>();
+        try {
+            KeycloakModelUtils.runJobInTransaction(factory, session -> {
+                for (RealmModel realm : session.realms().getRealms())
+                    realmIds.add(realm.getId());
+            });
+        } catch (RuntimeException e) {
+            log.warn("Warming up the project mappers failed", e);
+            return;
+        }
+        for (String realmId : realmIds) {
+            try {
+                KeycloakModelUtils.runJobInTransaction(factory, session -> {
+                    RealmModel realm = session.realms().getRealm(realmId);
+                    if (realm != null)
+                        warmUpRealm(session, realm, mapperId, sessionsPerClient, counts);
+                });
+            } catch (RuntimeException e) {
+                log.warnf(e, "Warming up the project mappers of realm %s failed", realmId);
+            }
+        }
+        log.infof("Warmed up %d project mappers and prefetched the projects of %d sessions in %d ms",
+                counts[0], counts[1], System.currentTimeMillis() - start);
+    }
+
+    private static void warmUpRealm(KeycloakSession session, RealmModel realm, String mapperId, int sessionsPerClient, int[] counts) {
+        boolean membershipCheck = false;
+        for (ClientScopeModel clientScope : realm.getClientScopes())
+            membershipCheck |= compilePlans(realm, clientScope, mapperId, counts);
+        for (ClientModel client : realm.getClients())
+            membershipCheck |= compilePlans(realm, client, mapperId, counts);
+        if (!membershipCheck || sessionsPerClient <= 0)
+            return;
+        for (ClientModel client : realm.getClients()) {
+            for (UserSessionModel userSession : session.sessions().getUserSessions(realm, client, 0, sessionsPerClient)) {
+                AuthenticatedClientSessionModel clientSession = userSession.getAuthenticatedClientSessionByClient(client.getId());
+                String scopes = clientSession != null ? clientSession.getNote(OAuth2Constants.SCOPE) : null;
+                if (scopes == null)
+                    continue;
+                ProjectEntitlements.prefetch(realm, userSession.getUser().getId(), scopes);
+                counts[1]++;
+            }
+        }
+    }
+
+    /**
+     * @return whether any of the container's project mappers checks memberships
+     */
+    private static boolean compilePlans(RealmModel realm, ProtocolMapperContainerModel container, String mapperId, int[] counts) {
+        boolean membershipCheck = false;
+        for (ProtocolMapperModel mapper : container.getProtocolMappers()) {
+            if (!mapperId.equals(mapper.getProtocolMapper()))
+                continue;
+            MapperPlan plan;
+            try {
+                plan = MapperPlanCache.get(mapper);
+            } catch (IllegalArgumentException e) {
+                log.warnf("Project mapper %s of realm %s has an invalid config: %s", mapper.getName(), realm.getName(), e.getMessage());
+                continue;
+            }
+            for (String clientId : plan.getSourceClientIds())
+                ClientIdResolver.resolve(realm, clientId);
+            if (plan.getProjectEncoding() != ProjectClaimEncoding.LIST)
+                ProjectDictionary.forRealm(realm);
+            membershipCheck |= plan.isMembershipCheck();
+            counts[0]++;
+        }
+        return membershipCheck;
+    }
+}
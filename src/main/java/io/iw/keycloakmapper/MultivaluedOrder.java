@@ -0,0 +1,40 @@
+package io.iw.keycloakmapper;
+
+/**
+ * What happens to the values of a multivalued claim, configured with {@link UtilMapper#MULTIVALUED_ORDER}.
+ */
+public enum MultivaluedOrder {
+
+    /**
+     * Values are mapped as they come, duplicates included.
+     */
+    KEEP("keep"),
+
+    /**
+     * Duplicates are dropped, the first occurrence keeps its position.
+     */
+    DISTINCT("distinct"),
+
+    /**
+     * Duplicates are dropped and the values sorted ascending.
+     */
+    SORTED("sorted");
+
+    private final String configValue;
+
+    MultivaluedOrder(String configValue) {
+        this.configValue = configValue;
+    }
+
+    public String getConfigValue() {
+        return configValue;
+    }
+
+    public static MultivaluedOrder fromConfig(String value) {
+        for (MultivaluedOrder order : values()) {
+            if (order.configValue.equals(value))
+                return order;
+        }
+        return KEEP;
+    }
+}
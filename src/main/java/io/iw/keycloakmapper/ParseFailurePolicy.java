@@ -0,0 +1,42 @@
+package io.iw.keycloakmapper;
+
+/**
+ * What happens to an attribute value that cannot be converted to the mapper's JSON type,
+ * configured with {@link UtilMapper#JSON_TYPE_FAILURE}.
+ */
+public enum ParseFailurePolicy {
+
+    /**
+     * The value is left out; a single valued claim is not mapped at all.
+     */
+    SKIP("skip"),
+
+    /**
+     * The value is replaced by the mapper's {@link UtilMapper#JSON_TYPE_DEFAULT}, or left out when
+     * there is none.
+     */
+    DEFAULT("default"),
+
+    /**
+     * The token request fails.
+     */
+    FAIL("fail");
+
+    private final String configValue;
+
+    ParseFailurePolicy(String configValue) {
+        this.configValue = configValue;
+    }
+
+    public String getConfigValue() {
+        return configValue;
+    }
+
+    public static ParseFailurePolicy fromConfig(String value) {
+        for (ParseFailurePolicy policy : values()) {
+            if (policy.configValue.equals(value))
+                return policy;
+        }
+        return FAIL;
+    }
+}
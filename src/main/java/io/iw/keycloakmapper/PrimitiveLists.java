@@ -0,0 +1,110 @@
+package io.iw.keycloakmapper;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list views over the arrays filled by {@link BulkConverter}. Values are only boxed
+ * when the list is read, typically while the token is serialized.
+ */
+final class PrimitiveLists {
+
+    private PrimitiveLists() {
+    }
+
+    static final class LongList extends AbstractList<Long> implements RandomAccess {
+
+        private final long[] values;
+
+        private final int size;
+
+        LongList(long[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public Long get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    static final class IntList extends AbstractList<Integer> implements RandomAccess {
+
+        private final int[] values;
+
+        private final int size;
+
+        IntList(int[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    static final class DoubleList extends AbstractList<Double> implements RandomAccess {
+
+        private final double[] values;
+
+        private final int size;
+
+        DoubleList(double[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public Double get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    static final class ObjectList extends AbstractList<Object> implements RandomAccess {
+
+        private final Object[] values;
+
+        private final int size;
+
+        ObjectList(Object[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package io.iw.keycloakmapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Maps the project identifiers clients request, such as legacy names or the id in another case,
+ * to canonical project ids. A table has one {@code canonical: alias, alias} entry per line or
+ * separated by {@code ;}, and {@code #} starts a comment:
+ *
+ * <pre>
+ * apollo: Apollo-Legacy, proj-17
+ * gemini: gem</pre>
+ *
+ * Matching ignores case and a canonical id is an alias of itself. A realm's table is read from its
+ * {@value #REALM_ATTRIBUTE} attribute and recompiled when the attribute changes; realms without one
+ * use the table of the {@code projectAliasFile}, which is checked for changes every
+ * {@code projectAliasReloadInterval} seconds.
+ *
+ * <p>Tables are immutable open addressing hash tables. A reload compiles a new table next to the
+ * current one and swaps it in, so lookups never lock or wait for a reload. A table that does not
+ * compile is logged and the previous one stays in use.
+ */
+public final class ProjectAliases {
+
+    protected static Logger log = Logger.getLogger(ProjectAliases.class);
+
+    public static final String REALM_ATTRIBUTE = "projectAliases";
+
+    public static final long DEFAULT_RELOAD_SECONDS = 30;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final ProjectAliases EMPTY = new ProjectAliases("", new String[0], new String[0]);
+
+    private static final AtomicReference<ProjectAliases> fileTable = new AtomicReference<>(EMPTY);
+
+    private static final ConcurrentHashMap<String, ProjectAliases> realmTables = new ConcurrentHashMap<>();
+
+    private static Path file;
+
+    private static FileTime loadedModified;
+
+    private static ScheduledExecutorService watcher;
+
+    private final String source;
+
+    private final long sourceDigest;
+
+    private final String[] aliases;
+
+    private final String[] canonicalIds;
+
+    private final int mask;
+
+    private final int size;
+
+    private ProjectAliases(String source, String[] aliases, String[] canonicalIds) {
+        this.source = source;
+        this.sourceDigest = digest(source);
+        this.size = aliases.length;
+        // At most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(size * 2, 2) - 1) << 1;
+        this.aliases = new String[capacity];
+        this.canonicalIds = new String[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int index = hash(aliases[i]) & mask;
+            while (this.aliases[index] != null)
+                index = (index + 1) & mask;
+            this.aliases[index] = aliases[i];
+            this.canonicalIds[index] = canonicalIds[i];
+        }
+    }
+
+    private ProjectAliases(String source, ProjectAliases table) {
+        this.source = source;
+        this.sourceDigest = digest(source);
+        this.size = table.size;
+        this.aliases = table.aliases;
+        this.canonicalIds = table.canonicalIds;
+        this.mask = table.mask;
+    }
+
+    /**
+     * @throws IllegalArgumentException when an entry is malformed or an alias names two projects
+     */
+    public static ProjectAliases compile(String source) {
+        Map<String, String> canonicalByAlias = new HashMap<>();
+        List<String> aliases = new ArrayList<>();
+        List<String> canonicalIds = new ArrayList<>();
+        for (String entry : source.split("[\n;]")) {
+            int comment = entry.indexOf('#');
+            if (comment >= 0)
+                entry = entry.substring(0, comment);
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+            int colon = entry.indexOf(':');
+            String canonical = (colon < 0 ? entry : entry.substring(0, colon)).trim();
+            if (canonical.isEmpty() || canonical.indexOf(' ') >= 0)
+                throw new IllegalArgumentException("Invalid project alias entry '" + entry + "', expected canonical: alias, alias");
+            List<String> names = new ArrayList<>();
+            names.add(canonical);
+            if (colon >= 0) {
+                for (String alias : entry.substring(colon + 1).split(",")) {
+                    alias = alias.trim();
+                    if (alias.indexOf(' ') >= 0)
+                        throw new IllegalArgumentException("Invalid project alias '" + alias + "' of " + canonical);
+                    if (!alias.isEmpty())
+                        names.add(alias);
+                }
+            }
+            for (String alias : names) {
+                String previous = canonicalByAlias.putIfAbsent(fold(alias), canonical);
+                if (previous == null) {
+                    aliases.add(alias);
+                    canonicalIds.add(canonical);
+                } else if (!previous.equals(canonical)) {
+                    throw new IllegalArgumentException("Project alias '" + alias + "' names both " + previous + " and " + canonical);
+                }
+            }
+        }
+        return new ProjectAliases(source, aliases.toArray(new String[0]), canonicalIds.toArray(new String[0]));
+    }
+
+    public static ProjectAliases forRealm(RealmModel realm) {
+        String source = realm.getAttribute(REALM_ATTRIBUTE);
+        if (source == null)
+            return fileTable.get();
+        ProjectAliases table = realmTables.get(realm.getId());
+        if (table != null && table.source.equals(source))
+            return table;
+        ProjectAliases compiled;
+        try {
+            compiled = compile(source);
+        } catch (IllegalArgumentException e) {
+            log.warnf("Ignoring the changed %s attribute of realm %s: %s", REALM_ATTRIBUTE, realm.getName(), e.getMessage());
+            // Keeps the previous table under the new source, so the warning is not repeated for every token
+            compiled = new ProjectAliases(source, table != null ? table : EMPTY);
+        }
+        realmTables.put(realm.getId(), compiled);
+        return compiled;
+    }
+
+    /**
+     * Loads the file table from {@code projectAliasFile} if it is set and watches it for changes.
+     */
+    public static void configure(Config.Scope config) {
+        String path = config != null ? config.get("projectAliasFile") : null;
+        if (path == null) {
+            stopWatching();
+            return;
+        }
+        watch(Paths.get(path), config.getLong("projectAliasReloadInterval", DEFAULT_RELOAD_SECONDS));
+    }
+
+    /**
+     * Loads the table of realms without a {@value #REALM_ATTRIBUTE} attribute from a file and
+     * checks it for changes every {@code reloadSeconds}, or never when that is not positive.
+     */
+    public static synchronized void watch(Path path, long reloadSeconds) {
+        stopWatching();
+        file = path;
+        reload();
+        if (reloadSeconds <= 0)
+            return;
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "project-alias-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(ProjectAliases::reload, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Compiles the alias file again if it changed since it was last loaded.
+     *
+     * @return whether a new table was swapped in
+     */
+    public static synchronized boolean reload() {
+        if (file == null)
+            return false;
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            if (modified.equals(loadedModified))
+                return false;
+            ProjectAliases table = compile(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            fileTable.set(table);
+            loadedModified = modified;
+            log.infof("Loaded %d project aliases from %s", table.size(), file);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            log.warnf("Could not load project aliases from %s, keeping the current ones: %s", file, e.getMessage());
+            return false;
+        }
+    }
+
+    public static synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+        file = null;
+        loadedModified = null;
+        fileTable.set(EMPTY);
+    }
+
+    /**
+     * @return the canonical id of the project, the project itself when it is unknown and unknown
+     * projects are kept, or null when it is unknown and rejected. An empty table rejects nothing.
+     */
+    public String canonicalize(String project, boolean rejectUnknown) {
+        if (project == null || size == 0)
+            return project;
+        int index = hash(project) & mask;
+        String alias;
+        while ((alias = aliases[index]) != null) {
+            if (alias.equalsIgnoreCase(project))
+                return canonicalIds[index];
+            index = (index + 1) & mask;
+        }
+        return rejectUnknown ? null : project;
+    }
+
+    /**
+     * Canonicalizes every project, leaving out rejected projects and duplicates.
+     */
+    public List<String> canonicalize(List<String> projects, boolean rejectUnknown) {
+        if (size == 0)
+            return projects;
+        List<String> canonical = new ArrayList<>(projects.size());
+        for (String project : projects) {
+            String id = canonicalize(project, rejectUnknown);
+            if (id != null && !canonical.contains(id))
+                canonical.add(id);
+        }
+        return canonical;
+    }
+
+    /**
+     * @return a 64-bit FNV-1a digest of the table's source, the same on every node, which changes
+     * with the table. Unlike {@link String#hashCode} it is unlikely to stay the same across edits.
+     */
+    public long getSourceDigest() {
+        return sourceDigest;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Folds a character the way {@link String#equalsIgnoreCase} compares it.
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static String fold(String value) {
+        char[] folded = new char[value.length()];
+        for (int i = 0; i < folded.length; i++)
+            folded[i] = fold(value.charAt(i));
+        return new String(folded);
+    }
+
+    private static long digest(String source) {
+        long digest = FNV_OFFSET;
+        for (int i = 0; i < source.length(); i++)
+            digest = (digest ^ source.charAt(i)) * FNV_PRIME;
+        return digest;
+    }
+
+    /**
+     * Hashes the folded characters without creating the folded string.
+     */
+    private static int hash(String value) {
+        int hash = 0;
+        for (int i = 0; i < value.length(); i++)
+            hash = 31 * hash + fold(value.charAt(i));
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,81 @@
+package io.iw.keycloakmapper;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * How a multi-project claim is written into the token.
+ */
+public enum ProjectClaimEncoding {
+
+    /**
+     * A JSON array of project ids, in the order they were requested.
+     */
+    LIST("list"),
+
+    /**
+     * A single string of base 36 dictionary indexes in ascending order, separated by commas,
+     * e.g. {@code "3,1a,2f"}. Projects missing from the {@link ProjectDictionary} are left out.
+     */
+    CODES("codes"),
+
+    /**
+     * The unpadded base64url encoding of a little-endian bitset with one bit per dictionary entry.
+     * Projects missing from the {@link ProjectDictionary} are left out.
+     */
+    BITSET("bitset");
+
+    private final String configValue;
+
+    ProjectClaimEncoding(String configValue) {
+        this.configValue = configValue;
+    }
+
+    public String getConfigValue() {
+        return configValue;
+    }
+
+    public static ProjectClaimEncoding fromConfig(String value) {
+        for (ProjectClaimEncoding encoding : values()) {
+            if (encoding.configValue.equals(value))
+                return encoding;
+        }
+        return LIST;
+    }
+
+    /**
+     * @return the claim value, or null when none of the projects can be encoded
+     */
+    public Object encode(List<String> projects, ProjectDictionary dictionary) {
+        if (projects.isEmpty())
+            return null;
+        if (this == LIST)
+            return projects;
+        int[] indexes = new int[projects.size()];
+        int count = 0;
+        for (String project : projects) {
+            int index = dictionary.indexOf(project);
+            if (index >= 0)
+                indexes[count++] = index;
+        }
+        if (count == 0)
+            return null;
+        Arrays.sort(indexes, 0, count);
+        if (this == CODES) {
+            StringBuilder codes = new StringBuilder(count * 3);
+            for (int i = 0; i < count; i++) {
+                if (i > 0 && indexes[i] == indexes[i - 1])
+                    continue;
+                if (codes.length() > 0)
+                    codes.append(',');
+                codes.append(Integer.toString(indexes[i], Character.MAX_RADIX));
+            }
+            return codes.toString();
+        }
+        byte[] bits = new byte[indexes[count - 1] / 8 + 1];
+        for (int i = 0; i < count; i++)
+            bits[indexes[i] >> 3] |= 1 << (indexes[i] & 7);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bits);
+    }
+}
@@ -0,0 +1,60 @@
+package io.iw.keycloakmapper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.keycloak.models.RealmModel;
+
+/**
+ * The realm-wide, ordered list of project ids that compact project claims are encoded against.
+ * It is read from the {@value #REALM_ATTRIBUTE} realm attribute (comma separated) and compiled
+ * once per realm; a changed attribute value is recompiled on the next lookup. A project's index
+ * in the list is its bit in {@link ProjectClaimEncoding#BITSET} claims and, in base 36, its
+ * short code in {@link ProjectClaimEncoding#CODES} claims. Append new projects at the end so
+ * existing tokens keep their meaning.
+ */
+public final class ProjectDictionary {
+
+    public static final String REALM_ATTRIBUTE = "projectDictionary";
+
+    private static final ProjectDictionary EMPTY = new ProjectDictionary("");
+
+    private static final ConcurrentHashMap<String, ProjectDictionary> dictionaries = new ConcurrentHashMap<>();
+
+    private final String source;
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private ProjectDictionary(String source) {
+        this.source = source;
+        for (String project : source.split(",")) {
+            project = project.trim();
+            if (!project.isEmpty() && !indexes.containsKey(project))
+                indexes.put(project, indexes.size());
+        }
+    }
+
+    public static ProjectDictionary forRealm(RealmModel realm) {
+        String source = realm.getAttribute(REALM_ATTRIBUTE);
+        if (source == null)
+            return EMPTY;
+        ProjectDictionary dictionary = dictionaries.get(realm.getId());
+        if (dictionary == null || !dictionary.source.equals(source)) {
+            dictionary = new ProjectDictionary(source);
+            dictionaries.put(realm.getId(), dictionary);
+        }
+        return dictionary;
+    }
+
+    /**
+     * @return the index of the project, or -1 when it is not in the dictionary
+     */
+    public int indexOf(String project) {
+        Integer index = indexes.get(project);
+        return index != null ? index : -1;
+    }
+
+    public int size() {
+        return indexes.size();
+    }
+}
@@ -0,0 +1,51 @@
+package io.iw.keycloakmapper;
+
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+public class ProjectEntitlementEventListenerFactory implements EventListenerProviderFactory {
+
+    public static final String ID = "project-entitlements";
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new ProjectEntitlementEventListenerProvider(session);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        EntitlementInvalidation.local().registerListener(factory);
+        // Model events are delivered whether or not the listener is enabled for the realm
+        factory.register(event -> {
+            if (event instanceof UserModel.UserRemovedEvent) {
+                UserModel.UserRemovedEvent removed = (UserModel.UserRemovedEvent) event;
+                ProjectEntitlements.invalidateUser(removed.getKeycloakSession(), removed.getUser().getId());
+            } else if (event instanceof GroupModel.GroupRemovedEvent) {
+                GroupModel.GroupRemovedEvent removed = (GroupModel.GroupRemovedEvent) event;
+                ProjectEntitlements.invalidateGroup(removed.getKeycloakSession(), removed.getRealm().getId(), removed.getGroup().getId());
+            } else if (event instanceof RealmModel.RealmRemovedEvent) {
+                RealmModel.RealmRemovedEvent removed = (RealmModel.RealmRemovedEvent) event;
+                ProjectEntitlements.invalidateRealm(removed.getKeycloakSession(), removed.getRealm().getId());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
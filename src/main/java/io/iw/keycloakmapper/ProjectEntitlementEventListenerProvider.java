@@ -0,0 +1,138 @@
+package io.iw.keycloakmapper;
+
+import java.io.IOException;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Invalidates cached project memberships when an administrator changes group memberships,
+ * users or groups, and starts prefetching the memberships of the requested projects when a user
+ * logs in. The listener has to be enabled in the realm's event config to receive these events.
+ */
+public class ProjectEntitlementEventListenerProvider implements EventListenerProvider {
+
+    private static final String USERS_PATH = "users/";
+
+    private static final String GROUPS_PATH = "groups/";
+
+    private static final String CHILDREN_PATH = "/children";
+
+    private final KeycloakSession session;
+
+    public ProjectEntitlementEventListenerProvider(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (event.getUserId() == null)
+            return;
+        switch (event.getType()) {
+            case LOGIN:
+                prefetch(event);
+                break;
+            case UPDATE_PROFILE:
+            case UPDATE_EMAIL:
+                ProjectEntitlements.invalidateUser(session, event.getUserId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        if (event.getResourceType() == null)
+            return;
+        switch (event.getResourceType()) {
+            case GROUP_MEMBERSHIP:
+            case USER:
+                String userId = userId(event.getResourcePath());
+                if (userId != null)
+                    ProjectEntitlements.invalidateUser(session, userId);
+                break;
+            case GROUP:
+                invalidateGroups(event);
+                break;
+            case REALM:
+                ProjectEntitlements.invalidateRealm(session, event.getRealmId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Group events name the changed group ({@code groups/{id}}) or, when a group is created or
+     * moved below another one, the parent ({@code groups/{parentId}/children}). A moved group's
+     * previous parent is not named, so the child's own id is taken from the representation, and
+     * without one the whole realm is invalidated.
+     */
+    private void invalidateGroups(AdminEvent event) {
+        String path = event.getResourcePath();
+        String groupId = resourceId(path, GROUPS_PATH);
+        if (groupId == null) {
+            ProjectEntitlements.invalidateRealm(session, event.getRealmId());
+            return;
+        }
+        if (path.endsWith(CHILDREN_PATH)) {
+            String childId = representationId(event.getRepresentation());
+            if (childId == null) {
+                ProjectEntitlements.invalidateRealm(session, event.getRealmId());
+                return;
+            }
+            ProjectEntitlements.invalidateGroup(session, event.getRealmId(), childId);
+        }
+        ProjectEntitlements.invalidateGroup(session, event.getRealmId(), groupId);
+    }
+
+    private static String representationId(String representation) {
+        if (representation == null)
+            return null;
+        try {
+            return JsonSerialization.mapper.readTree(representation).path("id").asText(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void prefetch(Event event) {
+        if (event.getSessionId() == null || event.getClientId() == null)
+            return;
+        RealmModel realm = session.realms().getRealm(event.getRealmId());
+        if (realm == null)
+            return;
+        UserSessionModel userSession = session.sessions().getUserSession(realm, event.getSessionId());
+        String clientUuid = ClientIdResolver.resolve(realm, event.getClientId());
+        if (userSession == null || clientUuid == null)
+            return;
+        AuthenticatedClientSessionModel clientSession = userSession.getAuthenticatedClientSessionByClient(clientUuid);
+        if (clientSession != null)
+            ProjectEntitlements.prefetch(realm, event.getUserId(), clientSession.getNote(OAuth2Constants.SCOPE));
+    }
+
+    /**
+     * @return the user id of a resource path like {@code users/{id}/groups/{groupId}}
+     */
+    static String userId(String resourcePath) {
+        return resourceId(resourcePath, USERS_PATH);
+    }
+
+    private static String resourceId(String resourcePath, String collectionPath) {
+        if (resourcePath == null || !resourcePath.startsWith(collectionPath))
+            return null;
+        int end = resourcePath.indexOf('/', collectionPath.length());
+        return resourcePath.substring(collectionPath.length(), end < 0 ? resourcePath.length() : end);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,265 @@
+package io.iw.keycloakmapper;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Entry point for project membership checks. Decisions come from the configured
+ * {@link EntitlementSource} and are kept in a shared {@link EntitlementCache}, which is
+ * invalidated cluster-wide by {@link ProjectEntitlementEventListenerFactory}.
+ *
+ * <p>Settings are read from the {@code project-mapper} protocol mapper SPI config:
+ * {@code entitlementSource} ({@code groups}, {@code attributes}, {@code directory} or
+ * {@code snapshot}, or a comma separated list of them in order of precedence),
+ * {@code groupPathTemplate}, {@code projectAttribute}, {@code directoryUrl},
+ * {@code directoryTimeout} (milliseconds), {@code snapshotFile}, {@code snapshotReloadInterval},
+ * {@code entitlementMerge} ({@code any} or {@code precedence}), {@code resolverThreads},
+ * {@code breakerFailureThreshold}, {@code breakerOpenTime}, {@code entitlementCacheSize},
+ * {@code entitlementTtl} and {@code entitlementNegativeTtl} (all durations in seconds), and for
+ * prefetching at login {@code prefetchThreads} (0 disables it), {@code prefetchQueueSize},
+ * {@code prefetchDeadline} (milliseconds) and {@code prefetchFallback} ({@code omit}, {@code stale}
+ * or {@code fail}).
+ */
+public final class ProjectEntitlements {
+
+    public static final String DEFAULT_GROUP_PATH_TEMPLATE = "/projects/" + GroupEntitlementSource.PROJECT_PLACEHOLDER;
+
+    public static final long DEFAULT_SNAPSHOT_RELOAD_SECONDS = 30;
+
+    public static final String DEFAULT_PROJECT_ATTRIBUTE = "projects";
+
+    public static final long DEFAULT_DIRECTORY_TIMEOUT_MILLIS = 500;
+
+    public static final int DEFAULT_RESOLVER_THREADS = 32;
+
+    public static final int DEFAULT_BREAKER_FAILURE_THRESHOLD = 5;
+
+    public static final long DEFAULT_BREAKER_OPEN_SECONDS = 30;
+
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    public static final long DEFAULT_TTL_SECONDS = 300;
+
+    public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 60;
+
+    public static final int DEFAULT_PREFETCH_THREADS = 4;
+
+    public static final int DEFAULT_PREFETCH_QUEUE_SIZE = 1000;
+
+    public static final long DEFAULT_PREFETCH_DEADLINE_MILLIS = 200;
+
+    public static final long DEFAULT_LOOKUP_TIMEOUT_MILLIS = 2000;
+
+    private static final String MBEAN_NAME = Jmx.DOMAIN + ":type=EntitlementCache";
+
+    private static final String PREFETCHER_MBEAN_NAME = Jmx.DOMAIN + ":type=EntitlementPrefetcher";
+
+    private static final String LOOKUPS_MBEAN_NAME = Jmx.DOMAIN + ":type=EntitlementLookups";
+
+    private static final String BYPASS_CACHE_ATTRIBUTE = ProjectEntitlements.class.getName() + ".bypassCache";
+
+    private static final SingleFlight<EntitlementKey, Boolean> lookups = new SingleFlight<>();
+
+    private static final ProjectGroupIndex groupIndex = new ProjectGroupIndex();
+
+    private static volatile long lookupTimeoutMillis = DEFAULT_LOOKUP_TIMEOUT_MILLIS;
+
+    private static volatile Config.Scope config;
+
+    private static volatile EntitlementPrefetcher prefetcher;
+
+    private static volatile EntitlementSource source = new GroupEntitlementSource(DEFAULT_GROUP_PATH_TEMPLATE);
+
+    private static volatile EntitlementCache cache =
+            new EntitlementCache(DEFAULT_CACHE_SIZE, DEFAULT_TTL_SECONDS * 1000, DEFAULT_NEGATIVE_TTL_SECONDS * 1000);
+
+    private ProjectEntitlements() {
+    }
+
+    public static void configure(Config.Scope config) {
+        ProjectEntitlements.config = config;
+        source = createSource(config);
+        cache = new EntitlementCache(config.getInt("entitlementCacheSize", DEFAULT_CACHE_SIZE),
+                config.getLong("entitlementTtl", DEFAULT_TTL_SECONDS) * 1000,
+                config.getLong("entitlementNegativeTtl", DEFAULT_NEGATIVE_TTL_SECONDS) * 1000);
+        lookupTimeoutMillis = config.getLong("lookupTimeout", DEFAULT_LOOKUP_TIMEOUT_MILLIS);
+        Jmx.register(MBEAN_NAME, cache);
+        Jmx.register(LOOKUPS_MBEAN_NAME, lookups);
+    }
+
+    /**
+     * Starts the background parts that need the session factory, once Keycloak is up.
+     */
+    public static void start(KeycloakSessionFactory sessionFactory) {
+        Config.Scope config = ProjectEntitlements.config;
+        int threads = config != null ? config.getInt("prefetchThreads", DEFAULT_PREFETCH_THREADS) : DEFAULT_PREFETCH_THREADS;
+        EntitlementPrefetcher previous = prefetcher;
+        if (previous != null)
+            previous.shutdown();
+        if (threads <= 0) {
+            prefetcher = null;
+            return;
+        }
+        prefetcher = new EntitlementPrefetcher(sessionFactory, lookups, threads,
+                config != null ? config.getInt("prefetchQueueSize", DEFAULT_PREFETCH_QUEUE_SIZE) : DEFAULT_PREFETCH_QUEUE_SIZE,
+                config != null ? config.getLong("prefetchDeadline", DEFAULT_PREFETCH_DEADLINE_MILLIS) : DEFAULT_PREFETCH_DEADLINE_MILLIS,
+                EntitlementPrefetcher.Fallback.fromConfig(config != null ? config.get("prefetchFallback") : null));
+        Jmx.register(PREFETCHER_MBEAN_NAME, prefetcher);
+    }
+
+    private static EntitlementSource createSource(Config.Scope config) {
+        EntitlementSource previous = source;
+        if (previous != null)
+            previous.close();
+        String[] types = config.get("entitlementSource", "groups").split(",");
+        if (types.length == 1 && !"directory".equals(types[0].trim()))
+            return createLocalSource(config, types[0].trim());
+        int failureThreshold = config.getInt("breakerFailureThreshold", DEFAULT_BREAKER_FAILURE_THRESHOLD);
+        long openMillis = config.getLong("breakerOpenTime", DEFAULT_BREAKER_OPEN_SECONDS) * 1000;
+        List<FanOutEntitlementSource.Member> members = new ArrayList<>(types.length);
+        for (String type : types) {
+            type = type.trim();
+            if ("directory".equals(type)) {
+                String url = config.get("directoryUrl");
+                if (url == null)
+                    throw new IllegalArgumentException("directoryUrl is required for the directory entitlement source");
+                long timeout = config.getLong("directoryTimeout", DEFAULT_DIRECTORY_TIMEOUT_MILLIS);
+                members.add(FanOutEntitlementSource.Member.remote(type, new HttpDirectoryEntitlementSource(url, (int) timeout),
+                        timeout, failureThreshold, openMillis));
+            } else {
+                members.add(FanOutEntitlementSource.Member.local(type, createLocalSource(config, type), failureThreshold, openMillis));
+            }
+        }
+        return new FanOutEntitlementSource(members, FanOutEntitlementSource.Merge.fromConfig(config.get("entitlementMerge")),
+                config.getInt("resolverThreads", DEFAULT_RESOLVER_THREADS));
+    }
+
+    private static EntitlementSource createLocalSource(Config.Scope config, String type) {
+        switch (type) {
+            case "groups":
+                return new GroupEntitlementSource(config.get("groupPathTemplate", DEFAULT_GROUP_PATH_TEMPLATE));
+            case "attributes":
+                return new UserAttributeEntitlementSource(config.get("projectAttribute", DEFAULT_PROJECT_ATTRIBUTE));
+            case "snapshot":
+                String file = config.get("snapshotFile");
+                if (file == null)
+                    throw new IllegalArgumentException("snapshotFile is required for the snapshot entitlement source");
+                SnapshotEntitlementSource snapshot = new SnapshotEntitlementSource(Paths.get(file));
+                snapshot.watch(config.getLong("snapshotReloadInterval", DEFAULT_SNAPSHOT_RELOAD_SECONDS));
+                return snapshot;
+            default:
+                throw new IllegalArgumentException("Unknown entitlement source: " + type);
+        }
+    }
+
+    /**
+     * Answers from the cache, then from a lookup of the same membership already in flight, and only
+     * then asks the source, unless the session {@link #bypassCache bypasses the cache}. Concurrent
+     * requests for a membership that is not cached share a single lookup (see {@link SingleFlight});
+     * callers waiting for another request's lookup give up after {@code lookupTimeout} milliseconds,
+     * and callers waiting for a prefetch after the prefetch deadline.
+     *
+     * @throws EntitlementUnavailableException when a fallback decision applies instead of the source's
+     */
+    public static boolean isMember(KeycloakSession session, RealmModel realm, UserModel user, String project) {
+        if (session.getAttribute(BYPASS_CACHE_ATTRIBUTE) != null)
+            return source.isMember(session, realm, user, project);
+        EntitlementKey key = new EntitlementKey(realm.getId(), user.getId(), project);
+        EntitlementCache cache = ProjectEntitlements.cache;
+        Boolean cached = cache.getIfPresent(key);
+        if (cached != null)
+            return cached;
+        try {
+            EntitlementPrefetcher prefetcher = ProjectEntitlements.prefetcher;
+            if (prefetcher != null) {
+                Boolean prefetched = prefetcher.await(key, cache);
+                if (prefetched != null)
+                    return prefetched;
+            }
+            EntitlementSource source = ProjectEntitlements.source;
+            return lookups.execute(key, cache.membershipVersion(key.getRealmId(), key.getUserId()),
+                    () -> cache.load(key, k -> source.isMember(session, realm, user, project)), lookupTimeoutMillis);
+        } catch (EntitlementUnavailableException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // A shared lookup that had no answer fails its other callers with an exception of their own
+            if (e.getCause() instanceof EntitlementUnavailableException)
+                throw new EntitlementUnavailableException(e.getMessage(), ((EntitlementUnavailableException) e.getCause()).isGranted(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return how long a caller waits for a lookup started by another caller, in milliseconds
+     */
+    public static long getLookupTimeoutMillis() {
+        return lookupTimeoutMillis;
+    }
+
+    /**
+     * Makes the membership checks of the session ask the source directly, without reading or filling
+     * the cache or joining lookups in flight. Meant for bulk computations, which would otherwise evict
+     * the cached memberships of active users and queue up behind their lookups.
+     */
+    public static void bypassCache(KeycloakSession session) {
+        session.setAttribute(BYPASS_CACHE_ATTRIBUTE, Boolean.TRUE);
+    }
+
+    /**
+     * Starts resolving the memberships of the projects requested by a client session in the
+     * background, by their canonical {@link ProjectAliases alias}. Does nothing when prefetching is
+     * disabled.
+     */
+    public static void prefetch(RealmModel realm, String userId, String scopes) {
+        EntitlementPrefetcher prefetcher = ProjectEntitlements.prefetcher;
+        if (prefetcher == null)
+            return;
+        List<String> projects = ScopeScanner.findAllValues(scopes, KeycloakMapper.PROJECT_SCOPE_PREFIX);
+        for (String project : ProjectAliases.forRealm(realm).canonicalize(projects, false))
+            prefetcher.prefetch(new EntitlementKey(realm.getId(), userId, project), cache, source);
+    }
+
+    public static long membershipVersion(String realmId, String userId) {
+        return cache.membershipVersion(realmId, userId);
+    }
+
+    /**
+     * Drops the cached memberships of a user on every cluster node.
+     */
+    public static void invalidateUser(KeycloakSession session, String userId) {
+        EntitlementInvalidation.local().publish(session, EntitlementInvalidationEvent.user(userId));
+    }
+
+    /**
+     * Drops the cached memberships of every user of a realm on every cluster node.
+     */
+    public static void invalidateRealm(KeycloakSession session, String realmId) {
+        EntitlementInvalidation.local().publish(session, EntitlementInvalidationEvent.realm(realmId));
+    }
+
+    /**
+     * Drops the cached memberships of every user of a realm and the indexed projects a created,
+     * moved, renamed or removed group can affect, on every cluster node.
+     */
+    public static void invalidateGroup(KeycloakSession session, String realmId, String groupId) {
+        EntitlementInvalidation.local().publish(session, EntitlementInvalidationEvent.group(realmId, groupId));
+    }
+
+    public static EntitlementCache getCache() {
+        return cache;
+    }
+
+    public static ProjectGroupIndex getGroupIndex() {
+        return groupIndex;
+    }
+
+    public static EntitlementSource getSource() {
+        return source;
+    }
+}
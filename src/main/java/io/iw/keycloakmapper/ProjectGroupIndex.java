@@ -0,0 +1,181 @@
+package io.iw.keycloakmapper;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Maps project group paths to the flattened set of groups granting the project: the project group
+ * and all of its subgroups. A membership check then only intersects the user's direct groups with
+ * that set, instead of walking the parent chain of every group the user is in.
+ *
+ * <p>Each realm numbers the groups it has seen, and every project's groups are kept as a sorted
+ * {@code int[]} of those numbers together with the numbers of the project group's ancestors.
+ * Projects are indexed on their first lookup, once for all concurrent lookups. A changed group
+ * only drops the projects it can affect: the projects it belongs to, and the projects below it when
+ * it is one of their ancestors. Those projects are indexed again on their next lookup. Projects
+ * whose group did not exist are dropped on any group change in the realm.
+ *
+ * <p>Each node keeps its index in {@link ProjectEntitlements#getGroupIndex()}.
+ */
+public final class ProjectGroupIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private final ConcurrentHashMap<String, RealmIndex> realms = new ConcurrentHashMap<>();
+
+    public boolean isMember(RealmModel realm, UserModel user, String groupPath) {
+        RealmIndex index = realms.computeIfAbsent(realm.getId(), id -> new RealmIndex());
+        ProjectGroups project = index.projects.get(groupPath);
+        if (project == null)
+            project = index.load(realm, groupPath);
+        if (project.members.length == 0)
+            return false;
+        for (GroupModel group : user.getGroups()) {
+            Integer number = index.numbers.get(group.getId());
+            if (number != null && Arrays.binarySearch(project.members, number) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops the projects a created, moved, renamed or removed group can affect.
+     */
+    public void groupChanged(String realmId, String groupId) {
+        RealmIndex index = realms.get(realmId);
+        if (index != null)
+            index.groupChanged(groupId);
+    }
+
+    public void invalidateRealm(String realmId) {
+        realms.remove(realmId);
+    }
+
+    /**
+     * @return the number of groups the realm's index has numbered
+     */
+    int numberedGroupCount(String realmId) {
+        RealmIndex index = realms.get(realmId);
+        return index != null ? index.numbers.size() : 0;
+    }
+
+    public void clear() {
+        realms.clear();
+    }
+
+    private static final class ProjectGroups {
+
+        final int[] members;
+
+        /**
+         * The ancestors of the project group, or null when the group does not exist.
+         */
+        final int[] ancestors;
+
+        ProjectGroups(int[] members, int[] ancestors) {
+            this.members = members;
+            this.ancestors = ancestors;
+        }
+
+        boolean isAffectedBy(int group) {
+            return ancestors == null || Arrays.binarySearch(members, group) >= 0 || Arrays.binarySearch(ancestors, group) >= 0;
+        }
+    }
+
+    private static final class RealmIndex {
+
+        final ConcurrentHashMap<String, Integer> numbers = new ConcurrentHashMap<>();
+
+        final AtomicInteger nextNumber = new AtomicInteger();
+
+        final ConcurrentHashMap<String, ProjectGroups> projects = new ConcurrentHashMap<>();
+
+        final SingleFlight<String, ProjectGroups> loads = new SingleFlight<>();
+
+        /**
+         * Incremented by every change, so a project indexed from a model that has changed meanwhile
+         * is not kept.
+         */
+        long version;
+
+        /**
+         * Indexes a project, sharing the work with concurrent lookups of the same project. Waiting
+         * for another lookup's index is bounded by the entitlement {@code lookupTimeout}.
+         */
+        ProjectGroups load(RealmModel realm, String groupPath) {
+            long loadVersion;
+            synchronized (this) {
+                loadVersion = version;
+            }
+            return loads.execute(groupPath, loadVersion, () -> {
+                ProjectGroups project = build(realm, groupPath);
+                synchronized (this) {
+                    if (version == loadVersion)
+                        projects.putIfAbsent(groupPath, project);
+                }
+                return project;
+            }, ProjectEntitlements.getLookupTimeoutMillis());
+        }
+
+        private ProjectGroups build(RealmModel realm, String groupPath) {
+            GroupModel group = KeycloakModelUtils.findGroupByPath(realm, groupPath);
+            if (group == null)
+                return new ProjectGroups(NONE, null);
+            int[] members = new int[16];
+            int size = 0;
+            ArrayDeque<GroupModel> pending = new ArrayDeque<>();
+            pending.add(group);
+            while (!pending.isEmpty()) {
+                GroupModel member = pending.poll();
+                if (size == members.length)
+                    members = Arrays.copyOf(members, size * 2);
+                members[size++] = number(member.getId());
+                Set<GroupModel> subGroups = member.getSubGroups();
+                if (subGroups != null)
+                    pending.addAll(subGroups);
+            }
+            members = Arrays.copyOf(members, size);
+            Arrays.sort(members);
+            int[] ancestors = NONE;
+            for (GroupModel parent = group.getParent(); parent != null; parent = parent.getParent()) {
+                ancestors = Arrays.copyOf(ancestors, ancestors.length + 1);
+                ancestors[ancestors.length - 1] = number(parent.getId());
+            }
+            Arrays.sort(ancestors);
+            return new ProjectGroups(members, ancestors);
+        }
+
+        private int number(String groupId) {
+            return numbers.computeIfAbsent(groupId, id -> nextNumber.getAndIncrement());
+        }
+
+        /**
+         * Drops the projects the group can affect, and with them the group's number, which no
+         * remaining project refers to, so the numbers of removed groups are not kept for the life
+         * of the server. An index left without projects drops every number.
+         */
+        synchronized void groupChanged(String groupId) {
+            version++;
+            Integer number = numbers.get(groupId);
+            // A group without a number is in no indexed project, but may now be in a missing one
+            int group = number != null ? number : -1;
+            for (Iterator<Map.Entry<String, ProjectGroups>> entries = projects.entrySet().iterator(); entries.hasNext(); ) {
+                if (entries.next().getValue().isAffectedBy(group))
+                    entries.remove();
+            }
+            if (projects.isEmpty())
+                numbers.clear();
+            else if (number != null)
+                numbers.remove(groupId);
+        }
+    }
+}
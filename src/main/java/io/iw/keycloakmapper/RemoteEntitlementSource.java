@@ -0,0 +1,13 @@
+package io.iw.keycloakmapper;
+
+import java.io.IOException;
+
+/**
+ * A membership lookup that needs no Keycloak session, such as a call to an LDAP or HTTP directory.
+ * Keycloak sessions are not thread safe, so these are the only sources
+ * {@link FanOutEntitlementSource} runs off the request thread.
+ */
+public interface RemoteEntitlementSource {
+
+    boolean isMember(String realmName, String username, String project) throws IOException;
+}
@@ -0,0 +1,66 @@
+package io.iw.keycloakmapper;
+
+/**
+ * A family of dynamic scopes, such as {@code team:*}, together with the claim its values are mapped
+ * to and how many values the claim may take.
+ */
+public final class ScopeFamily {
+
+    public enum Cardinality {
+
+        /**
+         * The claim is a single string, mapped only when exactly one distinct value was requested.
+         */
+        ONE,
+
+        /**
+         * The claim is a list of all distinct values requested.
+         */
+        MANY,
+
+        /**
+         * The claim is a list of the distinct values requested, mapped only when there are no more
+         * than the family's limit.
+         */
+        AT_MOST
+    }
+
+    private final String prefix;
+
+    private final ClaimPath claimPath;
+
+    private final Cardinality cardinality;
+
+    private final int limit;
+
+    public ScopeFamily(String prefix, ClaimPath claimPath, Cardinality cardinality, int limit) {
+        this.prefix = prefix;
+        this.claimPath = claimPath;
+        this.cardinality = cardinality;
+        this.limit = limit;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public ClaimPath getClaimPath() {
+        return claimPath;
+    }
+
+    public Cardinality getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return the maximum number of values of an {@link Cardinality#AT_MOST} family
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return prefix + "=" + claimPath.getClaimName() + ";" + (cardinality == Cardinality.AT_MOST ? Integer.toString(limit) : cardinality.name().toLowerCase());
+    }
+}
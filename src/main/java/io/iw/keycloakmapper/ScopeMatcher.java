@@ -0,0 +1,220 @@
+package io.iw.keycloakmapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches the dynamic scopes of several {@link ScopeFamily families} in one pass over a scope
+ * string. The family prefixes are compiled into a trie along with the mapper config, every scope
+ * is walked through it once, and its longest matching prefix picks the family. Values are cut out
+ * and interned as in {@link ScopeScanner}: up to the next {@code ':'} or the end of the scope.
+ *
+ * <p>The table is configured as comma separated {@code prefix=claim[;cardinality]} entries such
+ * as {@code team:=team, region:=regions;many, label:=labels;3}. The cardinality is {@code one}
+ * (the default), {@code many} or the maximum number of values.
+ */
+public final class ScopeMatcher {
+
+    private final ScopeFamily[] families;
+
+    private final char[][] labels;
+
+    private final int[][] targets;
+
+    private final int[] terminals;
+
+    private ScopeMatcher(ScopeFamily[] families) {
+        this.families = families;
+        List<TreeMap<Character, Integer>> nodes = new ArrayList<>();
+        List<Integer> nodeFamilies = new ArrayList<>();
+        nodes.add(new TreeMap<>());
+        nodeFamilies.add(-1);
+        for (int f = 0; f < families.length; f++) {
+            String prefix = families[f].getPrefix();
+            int node = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                Integer next = nodes.get(node).get(prefix.charAt(i));
+                if (next == null) {
+                    next = nodes.size();
+                    nodes.get(node).put(prefix.charAt(i), next);
+                    nodes.add(new TreeMap<>());
+                    nodeFamilies.add(-1);
+                }
+                node = next;
+            }
+            nodeFamilies.set(node, f);
+        }
+        this.labels = new char[nodes.size()][];
+        this.targets = new int[nodes.size()][];
+        this.terminals = new int[nodes.size()];
+        for (int n = 0; n < nodes.size(); n++) {
+            TreeMap<Character, Integer> edges = nodes.get(n);
+            labels[n] = new char[edges.size()];
+            targets[n] = new int[edges.size()];
+            int e = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                labels[n][e] = edge.getKey();
+                targets[n][e++] = edge.getValue();
+            }
+            terminals[n] = nodeFamilies.get(n);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException when the table has malformed entries or repeats a prefix
+     */
+    public static ScopeMatcher compile(String table) {
+        List<ScopeFamily> families = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String entry : table.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+            int equals = entry.indexOf('=');
+            if (equals <= 0 || equals == entry.length() - 1)
+                throw new IllegalArgumentException("Invalid scope family '" + entry + "', expected prefix=claim[;cardinality]");
+            String prefix = entry.substring(0, equals).trim();
+            String claim = entry.substring(equals + 1);
+            String cardinality = "one";
+            int semicolon = claim.indexOf(';');
+            if (semicolon >= 0) {
+                cardinality = claim.substring(semicolon + 1).trim();
+                claim = claim.substring(0, semicolon);
+            }
+            claim = claim.trim();
+            if (prefix.indexOf(' ') >= 0 || claim.isEmpty())
+                throw new IllegalArgumentException("Invalid scope family '" + entry + "', expected prefix=claim[;cardinality]");
+            if (prefixes.contains(prefix))
+                throw new IllegalArgumentException("Scope family prefix '" + prefix + "' is configured more than once");
+            prefixes.add(prefix);
+            families.add(family(prefix, ClaimPath.compile(claim), cardinality));
+        }
+        return new ScopeMatcher(families.toArray(new ScopeFamily[families.size()]));
+    }
+
+    private static ScopeFamily family(String prefix, ClaimPath claimPath, String cardinality) {
+        switch (cardinality) {
+            case "one":
+                return new ScopeFamily(prefix, claimPath, ScopeFamily.Cardinality.ONE, 1);
+            case "many":
+                return new ScopeFamily(prefix, claimPath, ScopeFamily.Cardinality.MANY, Integer.MAX_VALUE);
+        }
+        long limit = ValueParser.parseInt(cardinality);
+        if (limit < 1)
+            throw new IllegalArgumentException("Invalid cardinality '" + cardinality + "' of scope family " + prefix + ", expected one, many or a positive number");
+        return new ScopeFamily(prefix, claimPath, ScopeFamily.Cardinality.AT_MOST, (int) limit);
+    }
+
+    public int size() {
+        return families.length;
+    }
+
+    public ScopeFamily getFamily(int index) {
+        return families[index];
+    }
+
+    /**
+     * @return the claim value of every family, indexed like the families: a string for
+     * {@link ScopeFamily.Cardinality#ONE} and a list of strings otherwise, or null when nothing was
+     * requested or the family's cardinality is violated
+     */
+    public Object[] match(String scopes) {
+        int count = families.length;
+        Object[] values = new Object[count];
+        if (scopes == null)
+            return values;
+        int[] singleStarts = new int[count];
+        int[] singleEnds = new int[count];
+        int length = scopes.length();
+        int start = 0;
+        while (start < length) {
+            int node = 0;
+            int family = -1;
+            int valueStart = -1;
+            int i = start;
+            while (i < length) {
+                char c = scopes.charAt(i);
+                if (c == ' ')
+                    break;
+                node = child(node, c);
+                if (node < 0)
+                    break;
+                i++;
+                if (terminals[node] >= 0) {
+                    family = terminals[node];
+                    valueStart = i;
+                }
+            }
+            int end = scopes.indexOf(' ', i);
+            if (end < 0)
+                end = length;
+            if (family >= 0) {
+                int valueEnd = valueStart;
+                while (valueEnd < end && scopes.charAt(valueEnd) != ':')
+                    valueEnd++;
+                if (valueEnd > valueStart)
+                    collect(values, singleStarts, singleEnds, family, scopes, valueStart, valueEnd);
+            }
+            start = end + 1;
+        }
+        for (int f = 0; f < count; f++) {
+            ScopeFamily.Cardinality cardinality = families[f].getCardinality();
+            if (cardinality == ScopeFamily.Cardinality.ONE) {
+                if (singleEnds[f] > 0)
+                    values[f] = ScopeScanner.intern(scopes, singleStarts[f], singleEnds[f]);
+            } else if (cardinality == ScopeFamily.Cardinality.AT_MOST && values[f] != null
+                    && ((List<?>) values[f]).size() > families[f].getLimit()) {
+                values[f] = null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Remembers a value. Single valued families keep the position of their first value and mark a
+     * conflicting second one with an end of -1.
+     */
+    @SuppressWarnings("unchecked")
+    private void collect(Object[] values, int[] singleStarts, int[] singleEnds, int family, String scopes, int valueStart, int valueEnd) {
+        if (families[family].getCardinality() == ScopeFamily.Cardinality.ONE) {
+            int foundEnd = singleEnds[family];
+            if (foundEnd == 0) {
+                singleStarts[family] = valueStart;
+                singleEnds[family] = valueEnd;
+            } else if (foundEnd > 0 && (valueEnd - valueStart != foundEnd - singleStarts[family]
+                    || !scopes.regionMatches(valueStart, scopes, singleStarts[family], foundEnd - singleStarts[family]))) {
+                singleEnds[family] = -1;
+            }
+            return;
+        }
+        List<String> found = (List<String>) values[family];
+        if (found == null) {
+            found = new ArrayList<>(4);
+            values[family] = found;
+        } else if (found.size() > families[family].getLimit()) {
+            return;
+        }
+        String value = ScopeScanner.intern(scopes, valueStart, valueEnd);
+        if (!found.contains(value))
+            found.add(value);
+    }
+
+    private int child(int node, char c) {
+        char[] edges = labels[node];
+        int low = 0;
+        int high = edges.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char label = edges[middle];
+            if (label < c)
+                low = middle + 1;
+            else if (label > c)
+                high = middle - 1;
+            else
+                return targets[node][middle];
+        }
+        return -1;
+    }
+}
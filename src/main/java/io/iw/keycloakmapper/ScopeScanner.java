@@ -0,0 +1,109 @@
+package io.iw.keycloakmapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scans a space separated OAuth2 scope string in place for dynamic scopes such as
+ * {@code project:abc}, without splitting it into arrays or lists. The value of a dynamic scope is
+ * the text between the prefix and the next {@code ':'} (or the end of the scope). Values are
+ * {@link ScopeValueInterner interned}, so common project ids are not allocated again for every token.
+ */
+public final class ScopeScanner {
+
+    private static final ScopeValueInterner values = new ScopeValueInterner(1024);
+
+    private ScopeScanner() {
+    }
+
+    /**
+     * @return the value of the only dynamic scope with the given prefix, or null when there is none,
+     * when it has an empty value or when several different values were requested
+     */
+    public static String findSingleValue(String scopes, String prefix) {
+        if (scopes == null)
+            return null;
+        long found = -1;
+        for (long value = nextValue(scopes, prefix, 0); value >= 0; value = nextValue(scopes, prefix, nextScope(scopes, value))) {
+            if (found < 0)
+                found = value;
+            else if (!sameValue(scopes, found, value))
+                return null;
+        }
+        return found >= 0 ? intern(scopes, valueStart(found), valueEnd(found)) : null;
+    }
+
+    /**
+     * @return the distinct, non-empty values of all dynamic scopes with the given prefix, in the
+     * order they were requested
+     */
+    public static List<String> findAllValues(String scopes, String prefix) {
+        if (scopes == null)
+            return Collections.emptyList();
+        List<String> found = null;
+        for (long value = nextValue(scopes, prefix, 0); value >= 0; value = nextValue(scopes, prefix, nextScope(scopes, value))) {
+            String text = intern(scopes, valueStart(value), valueEnd(value));
+            if (found == null)
+                found = new ArrayList<>(4);
+            if (!found.contains(text))
+                found.add(text);
+        }
+        return found != null ? found : Collections.<String>emptyList();
+    }
+
+    /**
+     * Finds the first non-empty value of a dynamic scope with the prefix among the scopes starting
+     * at or after {@code from}.
+     *
+     * @return the start and end of the value packed into a long, or -1 when there is none
+     */
+    private static long nextValue(String scopes, String prefix, int from) {
+        int length = scopes.length();
+        int prefixLength = prefix.length();
+        int start = from;
+        while (start < length) {
+            int end = scopes.indexOf(' ', start);
+            if (end < 0)
+                end = length;
+            if (end - start > prefixLength && scopes.startsWith(prefix, start)) {
+                int valueStart = start + prefixLength;
+                int valueEnd = valueStart;
+                while (valueEnd < end && scopes.charAt(valueEnd) != ':')
+                    valueEnd++;
+                if (valueEnd > valueStart)
+                    return (long) valueStart << 32 | valueEnd;
+            }
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the start of the scope following the one the value was found in
+     */
+    private static int nextScope(String scopes, long value) {
+        int end = scopes.indexOf(' ', valueEnd(value));
+        return end >= 0 ? end + 1 : scopes.length();
+    }
+
+    /**
+     * @return the value between {@code start} and {@code end} of the scopes, shared with earlier requests
+     */
+    static String intern(String scopes, int start, int end) {
+        return values.intern(scopes, start, end);
+    }
+
+    private static boolean sameValue(String scopes, long a, long b) {
+        int length = valueEnd(a) - valueStart(a);
+        return valueEnd(b) - valueStart(b) == length && scopes.regionMatches(valueStart(a), scopes, valueStart(b), length);
+    }
+
+    private static int valueStart(long value) {
+        return (int) (value >>> 32);
+    }
+
+    private static int valueEnd(long value) {
+        return (int) value;
+    }
+}
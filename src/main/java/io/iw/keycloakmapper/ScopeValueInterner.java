@@ -0,0 +1,55 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small, bounded intern table for values cut out of scope strings, so the project ids requested
+ * over and over share one instance instead of allocating a substring per token. Lookups hash and
+ * compare the characters in place. A value is stored in a free slot of its probe sequence, or
+ * replaces the value in its home slot when the sequence is full, so the table never grows beyond
+ * its capacity and rarely requested values make room for common ones.
+ */
+public final class ScopeValueInterner {
+
+    private static final int MAX_PROBES = 8;
+
+    private final AtomicReferenceArray<String> table;
+
+    private final int mask;
+
+    public ScopeValueInterner(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, MAX_PROBES) - 1) << 1;
+        this.table = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return an instance equal to {@code source.substring(start, end)}, the same one for every
+     * value still in the table
+     */
+    public String intern(String source, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + source.charAt(i);
+        int index = (hash ^ (hash >>> 16)) & mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            String candidate = table.get((index + probe) & mask);
+            if (candidate == null)
+                break;
+            if (candidate.length() == length && candidate.hashCode() == hash && source.regionMatches(start, candidate, 0, length))
+                return candidate;
+        }
+        String value = source.substring(start, end);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            if (table.compareAndSet((index + probe) & mask, null, value))
+                return value;
+        }
+        table.set(index, value);
+        return value;
+    }
+
+    public int capacity() {
+        return table.length();
+    }
+}
@@ -0,0 +1,177 @@
+package io.iw.keycloakmapper;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical lookups: while a lookup for a key is in flight, every other
+ * caller asking for the same key waits for its result instead of asking the backend again. The
+ * first caller leads the flight and runs the lookup, on its own thread or on an executor.
+ *
+ * <p>Every flight carries a generation, such as the membership version of the user it looks up. A
+ * caller only joins a flight of its own generation or a newer one, so lookups started before an
+ * invalidation are not shared with callers that came after it; an outdated flight is replaced and
+ * finishes on its own.
+ *
+ * <p>Callers that join a flight wait at most {@code timeoutMillis}, independently of the leader,
+ * which keeps running. When the lookup fails every caller fails: the leader with the original
+ * exception, the others with an exception of their own caused by it.
+ */
+public final class SingleFlight<K, V> implements SingleFlightMXBean {
+
+    private static final class Flight<V> extends CompletableFuture<V> {
+
+        final long generation;
+
+        /**
+         * Whether the flight was {@link #submit submitted} to an executor rather than led by a caller.
+         */
+        final boolean submitted;
+
+        Flight(long generation, boolean submitted) {
+            this.generation = generation;
+            this.submitted = submitted;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder led = new LongAdder();
+
+    private final LongAdder joined = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Returns the result of the flight in the air for the key, or leads a new flight that runs the
+     * loader on the calling thread.
+     *
+     * @param timeoutMillis how long to wait for another caller's flight, or 0 to wait until it lands
+     * @throws RuntimeException when the lookup failed or another caller's flight did not land in time
+     */
+    public V execute(K key, long generation, Supplier<V> loader, long timeoutMillis) {
+        while (true) {
+            Flight<V> flight = new Flight<>(generation, false);
+            Flight<V> current = takeOff(key, flight);
+            if (current == flight)
+                return land(key, flight, loader, true);
+            try {
+                return join(key, current, timeoutMillis);
+            } catch (CancellationException e) {
+                // The leader could not start it, try to lead a new one
+            }
+        }
+    }
+
+    /**
+     * Leads a new flight for the key on the executor unless a flight of the generation is already
+     * in the air.
+     *
+     * @return false when the key is already in flight
+     * @throws RejectedExecutionException when the executor does not take the lookup
+     */
+    public boolean submit(K key, long generation, Executor executor, Supplier<V> loader) {
+        Flight<V> flight = new Flight<>(generation, true);
+        if (takeOff(key, flight) != flight)
+            return false;
+        try {
+            executor.execute(() -> land(key, flight, loader, false));
+        } catch (RejectedExecutionException e) {
+            flights.remove(key, flight);
+            led.decrement();
+            flight.cancel(false);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * @return the flight in the air for the key if it was {@link #submit submitted} and is of the
+     * generation or newer, otherwise null
+     */
+    public CompletableFuture<V> getSubmitted(K key, long generation) {
+        Flight<V> flight = flights.get(key);
+        return flight != null && flight.submitted && flight.generation >= generation ? flight : null;
+    }
+
+    /**
+     * @return the given flight once it leads, or the current flight to join
+     */
+    private Flight<V> takeOff(K key, Flight<V> flight) {
+        while (true) {
+            Flight<V> current = flights.putIfAbsent(key, flight);
+            if (current == null || current.generation < flight.generation && flights.replace(key, current, flight)) {
+                led.increment();
+                return flight;
+            }
+            if (current.generation >= flight.generation)
+                return current;
+        }
+    }
+
+    private V land(K key, Flight<V> flight, Supplier<V> loader, boolean rethrow) {
+        try {
+            V value = loader.get();
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            failures.increment();
+            flight.completeExceptionally(e);
+            if (rethrow)
+                throw e;
+            return null;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private V join(K key, Flight<V> flight, long timeoutMillis) {
+        joined.increment();
+        try {
+            return timeoutMillis > 0 ? flight.get(timeoutMillis, TimeUnit.MILLISECONDS) : flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for the lookup of " + key, e);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw new RuntimeException("lookup of " + key + " not completed within " + timeoutMillis + " ms", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("concurrent lookup of " + key + " failed", e.getCause());
+        }
+    }
+
+    @Override
+    public long getLedCount() {
+        return led.sum();
+    }
+
+    @Override
+    public long getJoinedCount() {
+        return joined.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return flights.size();
+    }
+}
@@ -0,0 +1,23 @@
+package io.iw.keycloakmapper;
+
+/**
+ * JMX view of the {@link SingleFlight} counters.
+ */
+public interface SingleFlightMXBean {
+
+    /**
+     * @return lookups that were run
+     */
+    long getLedCount();
+
+    /**
+     * @return callers that waited for a lookup run on behalf of another caller
+     */
+    long getJoinedCount();
+
+    long getTimeoutCount();
+
+    long getFailureCount();
+
+    int getInFlightCount();
+}
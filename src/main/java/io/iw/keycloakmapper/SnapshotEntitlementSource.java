@@ -0,0 +1,95 @@
+package io.iw.keycloakmapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Answers membership checks from a memory-mapped {@link EntitlementSnapshot}. A background thread
+ * watches the snapshot file and maps a replaced file next to the current one before swapping it
+ * in, so token requests never wait for a reload. The file counts as replaced when its size or
+ * modification time changed; a file that fails validation is skipped and the current snapshot
+ * kept. Until a snapshot has been loaded nobody is a member of any project.
+ */
+public class SnapshotEntitlementSource implements EntitlementSource {
+
+    protected static Logger log = Logger.getLogger(SnapshotEntitlementSource.class);
+
+    private final Path path;
+
+    private volatile EntitlementSnapshot snapshot;
+
+    private FileTime checkedModified;
+
+    private long checkedSize = -1;
+
+    private ScheduledExecutorService watcher;
+
+    public SnapshotEntitlementSource(Path path) {
+        this.path = path;
+        reload();
+    }
+
+    @Override
+    public boolean isMember(KeycloakSession session, RealmModel realm, UserModel user, String project) {
+        EntitlementSnapshot current = snapshot;
+        return current != null && current.isMember(realm.getId(), user.getId(), project);
+    }
+
+    /**
+     * Maps the snapshot file again if it changed since it was last loaded.
+     *
+     * @return whether a new snapshot was swapped in
+     */
+    public synchronized boolean reload() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            FileTime modified = attributes.lastModifiedTime();
+            long size = attributes.size();
+            if (size == checkedSize && modified.equals(checkedModified))
+                return false;
+            checkedModified = modified;
+            checkedSize = size;
+            EntitlementSnapshot loaded = EntitlementSnapshot.open(path);
+            snapshot = loaded;
+            log.infof("Loaded entitlement snapshot %s with %d users and %d memberships", path, loaded.getUserCount(), loaded.getEdgeCount());
+            ProjectEntitlements.getCache().invalidateAll();
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not load entitlement snapshot " + path + ", keeping the current one", e);
+            return false;
+        }
+    }
+
+    public synchronized void watch(long intervalSeconds) {
+        if (watcher != null || intervalSeconds <= 0)
+            return;
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "project-entitlement-snapshot-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::reload, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    public EntitlementSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,24 @@
+package io.iw.keycloakmapper;
+
+import java.util.List;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Grants the projects listed in a multivalued user attribute, {@code projects} by default.
+ */
+public class UserAttributeEntitlementSource implements EntitlementSource {
+
+    private final String attribute;
+
+    public UserAttributeEntitlementSource(String attribute) {
+        this.attribute = attribute;
+    }
+
+    @Override
+    public boolean isMember(KeycloakSession session, RealmModel realm, UserModel user, String project) {
+        List<String> projects = user.getAttribute(attribute);
+        return projects != null && projects.contains(project);
+    }
+}
@@ -1,16 +1,12 @@
 package io.iw.keycloakmapper;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import org.keycloak.models.ProtocolMapperModel;
 import org.keycloak.protocol.ProtocolMapper;
 import org.keycloak.protocol.oidc.mappers.OIDCAccessTokenMapper;
@@ -19,7 +15,6 @@ import org.keycloak.protocol.oidc.mappers.OIDCIDTokenMapper;
 import org.keycloak.protocol.oidc.mappers.UserInfoTokenMapper;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.representations.IDToken;
-import org.keycloak.services.ServicesLogger;
 import org.jboss.logging.Logger;
 
 public class UtilMapper {
@@ -36,6 +31,14 @@ public class UtilMapper {
   
   public static final String JSON_TYPE_TOOLTIP = "jsonType.tooltip";
   
+  public static final String JSON_TYPE_FAILURE = "jsonType.failure";
+  
+  public static final String JSON_TYPE_DEFAULT = "jsonType.default";
+  
+  public static final String MULTIVALUED = "multivalued";
+  
+  public static final String MULTIVALUED_ORDER = "multivalued.order";
+  
   public static final String INCLUDE_IN_ACCESS_TOKEN = "access.token.claim";
   
   public static final String INCLUDE_IN_ACCESS_TOKEN_LABEL = "includeInAccessToken.label";
@@ -55,100 +58,7 @@ public class UtilMapper {
   public static final String INCLUDE_IN_USERINFO_HELP_TEXT = "includeInUserInfo.tooltip";
   
   public static Object mapAttributeValue(ProtocolMapperModel mappingModel, Object attributeValue) {
-    if (attributeValue == null)
-      return null; 
-    if (attributeValue instanceof Collection) {
-      Collection<Object> valueAsList = (Collection<Object>)attributeValue;
-      if (valueAsList.isEmpty())
-        return null; 
-      if (isMultivalued(mappingModel)) {
-        List<Object> result = new ArrayList();
-        for (Object valueItem : valueAsList)
-          result.add(mapAttributeValue(mappingModel, valueItem)); 
-        return result;
-      } 
-      if (valueAsList.size() > 1)
-        ServicesLogger.LOGGER.multipleValuesForMapper(attributeValue.toString(), mappingModel.getName()); 
-      attributeValue = valueAsList.iterator().next();
-    } 
-    String type = (String)mappingModel.getConfig().get("jsonType.label");
-    Object converted = convertToType(type, attributeValue);
-    return (converted != null) ? converted : attributeValue;
-  }
-  
-  private static <X, T> List<T> transform(List<X> attributeValue, Function<X, T> mapper) {
-    return (List<T>)attributeValue.stream()
-      .filter(Objects::nonNull)
-      .<T>map(mapper)
-      .collect(Collectors.toList());
-  }
-
-
-  
-  private static Object convertToType(String type, Object attributeValue) {
-    Boolean booleanObject;
-    Long longObject;
-    Integer intObject;
-    if (type == null || attributeValue == null)
-      return attributeValue; 
-    switch (type) {
-      case "boolean":
-        booleanObject = getBoolean(attributeValue);
-        if (booleanObject != null)
-          return booleanObject; 
-        if (attributeValue instanceof List)
-          return transform((List)attributeValue, UtilMapper::getBoolean);
-        throw new RuntimeException("cannot map type for token claim");
-      case "String":
-        if (attributeValue instanceof String)
-          return attributeValue; 
-        if (attributeValue instanceof List)
-          return transform((List)attributeValue, UtilMapper::getString);
-        return attributeValue.toString();
-      case "long":
-        longObject = getLong(attributeValue);
-        if (longObject != null)
-          return longObject; 
-        if (attributeValue instanceof List)
-          return transform((List)attributeValue, UtilMapper::getLong);
-        throw new RuntimeException("cannot map type for token claim");
-      case "int":
-        intObject = getInteger(attributeValue);
-        if (intObject != null)
-          return intObject; 
-        if (attributeValue instanceof List)
-          return transform((List)attributeValue, UtilMapper::getInteger);
-        throw new RuntimeException("cannot map type for token claim");
-    } 
-    return null;
-  }
-  
-  private static String getString(Object attributeValue) {
-    return attributeValue.toString();
-  }
-  
-  private static Long getLong(Object attributeValue) {
-    if (attributeValue instanceof Long)
-      return (Long)attributeValue; 
-    if (attributeValue instanceof String)
-      return Long.valueOf((String)attributeValue); 
-    return null;
-  }
-  
-  private static Integer getInteger(Object attributeValue) {
-    if (attributeValue instanceof Integer)
-      return (Integer)attributeValue; 
-    if (attributeValue instanceof String)
-      return Integer.valueOf((String)attributeValue); 
-    return null;
-  }
-  
-  private static Boolean getBoolean(Object attributeValue) {
-    if (attributeValue instanceof Boolean)
-      return (Boolean)attributeValue; 
-    if (attributeValue instanceof String)
-      return Boolean.valueOf((String)attributeValue); 
-    return null;
+    return MapperPlanCache.get(mappingModel).mapAttributeValue(attributeValue);
   }
   
   private static final Pattern CLAIM_COMPONENT = Pattern.compile("^((\\\\.|[^\\\\.])+?)\\.");
@@ -169,36 +79,52 @@ public class UtilMapper {
     return claimComponents;
   }
   
+  /**
+   * Maps the claim of a mapper and records the invocation in the mapper's {@link MapperMetrics}.
+   */
   public static void mapClaim(IDToken token, ProtocolMapperModel mappingModel, Object attributeValue) {
-    log.warn("Entering mapClaim");
-    attributeValue = mapAttributeValue(mappingModel, attributeValue);
-    log.warn("AttributeValue is " + attributeValue);
-    if (attributeValue == null)
-      return; 
-    String protocolClaim = (String)mappingModel.getConfig().get("claim.name");
+    MapperPlan plan = MapperPlanCache.get(mappingModel);
+    long start = System.nanoTime();
+    try {
+      mapClaim(token, plan, attributeValue);
+    } catch (RuntimeException e) {
+      plan.getMetrics().recordError();
+      throw e;
+    } finally {
+      plan.getMetrics().recordInvocation(System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * @return the value written to the token, or null when no claim was written
+   */
+  public static Object mapClaim(IDToken token, MapperPlan plan, Object attributeValue) {
+    Object mappedValue = plan.mapAttributeValue(attributeValue);
+    if (mappedValue == null)
+      return null; 
+    ClaimPath protocolClaim = plan.getClaimPath();
     if (protocolClaim == null)
+      return null;
+    if (MapperTrace.isSampled(log))
+      log.debugf("Mapper %s maps %s to claim %s", plan.getMapperName(), mappedValue, protocolClaim);
+    if (!ClaimTreeBuilder.write(token.getOtherClaims(), protocolClaim, mappedValue)) {
+      plan.getMetrics().recordClaimConflict();
+      return null;
+    }
+    return mappedValue;
+  }
+  
+  /**
+   * Collects the claim into {@code claims} instead of writing it to the token, so several claims
+   * can be merged into the token in one pass with {@link ClaimTreeBuilder#writeTo}.
+   */
+  public static void mapClaim(ClaimTreeBuilder claims, MapperPlan plan, Object attributeValue) {
+    Object mappedValue = plan.mapAttributeValue(attributeValue);
+    if (mappedValue == null || plan.getClaimPath() == null)
       return;
-    log.warn("Protocol claim is " + protocolClaim);
-    List<String> split = splitClaimPath(protocolClaim);
-    int length = split.size();
-    int i = 0;
-    Map<String, Object> jsonObject = token.getOtherClaims();
-    log.warn("json other claim is " + jsonObject);
-    for (String component : split) {
-      i++;
-      if (i == length) {
-        jsonObject.put(component, attributeValue);
-        continue;
-      }
-      log.warn("Before nested, component is " + component);
-      Map<String, Object> nested = (Map<String, Object>)jsonObject.get(component);
-      log.warn("After nested");
-      if (nested == null) {
-        nested = new HashMap<>();
-        jsonObject.put(component, nested);
-      } 
-      jsonObject = nested;
-    } 
+    if (MapperTrace.isSampled(log))
+      log.debugf("Mapper %s maps %s to claim %s", plan.getMapperName(), mappedValue, plan.getClaimPath());
+    claims.put(plan.getClaimPath(), mappedValue);
   }
   
   public static ProtocolMapperModel createClaimMapper(String name, String userAttribute, String tokenClaimName, String claimType, boolean accessToken, boolean idToken, String mapperId) {
@@ -225,27 +151,26 @@ public class UtilMapper {
   }
   
   public static boolean includeInIDToken(ProtocolMapperModel mappingModel) {
-    return "true".equals(mappingModel.getConfig().get("id.token.claim"));
+    return MapperPlanCache.get(mappingModel).isIncludeInIDToken();
   }
   
   public static boolean includeInAccessToken(ProtocolMapperModel mappingModel) {
-    return "true".equals(mappingModel.getConfig().get("access.token.claim"));
+    return MapperPlanCache.get(mappingModel).isIncludeInAccessToken();
   }
   
   public static boolean isMultivalued(ProtocolMapperModel mappingModel) {
-    return "true".equals(mappingModel.getConfig().get("multivalued"));
+    return MapperPlanCache.get(mappingModel).isMultivalued();
   }
   
   public static boolean includeInUserInfo(ProtocolMapperModel mappingModel) {
-    String includeInUserInfo = (String)mappingModel.getConfig().get("userinfo.token.claim");
-    if (includeInUserInfo == null && includeInIDToken(mappingModel))
-      return true; 
-    return "true".equals(includeInUserInfo);
+    return MapperPlanCache.get(mappingModel).isIncludeInUserInfo();
   }
   
   public static void addAttributeConfig(List<ProviderConfigProperty> configProperties, Class<? extends ProtocolMapper> protocolMapperClass) {
     addTokenClaimNameConfig(configProperties);
     addJsonTypeConfig(configProperties);
+    addParseFailureConfig(configProperties);
+    addMultivaluedOrderConfig(configProperties);
     addIncludeInTokensConfig(configProperties, protocolMapperClass);
   }
   
@@ -262,17 +187,54 @@ public class UtilMapper {
     ProviderConfigProperty property = new ProviderConfigProperty();
     property.setName("jsonType.label");
     property.setLabel("jsonType.label");
-    List<String> types = new ArrayList<>(3);
+    List<String> types = new ArrayList<>(7);
     types.add("String");
     types.add("long");
     types.add("int");
+    types.add("double");
     types.add("boolean");
+    types.add("JSON");
+    types.add("JSON array");
     property.setType("List");
     property.setOptions(types);
     property.setHelpText("jsonType.tooltip");
     configProperties.add(property);
   }
   
+  public static void addParseFailureConfig(List<ProviderConfigProperty> configProperties) {
+    ProviderConfigProperty property = new ProviderConfigProperty();
+    property.setName(JSON_TYPE_FAILURE);
+    property.setLabel("Invalid values");
+    List<String> policies = new ArrayList<>(3);
+    for (ParseFailurePolicy policy : ParseFailurePolicy.values())
+      policies.add(policy.getConfigValue());
+    property.setType("List");
+    property.setOptions(policies);
+    property.setDefaultValue(ParseFailurePolicy.FAIL.getConfigValue());
+    property.setHelpText("What to do with a value that does not parse as the claim JSON type: 'skip' it, map the 'default' value instead, or 'fail' the token request.");
+    configProperties.add(property);
+    property = new ProviderConfigProperty();
+    property.setName(JSON_TYPE_DEFAULT);
+    property.setLabel("Default value");
+    property.setType("String");
+    property.setHelpText("Value mapped in place of invalid values when they are replaced by the default.");
+    configProperties.add(property);
+  }
+  
+  public static void addMultivaluedOrderConfig(List<ProviderConfigProperty> configProperties) {
+    ProviderConfigProperty property = new ProviderConfigProperty();
+    property.setName(MULTIVALUED_ORDER);
+    property.setLabel("Multivalued order");
+    List<String> orders = new ArrayList<>(3);
+    for (MultivaluedOrder order : MultivaluedOrder.values())
+      orders.add(order.getConfigValue());
+    property.setType("List");
+    property.setOptions(orders);
+    property.setDefaultValue(MultivaluedOrder.KEEP.getConfigValue());
+    property.setHelpText("What to do with the values of a multivalued claim: 'keep' them as they are, make them 'distinct' keeping the first occurrence, or make them distinct and 'sorted'.");
+    configProperties.add(property);
+  }
+  
   public static void addIncludeInTokensConfig(List<ProviderConfigProperty> configProperties, Class<? extends ProtocolMapper> protocolMapperClass) {
     if (OIDCIDTokenMapper.class.isAssignableFrom(protocolMapperClass)) {
       ProviderConfigProperty property = new ProviderConfigProperty();
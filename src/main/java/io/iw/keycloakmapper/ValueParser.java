@@ -0,0 +1,227 @@
+package io.iw.keycloakmapper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Converts attribute values to claim values without throwing. Numbers are scanned by hand
+ * straight from the string, so malformed input costs a failed scan rather than an exception with
+ * a stack trace. Failures are reported as {@link #FAILED}, {@link #INVALID} or {@code NaN} and
+ * handled by the mapper's {@link ParseFailurePolicy}.
+ */
+final class ValueParser {
+
+    static final Object FAILED = new Object();
+
+    /**
+     * Returned by {@link #parseLong} and {@link #parseInt} for malformed or out of range input.
+     * {@link Long#MIN_VALUE} itself is therefore treated as out of range.
+     */
+    static final long INVALID = Long.MIN_VALUE;
+
+    private static final long MAX_TENTH = Long.MAX_VALUE / 10;
+
+    private static final int MAX_LAST_DIGIT = (int) (Long.MAX_VALUE % 10);
+
+    private static final int MAX_SIGNIFICANT_DIGITS = 18;
+
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private ValueParser() {
+    }
+
+    /**
+     * Converts a single value to the given kind.
+     *
+     * @return the converted value, or {@link #FAILED}
+     */
+    static Object parse(BulkConverter.Kind kind, Object value) {
+        switch (kind) {
+            case STRING:
+                return value instanceof String ? value : value.toString();
+            case LONG:
+                if (value instanceof Long)
+                    return value;
+                if (value instanceof String) {
+                    long parsed = parseLong((String) value);
+                    return parsed == INVALID ? FAILED : (Object) parsed;
+                }
+                return FAILED;
+            case INT:
+                if (value instanceof Integer)
+                    return value;
+                if (value instanceof String) {
+                    long parsed = parseInt((String) value);
+                    return parsed == INVALID ? FAILED : (Object) (int) parsed;
+                }
+                return FAILED;
+            case DOUBLE:
+                if (value instanceof Double)
+                    return value;
+                if (value instanceof Number)
+                    return ((Number) value).doubleValue();
+                if (value instanceof String) {
+                    double parsed = parseDouble((String) value);
+                    return Double.isNaN(parsed) ? FAILED : (Object) parsed;
+                }
+                return FAILED;
+            case BOOLEAN:
+                if (value instanceof Boolean)
+                    return value;
+                if (value instanceof String)
+                    return Boolean.valueOf((String) value);
+                return FAILED;
+            case JSON_OBJECT:
+                return parseJson(value, '{');
+            case JSON_ARRAY:
+                return parseJson(value, '[');
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Parses an optionally signed decimal integer.
+     *
+     * @return the value, or {@link #INVALID}
+     */
+    static long parseLong(String value) {
+        int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i = 1;
+        }
+        if (i == length)
+            return INVALID;
+        long result = 0;
+        for (; i < length; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                return INVALID;
+            if (result > MAX_TENTH || (result == MAX_TENTH && digit > MAX_LAST_DIGIT))
+                return INVALID;
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * @return the value if it fits an int, otherwise {@link #INVALID}
+     */
+    static long parseInt(String value) {
+        long result = parseLong(value);
+        return result < Integer.MIN_VALUE || result > Integer.MAX_VALUE ? INVALID : result;
+    }
+
+    /**
+     * Parses a decimal number with optional fraction and exponent. Numbers of up to 15 significant
+     * digits and a small exponent are computed exactly from the scanned digits; longer ones are
+     * validated here and then handed to {@link Double#parseDouble}, which cannot fail on them.
+     *
+     * @return the value, or {@code NaN} for malformed input and values too large for a double
+     */
+    static double parseDouble(String value) {
+        int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i = 1;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean truncated = false;
+        for (; i < length; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                break;
+            digits++;
+            if (significant < MAX_SIGNIFICANT_DIGITS) {
+                mantissa = mantissa * 10 + digit;
+                if (mantissa != 0)
+                    significant++;
+            } else {
+                exponent++;
+                truncated |= digit != 0;
+            }
+        }
+        if (i < length && value.charAt(i) == '.') {
+            for (i++; i < length; i++) {
+                int digit = value.charAt(i) - '0';
+                if (digit < 0 || digit > 9)
+                    break;
+                digits++;
+                if (significant < MAX_SIGNIFICANT_DIGITS) {
+                    mantissa = mantissa * 10 + digit;
+                    exponent--;
+                    if (mantissa != 0)
+                        significant++;
+                } else {
+                    truncated |= digit != 0;
+                }
+            }
+        }
+        if (digits == 0)
+            return Double.NaN;
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                negativeExponent = value.charAt(i) == '-';
+                i++;
+            }
+            int exponentDigits = 0;
+            int explicitExponent = 0;
+            for (; i < length; i++) {
+                int digit = value.charAt(i) - '0';
+                if (digit < 0 || digit > 9)
+                    break;
+                exponentDigits++;
+                if (explicitExponent < 100000)
+                    explicitExponent = explicitExponent * 10 + digit;
+            }
+            if (exponentDigits == 0)
+                return Double.NaN;
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i != length)
+            return Double.NaN;
+        double result;
+        if (!truncated && significant <= MAX_EXACT_DIGITS && exponent >= -22 && exponent <= 22)
+            result = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        else
+            result = Math.abs(Double.parseDouble(value));
+        if (Double.isInfinite(result))
+            return Double.NaN;
+        return negative ? -result : result;
+    }
+
+    private static Object parseJson(Object value, char opening) {
+        if (value instanceof JsonNode) {
+            JsonNode node = (JsonNode) value;
+            return (opening == '{' ? node.isObject() : node.isArray()) ? node : FAILED;
+        }
+        if (!(value instanceof String))
+            return FAILED;
+        String json = (String) value;
+        int i = 0;
+        while (i < json.length() && Character.isWhitespace(json.charAt(i)))
+            i++;
+        if (i == json.length() || json.charAt(i) != opening)
+            return FAILED;
+        try {
+            return JsonSerialization.mapper.readTree(json);
+        } catch (IOException e) {
+            return FAILED;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class AuditRingTest {
+
+    private static ClaimAuditRecord record(String user) {
+        return new ClaimAuditRecord(0, "realm", "portal", user, "access", "token", "project", "project", "apollo");
+    }
+
+    @Test
+    public void roundsTheCapacityUpToAPowerOfTwo() {
+        assertThat(new AuditRing(5).capacity()).isEqualTo(8);
+        assertThat(new AuditRing(8).capacity()).isEqualTo(8);
+        assertThat(new AuditRing(0).capacity()).isEqualTo(2);
+    }
+
+    @Test
+    public void rejectsRecordsWhenFullAndTakesThemInOrder() {
+        AuditRing ring = new AuditRing(4);
+        for (int i = 0; i < 4; i++)
+            assertThat(ring.offer(record("user" + i))).isTrue();
+        assertThat(ring.offer(record("user4"))).isFalse();
+        assertThat(ring.size()).isEqualTo(4);
+
+        ClaimAuditRecord[] batch = new ClaimAuditRecord[3];
+        assertThat(ring.drain(batch)).isEqualTo(3);
+        assertThat(batch[0].getUser()).isEqualTo("user0");
+        assertThat(batch[2].getUser()).isEqualTo("user2");
+        assertThat(ring.size()).isEqualTo(1);
+
+        assertThat(ring.offer(record("user4"))).isTrue();
+        assertThat(ring.drain(batch)).isEqualTo(2);
+        assertThat(batch[0].getUser()).isEqualTo("user3");
+        assertThat(batch[1].getUser()).isEqualTo("user4");
+        assertThat(ring.drain(batch)).isZero();
+    }
+
+    @Test
+    public void deliversEveryRecordOfConcurrentProducersOnce() throws InterruptedException {
+        AuditRing ring = new AuditRing(64);
+        int producers = 4;
+        int perProducer = 5000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String prefix = "producer" + p + "-";
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ring.offer(record(prefix + i)))
+                        Thread.yield();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        Set<String> users = new HashSet<>();
+        ClaimAuditRecord[] batch = new ClaimAuditRecord[16];
+        long deadline = System.currentTimeMillis() + 30000;
+        while (users.size() < producers * perProducer && System.currentTimeMillis() < deadline) {
+            int count = ring.drain(batch);
+            for (int i = 0; i < count; i++)
+                assertThat(users.add(batch[i].getUser())).isTrue();
+            if (count == 0)
+                Thread.yield();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertThat(users).hasSize(producers * perProducer);
+        assertThat(ring.size()).isZero();
+    }
+
+    @Test
+    public void fallsBackToDropForUnknownOverflowSettings() {
+        assertThat(ClaimAuditSink.Overflow.fromConfig(" Block ")).isEqualTo(ClaimAuditSink.Overflow.BLOCK);
+        assertThat(ClaimAuditSink.Overflow.fromConfig("wait")).isEqualTo(ClaimAuditSink.Overflow.DROP);
+    }
+}
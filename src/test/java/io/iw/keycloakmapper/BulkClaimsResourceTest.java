@@ -0,0 +1,231 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.services.resources.admin.permissions.UserPermissionEvaluator;
+import org.keycloak.util.JsonSerialization;
+
+public class BulkClaimsResourceTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    private final KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+
+    private final KeycloakSession session = mock(KeycloakSession.class);
+
+    private final RealmProvider realms = mock(RealmProvider.class);
+
+    private final UserProvider users = mock(UserProvider.class);
+
+    private final RealmModel realm = mock(RealmModel.class);
+
+    private final UserPermissionEvaluator permissions = mock(UserPermissionEvaluator.class);
+
+    @Before
+    public void setUp() {
+        when(realm.getId()).thenReturn("realm");
+        when(realm.getName()).thenReturn("realm");
+        when(realms.getRealm("realm")).thenReturn(realm);
+        ClientModel client = mock(ClientModel.class);
+        ProtocolMapperModel mapper = projectMapper();
+        when(client.getProtocolMapperById(mapper.getId())).thenReturn(mapper);
+        when(realm.getClientScopes()).thenReturn(Collections.emptyList());
+        when(realm.getClients()).thenReturn(Collections.singletonList(client));
+
+        KeycloakContext context = mock(KeycloakContext.class);
+        when(context.getRealm()).thenReturn(realm);
+        when(session.getContext()).thenReturn(context);
+        when(session.users()).thenReturn(users);
+        when(session.getKeycloakSessionFactory()).thenReturn(factory);
+        when(factory.create()).thenAnswer(invocation -> {
+            KeycloakSession chunkSession = mock(KeycloakSession.class);
+            when(chunkSession.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+            when(chunkSession.realms()).thenReturn(realms);
+            when(chunkSession.users()).thenReturn(users);
+            return chunkSession;
+        });
+    }
+
+    @After
+    public void clear() {
+        pool.shutdownNow();
+        MapperPlanCache.clear();
+    }
+
+    private static ProtocolMapperModel projectMapper() {
+        Map<String, String> config = new HashMap<>();
+        config.put(UtilMapper.TOKEN_CLAIM_NAME, "project");
+        config.put(UtilMapper.INCLUDE_IN_ACCESS_TOKEN, "true");
+        ProtocolMapperModel mapper = new ProtocolMapperModel();
+        mapper.setId("bulk");
+        mapper.setName("bulk mapper");
+        mapper.setProtocolMapper(KeycloakMapper.ID);
+        mapper.setConfig(config);
+        return mapper;
+    }
+
+    private BulkClaimsResource resource(long maxBodySize) {
+        return new BulkClaimsResource(session, pool, 1, maxBodySize) {
+            @Override
+            UserPermissionEvaluator userPermissions(RealmModel realm) {
+                return permissions;
+            }
+        };
+    }
+
+    private UserModel user(String id) {
+        UserModel user = mock(UserModel.class);
+        when(user.getId()).thenReturn(id);
+        when(user.getUsername()).thenReturn(id);
+        when(users.getUserById(id, realm)).thenReturn(user);
+        return user;
+    }
+
+    private static InputStream body(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the result lines of the response, ordered by their line numbers
+     */
+    private static List<Map<?, ?>> results(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        List<Map<?, ?>> results = new ArrayList<>();
+        for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty())
+                results.add(JsonSerialization.readValue(line, Map.class));
+        }
+        results.sort((a, b) -> Integer.compare(((Number) a.get("line")).intValue(), ((Number) b.get("line")).intValue()));
+        return results;
+    }
+
+    private static long spoolFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("project-claims")).count();
+        }
+    }
+
+    @Test
+    public void requiresPermissionToViewUsers() {
+        doThrow(new ForbiddenException()).when(permissions).requireView();
+        InputStream input = body("{\"user\":\"alice\"}\n");
+
+        assertThatThrownBy(() -> resource(1024).compute("bulk", null, input)).isInstanceOf(ForbiddenException.class);
+        assertThatThrownBy(() -> resource(1024).computeAll("bulk", null)).isInstanceOf(ForbiddenException.class);
+        assertThat(((ByteArrayInputStream) input).available()).isGreaterThan(0);
+        verify(users, never()).getUsersCount(realm);
+        verify(factory, never()).create();
+    }
+
+    @Test
+    public void rejectsBodiesAboveTheLimit() throws IOException {
+        long spooled = spoolFiles();
+        String body = "{\"user\":\"alice\"}\n";
+
+        assertThatThrownBy(() -> resource(body.length() - 1).compute("bulk", null, body(body)))
+                .isInstanceOfSatisfying(WebApplicationException.class,
+                        e -> assertThat(e.getResponse().getStatus()).isEqualTo(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode()));
+        assertThat(spoolFiles()).isEqualTo(spooled);
+
+        user("alice");
+        assertThat(results(resource(body.length()).compute("bulk", "project:apollo", body(body)))).hasSize(1);
+        assertThat(spoolFiles()).isEqualTo(spooled);
+    }
+
+    @Test
+    public void computesTheClaimsOfEveryLine() throws IOException {
+        user("alice");
+        String body = "{\"user\":\"alice\"}\n\n{\"user\":\"alice\",\"scopes\":\"project:gemini\"}\n{\"user\":\"nobody\"}\nnot json\n";
+
+        List<Map<?, ?>> results = results(resource(1024).compute("bulk", "project:apollo", body(body)));
+
+        assertThat(results).hasSize(4);
+        assertThat(results.get(0).get("line")).isEqualTo(1);
+        assertThat(results.get(0).get("claims")).isEqualTo(Collections.singletonMap("project", "apollo"));
+        assertThat(results.get(1).get("line")).isEqualTo(3);
+        assertThat(results.get(1).get("claims")).isEqualTo(Collections.singletonMap("project", "gemini"));
+        assertThat(results.get(2).get("error")).isEqualTo("user not found");
+        assertThat(results.get(3).get("error")).isEqualTo("invalid JSON");
+    }
+
+    @Test
+    public void boundsTheChunksInFlight() throws Exception {
+        int userCount = 20;
+        when(users.getUsersCount(realm)).thenReturn(userCount);
+        UserModel member = user("member");
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        when(users.getUsers(eq(realm), anyInt(), eq(1), eq(false))).thenAnswer(invocation -> {
+            started.incrementAndGet();
+            release.await(10, TimeUnit.SECONDS);
+            return Collections.singletonList(member);
+        });
+        Response response = resource(1024).computeAll("bulk", "project:apollo");
+
+        List<List<Map<?, ?>>> results = new ArrayList<>();
+        Thread writer = new Thread(() -> {
+            try {
+                results.add(results(response));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (started.get() < pool.getParallelism() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Thread.sleep(200);
+        // Two chunks per worker at most: the running ones and as many queued
+        assertThat(started.get() + pool.getQueuedSubmissionCount()).isEqualTo(pool.getParallelism() * 2);
+
+        release.countDown();
+        writer.join(10000);
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0)).hasSize(userCount);
+        assertThat(started.get()).isEqualTo(userCount);
+    }
+}
@@ -0,0 +1,102 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.keycloak.models.ProtocolMapperModel;
+
+public class BulkConverterTest {
+
+    private static MapperPlan plan(String jsonType, MultivaluedOrder order, ParseFailurePolicy failure) {
+        ProtocolMapperModel mapper = UtilMapper.createClaimMapper("bulk " + jsonType, "attribute", "values", jsonType, true, true, "test-mapper");
+        mapper.setId("bulk-converter-test");
+        mapper.getConfig().put(UtilMapper.MULTIVALUED, "true");
+        mapper.getConfig().put(UtilMapper.MULTIVALUED_ORDER, order.getConfigValue());
+        mapper.getConfig().put(UtilMapper.JSON_TYPE_FAILURE, failure.getConfigValue());
+        mapper.getConfig().put(UtilMapper.JSON_TYPE_DEFAULT, "0");
+        return MapperPlan.compile(mapper);
+    }
+
+    private static List<Object> items(Object value) {
+        return new ArrayList<>((List<?>) value);
+    }
+
+    @After
+    public void clear() {
+        MapperMetricsRegistry.remove("bulk-converter-test");
+    }
+
+    @Test
+    public void convertsNumbersIntoPrimitiveLists() {
+        Object longs = plan("long", MultivaluedOrder.KEEP, ParseFailurePolicy.FAIL).mapAttributeValue(Arrays.asList("3", 1L, "3"));
+        assertThat(longs).isInstanceOf(PrimitiveLists.LongList.class);
+        assertThat(items(longs)).containsExactly(3L, 1L, 3L);
+
+        Object ints = plan("int", MultivaluedOrder.DISTINCT, ParseFailurePolicy.FAIL).mapAttributeValue(Arrays.asList("3", 1, "3"));
+        assertThat(ints).isInstanceOf(PrimitiveLists.IntList.class);
+        assertThat(items(ints)).containsExactly(3, 1);
+
+        Object doubles = plan("double", MultivaluedOrder.SORTED, ParseFailurePolicy.FAIL).mapAttributeValue(Arrays.asList("2.5", 1, "2.5"));
+        assertThat(doubles).isInstanceOf(PrimitiveLists.DoubleList.class);
+        assertThat(items(doubles)).containsExactly(1.0, 2.5);
+    }
+
+    @Test
+    public void keepsNullItems() {
+        assertThat(items(plan("long", MultivaluedOrder.KEEP, ParseFailurePolicy.SKIP).mapAttributeValue(Arrays.asList("1", null, "x"))))
+                .containsExactly(1L, null);
+        assertThat(items(plan("String", MultivaluedOrder.DISTINCT, ParseFailurePolicy.FAIL).mapAttributeValue(Arrays.asList("a", null, "a", null))))
+                .containsExactly("a", null);
+    }
+
+    @Test
+    public void sortsAndDedupesStrings() {
+        Object strings = plan("String", MultivaluedOrder.SORTED, ParseFailurePolicy.FAIL).mapAttributeValue(Arrays.asList("b", "a", "b"));
+        assertThat(items(strings)).containsExactly("a", "b");
+    }
+
+    @Test
+    public void appliesTheParseFailurePolicy() {
+        List<String> values = Arrays.asList("1", "x", "2");
+        assertThat(items(plan("long", MultivaluedOrder.KEEP, ParseFailurePolicy.SKIP).mapAttributeValue(values))).containsExactly(1L, 2L);
+        assertThat(items(plan("long", MultivaluedOrder.KEEP, ParseFailurePolicy.DEFAULT).mapAttributeValue(values))).containsExactly(1L, 0L, 2L);
+        assertThatThrownBy(() -> plan("long", MultivaluedOrder.KEEP, ParseFailurePolicy.FAIL).mapAttributeValue(values))
+                .isInstanceOf(ClaimConversionException.class);
+    }
+
+    @Test
+    public void honoursTheOrderForNestedCollections() {
+        List<Object> values = Arrays.asList("b", Arrays.asList("x"), "a", "b");
+        assertThat(items(plan("String", MultivaluedOrder.KEEP, ParseFailurePolicy.FAIL).mapAttributeValue(values)))
+                .containsExactly("b", Arrays.asList("x"), "a", "b");
+        assertThat(items(plan("String", MultivaluedOrder.DISTINCT, ParseFailurePolicy.FAIL).mapAttributeValue(values)))
+                .containsExactly("b", Arrays.asList("x"), "a");
+
+        List<Object> nested = Arrays.asList(Arrays.asList("c"), "b", Arrays.asList("c"));
+        assertThat(items(plan("String", MultivaluedOrder.SORTED, ParseFailurePolicy.FAIL).mapAttributeValue(nested)))
+                .containsExactly(Arrays.asList("c"), "b");
+    }
+
+    @Test
+    public void sortsMappedItemsOfOneTypeOnly() {
+        MapperPlan plan = plan("String", MultivaluedOrder.SORTED, ParseFailurePolicy.FAIL);
+        assertThat(items(plan.mapAttributeValue(Arrays.asList("b", Arrays.asList(), "a")))).containsExactly("a", "b", null);
+        assertThat(items(plan.mapAttributeValue(Arrays.asList("b", Arrays.asList("x"), "a")))).containsExactly("b", Arrays.asList("x"), "a");
+    }
+
+    @Test
+    public void rejectsIndexesOutsideTheList() {
+        List<?> longs = new PrimitiveLists.LongList(new long[] { 1, 2, 3 }, 2);
+        assertThat(longs.get(1)).isEqualTo(2L);
+        assertThatThrownBy(() -> longs.get(2)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> longs.get(-1)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> new PrimitiveLists.IntList(new int[] { 1 }, 1).get(-1)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> new PrimitiveLists.DoubleList(new double[] { 1 }, 1).get(-1)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> new PrimitiveLists.ObjectList(new Object[] { "a" }, 1).get(-1)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+}
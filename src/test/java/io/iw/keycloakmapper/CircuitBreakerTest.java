@@ -0,0 +1,46 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailuresAndClosesOnASuccessfulTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, 20);
+        breaker.onFailure();
+        assertThat(breaker.allowRequest()).isTrue();
+        breaker.onFailure();
+        assertThat(breaker.isOpen()).isTrue();
+        assertThat(breaker.allowRequest()).isFalse();
+
+        Thread.sleep(30);
+        assertThat(breaker.allowRequest()).isTrue();
+        assertThat(breaker.allowRequest()).isFalse();
+        breaker.onSuccess();
+        assertThat(breaker.isOpen()).isFalse();
+        assertThat(breaker.allowRequest()).isTrue();
+    }
+
+    @Test
+    public void reopensWhenTheTrialFails() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        breaker.onFailure();
+        Thread.sleep(30);
+        assertThat(breaker.allowRequest()).isTrue();
+        breaker.onFailure();
+        assertThat(breaker.allowRequest()).isFalse();
+    }
+
+    @Test
+    public void letsAnotherTrialThroughWhenTheTrialIsCancelled() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        breaker.onFailure();
+        Thread.sleep(30);
+        assertThat(breaker.allowRequest()).isTrue();
+        breaker.onCancel();
+        assertThat(breaker.allowRequest()).isTrue();
+        assertThat(breaker.allowRequest()).isFalse();
+    }
+}
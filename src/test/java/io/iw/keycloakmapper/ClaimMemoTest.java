@@ -0,0 +1,53 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ClaimMemoTest {
+
+    private static final String SCOPES = "openid project:apollo";
+
+    @Test
+    public void readsBackWhatWasWritten() {
+        String note = ClaimMemo.write(7, SCOPES, 3, 11, 100, "apollo");
+        assertThat(ClaimMemo.lookup(note, 7, SCOPES, 3, 11, 99)).isEqualTo("apollo");
+
+        String denied = ClaimMemo.write(7, SCOPES, 3, 11, 100, null);
+        assertThat(ClaimMemo.lookup(denied, 7, SCOPES, 3, 11, 99)).isSameAs(ClaimMemo.NO_CLAIM);
+    }
+
+    @Test
+    public void missesWhenAnythingTheValueDependsOnChanged() {
+        String note = ClaimMemo.write(7, SCOPES, 3, 11, 100, "apollo");
+        assertThat(ClaimMemo.lookup(note, 8, SCOPES, 3, 11, 99)).isNull();
+        assertThat(ClaimMemo.lookup(note, 7, "openid project:gemini", 3, 11, 99)).isNull();
+        assertThat(ClaimMemo.lookup(note, 7, SCOPES, 4, 11, 99)).isNull();
+        assertThat(ClaimMemo.lookup(note, 7, SCOPES, 3, 12, 99)).isNull();
+        assertThat(ClaimMemo.lookup(note, 7, SCOPES, 3, 11, 100)).isNull();
+    }
+
+    @Test
+    public void missesForScopesWithTheSameHash() {
+        assertThat("project:Aa".hashCode()).isEqualTo("project:BB".hashCode());
+        String note = ClaimMemo.write(7, "project:Aa", 3, 11, 100, "Aa");
+        assertThat(ClaimMemo.lookup(note, 7, "project:BB", 3, 11, 99)).isNull();
+    }
+
+    @Test
+    public void treatsMissingScopesAsEmpty() {
+        String note = ClaimMemo.write(7, null, 3, 11, 100, null);
+        assertThat(ClaimMemo.lookup(note, 7, "", 3, 11, 99)).isSameAs(ClaimMemo.NO_CLAIM);
+        assertThat(ClaimMemo.lookup(note, 7, "openid", 3, 11, 99)).isNull();
+    }
+
+    @Test
+    public void ignoresMalformedNotes() {
+        assertThat(ClaimMemo.lookup(null, 7, SCOPES, 3, 11, 99)).isNull();
+        assertThat(ClaimMemo.lookup("", 7, SCOPES, 3, 11, 99)).isNull();
+        assertThat(ClaimMemo.lookup("7:3:11:100:+apollo", 7, SCOPES, 3, 11, 99)).isNull();
+        assertThat(ClaimMemo.lookup("7:3:11:100:999:" + SCOPES + "+apollo", 7, SCOPES, 3, 11, 99)).isNull();
+        assertThat(ClaimMemo.lookup("7:3:11:100:21:" + SCOPES, 7, SCOPES, 3, 11, 99)).isNull();
+        assertThat(ClaimMemo.lookup("7:3:11:100:21:" + SCOPES + "+", 7, SCOPES, 3, 11, 99)).isNull();
+    }
+}
@@ -0,0 +1,70 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ClaimTreeBuilderTest {
+
+    private static Map<String, Object> object(String... namesAndValues) {
+        Map<String, Object> object = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2)
+            object.put(namesAndValues[i], namesAndValues[i + 1]);
+        return object;
+    }
+
+    @Test
+    public void mergesNestedClaimsIntoExistingObjects() {
+        Map<String, Object> claims = new HashMap<>();
+        assertThat(ClaimTreeBuilder.write(claims, ClaimPath.compile("ext.team"), "red")).isTrue();
+
+        int conflicts = new ClaimTreeBuilder()
+                .put(ClaimPath.compile("ext.project"), "apollo")
+                .put(ClaimPath.compile("region"), "eu")
+                .writeTo(claims);
+
+        assertThat(conflicts).isZero();
+        assertThat(claims).containsEntry("region", "eu");
+        assertThat(claims.get("ext")).isEqualTo(object("team", "red", "project", "apollo"));
+    }
+
+    @Test
+    public void laterWritesWin() {
+        Map<String, Object> claims = new HashMap<>();
+        new ClaimTreeBuilder()
+                .put(ClaimPath.compile("ext.project"), "apollo")
+                .put(ClaimPath.compile("ext"), "flat")
+                .put(ClaimPath.compile("a"), "value")
+                .put(ClaimPath.compile("a.b"), "nested")
+                .writeTo(claims);
+
+        assertThat(claims).containsEntry("ext", "flat");
+        assertThat(claims.get("a")).isEqualTo(object("b", "nested"));
+    }
+
+    @Test
+    public void neverReplacesAValueByAnObject() {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("ext", "flat");
+
+        assertThat(ClaimTreeBuilder.write(claims, ClaimPath.compile("ext.project"), "apollo")).isFalse();
+        int conflicts = new ClaimTreeBuilder()
+                .put(ClaimPath.compile("ext.project"), "apollo")
+                .put(ClaimPath.compile("ext.team"), "red")
+                .writeTo(claims);
+
+        assertThat(conflicts).isEqualTo(2);
+        assertThat(claims).containsEntry("ext", "flat");
+    }
+
+    @Test
+    public void skipsEmptyPaths() {
+        Map<String, Object> claims = new HashMap<>();
+
+        assertThat(ClaimTreeBuilder.write(claims, ClaimPath.compile(""), "apollo")).isFalse();
+        assertThat(new ClaimTreeBuilder().put(ClaimPath.compile(""), "apollo").writeTo(claims)).isZero();
+        assertThat(claims).isEmpty();
+    }
+}
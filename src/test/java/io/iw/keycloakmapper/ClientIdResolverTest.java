@@ -0,0 +1,95 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+import org.junit.After;
+import org.junit.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.ProviderEventListener;
+import org.mockito.ArgumentCaptor;
+
+public class ClientIdResolverTest {
+
+    private final RealmModel realm = mock(RealmModel.class);
+
+    @After
+    public void reset() {
+        ClientIdResolver.setMissingTtlMillis(ClientIdResolver.DEFAULT_MISSING_TTL_SECONDS * 1000);
+        ClientIdResolver.invalidateRealm("realm");
+        ResteasyProviderFactory.clearContextData();
+    }
+
+    @Test
+    public void cachesResolvedClients() {
+        ClientModel client = mock(ClientModel.class);
+        when(client.getId()).thenReturn("uuid");
+        when(realm.getId()).thenReturn("realm");
+        when(realm.getClientByClientId("portal")).thenReturn(client);
+
+        assertThat(ClientIdResolver.resolve(realm, "portal")).isEqualTo("uuid");
+        assertThat(ClientIdResolver.resolve(realm, "portal")).isEqualTo("uuid");
+        verify(realm, times(1)).getClientByClientId("portal");
+
+        ClientIdResolver.invalidateRealm("realm");
+        assertThat(ClientIdResolver.resolve(realm, "portal")).isEqualTo("uuid");
+        verify(realm, times(2)).getClientByClientId("portal");
+    }
+
+    @Test
+    public void looksUpMissingClientsAgainOnceTheirTtlHasPassed() throws InterruptedException {
+        when(realm.getId()).thenReturn("realm");
+        ClientIdResolver.setMissingTtlMillis(50);
+
+        assertThat(ClientIdResolver.resolve(realm, "portal")).isNull();
+        assertThat(ClientIdResolver.resolve(realm, "portal")).isNull();
+        verify(realm, times(1)).getClientByClientId("portal");
+
+        Thread.sleep(80);
+        ClientModel client = mock(ClientModel.class);
+        when(client.getId()).thenReturn("uuid");
+        when(realm.getClientByClientId("portal")).thenReturn(client);
+        assertThat(ClientIdResolver.resolve(realm, "portal")).isEqualTo("uuid");
+    }
+
+    @Test
+    public void dropsMissesOnceTheCreatingTransactionCompletes() {
+        when(realm.getId()).thenReturn("realm");
+        KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+        ClientIdResolver.registerListeners(factory);
+        ArgumentCaptor<ProviderEventListener> listener = ArgumentCaptor.forClass(ProviderEventListener.class);
+        verify(factory).register(listener.capture());
+
+        KeycloakSession session = mock(KeycloakSession.class);
+        KeycloakTransactionManager transaction = mock(KeycloakTransactionManager.class);
+        when(transaction.isActive()).thenReturn(true);
+        when(session.getTransactionManager()).thenReturn(transaction);
+        ResteasyProviderFactory.pushContext(KeycloakSession.class, session);
+        ClientModel client = mock(ClientModel.class);
+        when(client.getId()).thenReturn("uuid");
+        when(client.getRealm()).thenReturn(realm);
+        RealmModel.ClientCreationEvent created = () -> client;
+        listener.getValue().onEvent(created);
+
+        // Looked up before the client is committed
+        assertThat(ClientIdResolver.resolve(realm, "portal")).isNull();
+        ArgumentCaptor<KeycloakTransaction> afterCompletion = ArgumentCaptor.forClass(KeycloakTransaction.class);
+        verify(transaction).enlistAfterCompletion(afterCompletion.capture());
+        verify(factory, never()).create();
+
+        when(realm.getClientByClientId("portal")).thenReturn(client);
+        afterCompletion.getValue().begin();
+        afterCompletion.getValue().commit();
+        assertThat(ClientIdResolver.resolve(realm, "portal")).isEqualTo("uuid");
+    }
+}
@@ -0,0 +1,102 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class EntitlementCacheTest {
+
+    private static final EntitlementKey KEY = new EntitlementKey("realm", "user", "apollo");
+
+    @Test
+    public void cachesDecisionsUntilTheyExpire() throws InterruptedException {
+        EntitlementCache cache = new EntitlementCache(16, 60000, 20);
+        AtomicInteger loads = new AtomicInteger();
+        assertThat(cache.get(KEY, key -> loads.incrementAndGet() > 0)).isTrue();
+        assertThat(cache.get(KEY, key -> loads.incrementAndGet() < 0)).isTrue();
+        assertThat(loads).hasValue(1);
+
+        EntitlementKey denied = new EntitlementKey("realm", "user", "gemini");
+        cache.put(denied, false);
+        assertThat(cache.getIfPresent(denied)).isFalse();
+        Thread.sleep(40);
+        assertThat(cache.getIfPresent(denied)).isNull();
+        assertThat(cache.getStale(denied)).isFalse();
+        assertThat(cache.getHitCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void doesNotCacheLoaderFailures() {
+        EntitlementCache cache = new EntitlementCache(16, 60000, 60000);
+        assertThatThrownBy(() -> cache.get(KEY, key -> {
+            throw new IllegalStateException("down");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.getIfPresent(KEY)).isNull();
+    }
+
+    @Test
+    public void invalidatesUsersAndRealms() {
+        EntitlementCache cache = new EntitlementCache(16, 60000, 60000);
+        EntitlementKey other = new EntitlementKey("realm", "other", "apollo");
+        cache.put(KEY, true);
+        cache.put(other, true);
+        long version = cache.membershipVersion("realm", "user");
+
+        cache.invalidateUser("user");
+        assertThat(cache.getIfPresent(KEY)).isNull();
+        assertThat(cache.getStale(KEY)).isNull();
+        assertThat(cache.getIfPresent(other)).isTrue();
+        assertThat(cache.membershipVersion("realm", "user")).isGreaterThan(version);
+
+        cache.invalidateRealm("realm");
+        assertThat(cache.getIfPresent(other)).isNull();
+    }
+
+    @Test
+    public void dropsADecisionLoadedWhileItWasInvalidated() {
+        EntitlementCache cache = new EntitlementCache(16, 60000, 60000);
+        cache.load(KEY, key -> {
+            cache.invalidateUser("user");
+            return true;
+        });
+        assertThat(cache.getIfPresent(KEY)).isNull();
+    }
+
+    @Test
+    public void staleDecisionsStayInvalidatedAfterTheirStampIsPruned() throws InterruptedException {
+        EntitlementCache cache = new EntitlementCache(16, 5, 5);
+        cache.put(KEY, true);
+        cache.invalidateUser("user");
+        Thread.sleep(20);
+        // More stamps than the cache holds entries prunes the expired stamp of the user
+        for (int i = 0; i < 17; i++)
+            cache.invalidateUser("other-" + i);
+        assertThat(cache.getStale(KEY)).isNull();
+
+        cache.put(KEY, true);
+        assertThat(cache.getStale(KEY)).isTrue();
+    }
+
+    @Test
+    public void invalidateAllChangesEveryMembershipVersion() {
+        EntitlementCache cache = new EntitlementCache(16, 60000, 60000);
+        cache.put(KEY, true);
+        long version = cache.membershipVersion("realm", "user");
+
+        cache.invalidateAll();
+        assertThat(cache.getIfPresent(KEY)).isNull();
+        assertThat(cache.membershipVersion("realm", "user")).isGreaterThan(version);
+        assertThat(cache.membershipVersion("other-realm", "other-user")).isGreaterThan(version);
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedDecisions() {
+        EntitlementCache cache = new EntitlementCache(16, 60000, 60000);
+        for (int i = 0; i < 1000; i++)
+            cache.put(new EntitlementKey("realm", "user-" + i, "apollo"), true);
+        assertThat(cache.getSize()).isLessThanOrEqualTo(16);
+        assertThat(cache.getEvictionCount()).isGreaterThan(0);
+    }
+}
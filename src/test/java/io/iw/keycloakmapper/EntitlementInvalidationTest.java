@@ -0,0 +1,151 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterListener;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Simulates two nodes, each with its own entitlement cache and group index, connected through
+ * mocked cluster providers: what one node publishes is handed to the listener the other node
+ * registered, and only that way, so the remote node's state shows what was delivered.
+ */
+public class EntitlementInvalidationTest {
+
+    private final EntitlementKey key = new EntitlementKey("realm", "alice", "apollo");
+
+    private final Node local = new Node();
+
+    private final Node remote = new Node();
+
+    private static final class Node {
+
+        final EntitlementCache cache = new EntitlementCache(100, 60000, 60000);
+
+        final ProjectGroupIndex groupIndex = new ProjectGroupIndex();
+
+        final EntitlementInvalidation invalidation = new EntitlementInvalidation(() -> cache, groupIndex);
+
+        final ClusterProvider cluster = mock(ClusterProvider.class);
+
+        final KeycloakSession session = mock(KeycloakSession.class);
+
+        final RealmModel realm = mock(RealmModel.class);
+
+        ClusterListener listener;
+
+        Node() {
+            when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+            when(session.getProvider(ClusterProvider.class)).thenReturn(cluster);
+            KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+            when(factory.create()).thenReturn(session);
+            invalidation.registerListener(factory);
+            ArgumentCaptor<ClusterListener> captor = ArgumentCaptor.forClass(ClusterListener.class);
+            verify(cluster).registerListener(eq(EntitlementInvalidation.TASK_KEY), captor.capture());
+            listener = captor.getValue();
+
+            GroupModel group = mock(GroupModel.class);
+            when(group.getId()).thenReturn("apollo-group");
+            when(group.getName()).thenReturn("apollo");
+            when(realm.getId()).thenReturn("realm");
+            when(realm.getTopLevelGroups()).thenReturn(Collections.singletonList(group));
+        }
+
+        /**
+         * Delivers what this node publishes to the other node, as the cluster would.
+         */
+        void deliverTo(Node other) {
+            doAnswer(invocation -> {
+                other.listener.eventReceived(invocation.getArgument(1));
+                return null;
+            }).when(cluster).notify(any(), any(ClusterEvent.class), eq(true), any());
+        }
+
+        boolean indexedMember() {
+            UserModel user = mock(UserModel.class);
+            when(user.getGroups()).thenReturn(Collections.emptySet());
+            return groupIndex.isMember(realm, user, "/apollo");
+        }
+    }
+
+    @Before
+    public void fillCaches() {
+        local.cache.put(key, true);
+        remote.cache.put(key, true);
+    }
+
+    @Test
+    public void sendsInvalidationsToEveryDataCenter() {
+        local.invalidation.publish(local.session, EntitlementInvalidationEvent.user("alice"));
+
+        ArgumentCaptor<ClusterEvent> event = ArgumentCaptor.forClass(ClusterEvent.class);
+        verify(local.cluster).notify(eq(EntitlementInvalidation.TASK_KEY), event.capture(), eq(true), eq(ClusterProvider.DCNotify.ALL_DCS));
+        assertThat(event.getValue()).isInstanceOf(EntitlementInvalidationEvent.class);
+        assertThat(((EntitlementInvalidationEvent) event.getValue()).getUserId()).isEqualTo("alice");
+    }
+
+    @Test
+    public void keepsTheRemoteCacheWithoutDelivery() {
+        local.invalidation.publish(local.session, EntitlementInvalidationEvent.user("alice"));
+
+        assertThat(local.cache.getIfPresent(key)).isNull();
+        assertThat(remote.cache.getIfPresent(key)).isTrue();
+    }
+
+    @Test
+    public void dropsTheRemoteNodesCachedMemberships() {
+        local.deliverTo(remote);
+
+        local.invalidation.publish(local.session, EntitlementInvalidationEvent.user("alice"));
+        assertThat(remote.cache.getIfPresent(key)).isNull();
+
+        remote.cache.put(key, true);
+        local.invalidation.publish(local.session, EntitlementInvalidationEvent.realm("realm"));
+        assertThat(remote.cache.getIfPresent(key)).isNull();
+
+        remote.cache.put(key, true);
+        local.invalidation.publish(local.session, EntitlementInvalidationEvent.user("bob"));
+        assertThat(remote.cache.getIfPresent(key)).isTrue();
+    }
+
+    @Test
+    public void dropsTheRemoteNodesGroupIndex() {
+        local.deliverTo(remote);
+        remote.indexedMember();
+        remote.indexedMember();
+        verify(remote.realm, times(1)).getTopLevelGroups();
+
+        local.invalidation.publish(local.session, EntitlementInvalidationEvent.group("realm", "apollo-group"));
+        remote.indexedMember();
+        verify(remote.realm, times(2)).getTopLevelGroups();
+
+        local.invalidation.publish(local.session, EntitlementInvalidationEvent.realm("realm"));
+        remote.indexedMember();
+        verify(remote.realm, times(3)).getTopLevelGroups();
+    }
+
+    @Test
+    public void ignoresOtherEvents() {
+        remote.listener.eventReceived(new ClusterEvent() {
+        });
+        assertThat(remote.cache.getIfPresent(key)).isTrue();
+    }
+}
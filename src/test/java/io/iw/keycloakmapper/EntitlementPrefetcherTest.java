@@ -0,0 +1,115 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+
+public class EntitlementPrefetcherTest {
+
+    private final EntitlementKey key = new EntitlementKey("realm", "alice", "apollo");
+
+    private final EntitlementCache cache = new EntitlementCache(100, 60000, 60000);
+
+    private final SingleFlight<EntitlementKey, Boolean> lookups = new SingleFlight<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private EntitlementPrefetcher prefetcher(EntitlementPrefetcher.Fallback fallback) {
+        return new EntitlementPrefetcher(null, lookups, 1, 1, 20, fallback);
+    }
+
+    private void startSlowLookup() {
+        lookups.submit(key, cache.membershipVersion("realm", "alice"), executor, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        });
+    }
+
+    @Test
+    public void returnsNullWithoutALookupInFlight() {
+        assertThat(prefetcher(EntitlementPrefetcher.Fallback.OMIT).await(key, cache)).isNull();
+    }
+
+    @Test
+    public void reportsTheFallbackDecisionWhenTheLookupIsLate() {
+        startSlowLookup();
+        EntitlementUnavailableException omitted = catchThrowableOfType(
+                () -> prefetcher(EntitlementPrefetcher.Fallback.OMIT).await(key, cache), EntitlementUnavailableException.class);
+        assertThat(omitted.isGranted()).isFalse();
+
+        cache.put(key, true);
+        EntitlementUnavailableException stale = catchThrowableOfType(
+                () -> prefetcher(EntitlementPrefetcher.Fallback.STALE).await(key, cache), EntitlementUnavailableException.class);
+        assertThat(stale.isGranted()).isTrue();
+
+        assertThatThrownBy(() -> prefetcher(EntitlementPrefetcher.Fallback.FAIL).await(key, cache))
+                .isNotInstanceOf(EntitlementUnavailableException.class)
+                .hasMessageContaining("not resolved within 20 ms");
+    }
+
+    @Test
+    public void leavesLookupsOfTokenRequestsToSingleFlight() throws InterruptedException {
+        executor.execute(() -> lookups.execute(key, cache.membershipVersion("realm", "alice"), () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }, 0));
+        while (lookups.getInFlightCount() == 0)
+            Thread.sleep(1);
+
+        assertThat(prefetcher(EntitlementPrefetcher.Fallback.FAIL).await(key, cache)).isNull();
+    }
+
+    @Test
+    public void propagatesAFailedLookup() {
+        lookups.submit(key, cache.membershipVersion("realm", "alice"), executor, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("directory down");
+        });
+        EntitlementPrefetcher prefetcher = new EntitlementPrefetcher(null, lookups, 1, 1, 5000, EntitlementPrefetcher.Fallback.OMIT);
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+
+        assertThatThrownBy(() -> prefetcher.await(key, cache))
+                .isNotInstanceOf(EntitlementUnavailableException.class)
+                .hasRootCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void fallsBackToOmitForUnknownSettings() {
+        assertThat(EntitlementPrefetcher.Fallback.fromConfig("Stale")).isEqualTo(EntitlementPrefetcher.Fallback.STALE);
+        assertThat(EntitlementPrefetcher.Fallback.fromConfig("sometimes")).isEqualTo(EntitlementPrefetcher.Fallback.OMIT);
+        assertThat(EntitlementPrefetcher.Fallback.fromConfig(null)).isEqualTo(EntitlementPrefetcher.Fallback.OMIT);
+    }
+}
@@ -0,0 +1,157 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+public class EntitlementSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String... memberships) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("entitlements.snapshot");
+        EntitlementSnapshotWriter writer = new EntitlementSnapshotWriter();
+        for (String membership : memberships) {
+            String[] fields = membership.split(",");
+            writer.add(fields[0], fields[1], fields[2]);
+        }
+        writer.write(path);
+        return path;
+    }
+
+    private static void corrupt(Path path, long offset, int value) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(offset);
+            file.writeInt(value);
+        }
+    }
+
+    private static void corrupt(Path path, long offset, long value) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(offset);
+            file.writeLong(value);
+        }
+    }
+
+    @Test
+    public void answersMembershipsOfTheSnapshot() throws IOException {
+        EntitlementSnapshot snapshot = EntitlementSnapshot.open(write("realm,alice,apollo", "realm,alice,gemini", "realm,bob,apollo"));
+
+        assertThat(snapshot.getUserCount()).isEqualTo(2);
+        assertThat(snapshot.getEdgeCount()).isEqualTo(3);
+        assertThat(snapshot.isMember("realm", "alice", "gemini")).isTrue();
+        assertThat(snapshot.isMember("realm", "bob", "gemini")).isFalse();
+        assertThat(snapshot.isMember("other", "alice", "apollo")).isFalse();
+    }
+
+    @Test
+    public void rejectsHeadersThatDoNotMatchTheFile() throws IOException {
+        Path path = write("realm,alice,apollo");
+        corrupt(path, 16, -1);
+        assertThatThrownBy(() -> EntitlementSnapshot.open(path)).isInstanceOf(IOException.class);
+
+        corrupt(path, 16, 1);
+        corrupt(path, 20, Integer.MAX_VALUE);
+        assertThatThrownBy(() -> EntitlementSnapshot.open(path)).isInstanceOf(IOException.class);
+
+        corrupt(path, 0, 0);
+        assertThatThrownBy(() -> EntitlementSnapshot.open(path)).hasMessageContaining("Not an entitlement snapshot");
+    }
+
+    @Test
+    public void rejectsEdgeRangesOutsideTheFile() throws IOException {
+        Path path = write("realm,alice,apollo", "realm,bob,apollo");
+        int secondUser = EntitlementSnapshot.HEADER_SIZE + EntitlementSnapshot.USER_ENTRY_SIZE;
+        corrupt(path, secondUser + 8, 2);
+        assertThatThrownBy(() -> EntitlementSnapshot.open(path)).hasMessageContaining("out of bounds");
+
+        corrupt(path, secondUser + 8, -1);
+        assertThatThrownBy(() -> EntitlementSnapshot.open(path)).hasMessageContaining("out of bounds");
+    }
+
+    @Test
+    public void rejectsIdsOutsideTheFile() throws IOException {
+        Path path = write("realm,alice,apollo");
+        int user = EntitlementSnapshot.HEADER_SIZE;
+        int edge = user + EntitlementSnapshot.USER_ENTRY_SIZE;
+        corrupt(path, user + 20, 1 << 20);
+        assertThatThrownBy(() -> EntitlementSnapshot.open(path)).hasMessageContaining("out of bounds");
+
+        corrupt(path, user + 20, 0);
+        corrupt(path, edge + 8, -1);
+        assertThatThrownBy(() -> EntitlementSnapshot.open(path)).hasMessageContaining("out of bounds");
+    }
+
+    @Test
+    public void grantsNothingOnHashCollisions() throws IOException {
+        Path path = write("realm,alice,apollo");
+        int user = EntitlementSnapshot.HEADER_SIZE;
+        int edge = user + EntitlementSnapshot.USER_ENTRY_SIZE;
+        corrupt(path, user, EntitlementSnapshot.userHash("realm", "mallory"));
+        corrupt(path, edge, EntitlementSnapshot.projectHash("gemini"));
+
+        EntitlementSnapshot snapshot = EntitlementSnapshot.open(path);
+        assertThat(snapshot.isMember("realm", "mallory", "gemini")).isFalse();
+        assertThat(snapshot.isMember("realm", "alice", "gemini")).isFalse();
+    }
+
+    @Test
+    public void findsIdsAmongEqualHashes() throws IOException {
+        Path path = write("realm,alice,apollo", "realm,alice,gemini", "realm,bob,mercury");
+        int firstUser = EntitlementSnapshot.HEADER_SIZE;
+        int edges = firstUser + 2 * EntitlementSnapshot.USER_ENTRY_SIZE;
+        long aliceHash = EntitlementSnapshot.userHash("realm", "alice");
+        boolean aliceFirst = aliceHash < EntitlementSnapshot.userHash("realm", "bob");
+        corrupt(path, firstUser, aliceHash);
+        corrupt(path, firstUser + EntitlementSnapshot.USER_ENTRY_SIZE, aliceHash);
+        long apolloHash = EntitlementSnapshot.projectHash("apollo");
+        int aliceEdges = aliceFirst ? edges : edges + EntitlementSnapshot.EDGE_ENTRY_SIZE;
+        corrupt(path, aliceEdges, apolloHash);
+        corrupt(path, aliceEdges + EntitlementSnapshot.EDGE_ENTRY_SIZE, apolloHash);
+
+        EntitlementSnapshot snapshot = EntitlementSnapshot.open(path);
+        assertThat(snapshot.isMember("realm", "alice", "apollo")).isTrue();
+        assertThat(snapshot.isMember("realm", "alice", "mercury")).isFalse();
+    }
+
+    @Test
+    public void keepsTheCurrentSnapshotWhenTheReplacementIsInvalid() throws IOException {
+        RealmModel realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn("realm");
+        UserModel alice = mock(UserModel.class);
+        when(alice.getId()).thenReturn("alice");
+
+        Path path = write("realm,alice,apollo");
+        SnapshotEntitlementSource source = new SnapshotEntitlementSource(path);
+        EntitlementSnapshot loaded = source.getSnapshot();
+        assertThat(source.isMember(null, realm, alice, "apollo")).isTrue();
+
+        FileTime modified = Files.getLastModifiedTime(path);
+        Files.write(path, new byte[] { 1 }, StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(path, modified);
+        assertThat(source.reload()).isFalse();
+        assertThat(source.getSnapshot()).isSameAs(loaded);
+        assertThat(source.isMember(null, realm, alice, "apollo")).isTrue();
+
+        // Same modification time as the rejected file, told apart by its size
+        write("realm,alice,gemini");
+        Files.setLastModifiedTime(path, modified);
+        assertThat(source.reload()).isTrue();
+        assertThat(source.isMember(null, realm, alice, "apollo")).isFalse();
+        assertThat(source.isMember(null, realm, alice, "gemini")).isTrue();
+    }
+}
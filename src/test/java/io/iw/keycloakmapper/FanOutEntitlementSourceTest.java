@@ -0,0 +1,129 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Test;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+public class FanOutEntitlementSourceTest {
+
+    private final RealmModel realm = mock(RealmModel.class);
+
+    private final UserModel user = mock(UserModel.class);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private FanOutEntitlementSource source;
+
+    {
+        when(realm.getName()).thenReturn("realm");
+        when(user.getUsername()).thenReturn("alice");
+    }
+
+    @After
+    public void close() {
+        release.countDown();
+        if (source != null)
+            source.close();
+    }
+
+    private static FanOutEntitlementSource.Member local(String name, EntitlementSource source) {
+        return FanOutEntitlementSource.Member.local(name, source, 1, 60000);
+    }
+
+    private static FanOutEntitlementSource.Member remote(String name, RemoteEntitlementSource source) {
+        return FanOutEntitlementSource.Member.remote(name, source, 50, 1, 60000);
+    }
+
+    private RemoteEntitlementSource slow(boolean granted) {
+        return (realmName, username, project) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return granted;
+        };
+    }
+
+    private FanOutEntitlementSource fanOut(FanOutEntitlementSource.Merge merge, FanOutEntitlementSource.Member... members) {
+        source = new FanOutEntitlementSource(Arrays.asList(members), merge, 2);
+        return source;
+    }
+
+    @Test
+    public void grantsAsSoonAsAnySourceGrants() {
+        FanOutEntitlementSource fanOut = fanOut(FanOutEntitlementSource.Merge.ANY,
+                remote("directory", slow(false)), local("groups", (session, realm, user, project) -> true));
+        assertThat(fanOut.isMember(null, realm, user, "apollo")).isTrue();
+    }
+
+    @Test
+    public void usesTheFirstSourceWithAnAnswerInPrecedenceOrder() {
+        FanOutEntitlementSource fanOut = fanOut(FanOutEntitlementSource.Merge.PRECEDENCE,
+                remote("directory", (realmName, username, project) -> {
+                    throw new IOException("unreachable");
+                }),
+                local("groups", (session, realm, user, project) -> false),
+                local("attributes", (session, realm, user, project) -> true));
+        assertThat(fanOut.isMember(null, realm, user, "apollo")).isFalse();
+    }
+
+    @Test
+    public void hasNoAnswerWhenEverySourceFailsOrTimesOut() {
+        FanOutEntitlementSource fanOut = fanOut(FanOutEntitlementSource.Merge.ANY,
+                remote("directory", slow(true)),
+                local("groups", (session, realm, user, project) -> {
+                    throw new IllegalStateException("broken");
+                }));
+        assertThatThrownBy(() -> fanOut.isMember(null, realm, user, "apollo")).isInstanceOf(EntitlementUnavailableException.class);
+
+        // Both breakers are open now, so neither source is asked
+        assertThatThrownBy(() -> fanOut.isMember(null, realm, user, "apollo")).isInstanceOf(EntitlementUnavailableException.class);
+    }
+
+    @Test
+    public void doesNotCacheAMembershipNobodyAnswered() {
+        EntitlementCache cache = new EntitlementCache(100, 60000, 60000);
+        EntitlementKey key = new EntitlementKey("realm", "alice", "apollo");
+        FanOutEntitlementSource fanOut = fanOut(FanOutEntitlementSource.Merge.ANY, remote("directory", slow(true)));
+
+        assertThatThrownBy(() -> cache.load(key, k -> fanOut.isMember(null, realm, user, "apollo")))
+                .isInstanceOf(EntitlementUnavailableException.class);
+        assertThat(cache.getIfPresent(key)).isNull();
+    }
+
+    @Test
+    public void releasesTheTrialOfARemoteSourceItAbandons() throws InterruptedException {
+        boolean[] failing = { true };
+        FanOutEntitlementSource.Member directory = FanOutEntitlementSource.Member.remote("directory", (realmName, username, project) -> {
+            if (failing[0])
+                throw new IOException("unreachable");
+            return slow(false).isMember(realmName, username, project);
+        }, 5000, 1, 20);
+        FanOutEntitlementSource fanOut = fanOut(FanOutEntitlementSource.Merge.PRECEDENCE, directory, local("groups", (session, realm, user, project) -> true));
+        assertThat(fanOut.isMember(null, realm, user, "apollo")).isTrue();
+        assertThat(directory.breaker.isOpen()).isTrue();
+        fanOut.close();
+
+        Thread.sleep(30);
+        failing[0] = false;
+        FanOutEntitlementSource anyOf = fanOut(FanOutEntitlementSource.Merge.ANY, directory, local("groups", (session, realm, user, project) -> true));
+        assertThat(anyOf.isMember(null, realm, user, "apollo")).isTrue();
+        assertThat(directory.breaker.allowRequest()).isTrue();
+    }
+
+    @Test
+    public void fallsBackToAnyForUnknownSettings() {
+        assertThat(FanOutEntitlementSource.Merge.fromConfig("Precedence")).isEqualTo(FanOutEntitlementSource.Merge.PRECEDENCE);
+        assertThat(FanOutEntitlementSource.Merge.fromConfig("first")).isEqualTo(FanOutEntitlementSource.Merge.ANY);
+    }
+}
@@ -0,0 +1,161 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.keycloak.Config;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientSessionContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Issues tokens through the mapper with a mocked user session, client session and realm.
+ */
+public class KeycloakMapperTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final KeycloakMapper mapper = new KeycloakMapper();
+
+    private final RealmModel realm = mock(RealmModel.class);
+
+    private final UserModel user = mock(UserModel.class);
+
+    private final KeycloakSession session = mock(KeycloakSession.class);
+
+    @After
+    public void clear() {
+        ClaimAudit.configure(config(null));
+        MapperPlanCache.clear();
+        ProjectEntitlements.getCache().invalidateAll();
+    }
+
+    /**
+     * A config that answers every setting with its default, auditing to the given file if any.
+     */
+    private static Config.Scope config(Path auditFile) {
+        Config.Scope config = mock(Config.Scope.class, invocation -> invocation.getArguments().length > 1 ? invocation.getArgument(1) : null);
+        when(config.get("auditFile")).thenReturn(auditFile != null ? auditFile.toString() : null);
+        return config;
+    }
+
+    private static ProtocolMapperModel mapperModel(String id, Map<String, String> config) {
+        ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setId(id);
+        model.setName("mapper " + id);
+        model.setProtocolMapper(KeycloakMapper.ID);
+        Map<String, String> mapperConfig = new HashMap<>(config);
+        mapperConfig.put(UtilMapper.INCLUDE_IN_ACCESS_TOKEN, "true");
+        model.setConfig(mapperConfig);
+        return model;
+    }
+
+    private AccessToken issue(ProtocolMapperModel model, String scopes, AccessToken token) {
+        when(realm.getId()).thenReturn("realm");
+        when(realm.getName()).thenReturn("realm");
+        when(user.getId()).thenReturn("alice");
+        ClientModel client = mock(ClientModel.class);
+        when(client.getClientId()).thenReturn("portal");
+        AuthenticatedClientSessionModel clientSession = mock(AuthenticatedClientSessionModel.class);
+        when(clientSession.getClient()).thenReturn(client);
+        when(clientSession.getNote(OAuth2Constants.SCOPE)).thenReturn(scopes);
+        ClientSessionContext clientSessionCtx = mock(ClientSessionContext.class);
+        when(clientSessionCtx.getClientSession()).thenReturn(clientSession);
+        UserSessionModel userSession = mock(UserSessionModel.class);
+        when(userSession.getRealm()).thenReturn(realm);
+        when(userSession.getUser()).thenReturn(user);
+        return mapper.transformAccessToken(token, model, session, userSession, clientSessionCtx);
+    }
+
+    private static List<Map<?, ?>> auditRecords(Path file) throws IOException {
+        ClaimAudit.getSink().close();
+        List<Map<?, ?>> records = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty())
+                records.add(JsonSerialization.readValue(line, Map.class));
+        }
+        return records;
+    }
+
+    @Test
+    public void auditsOnlyTheFamilyClaimsWrittenToTheToken() throws IOException {
+        Path auditFile = folder.getRoot().toPath().resolve("audit.ndjson");
+        ClaimAudit.configure(config(auditFile));
+        Map<String, String> config = new HashMap<>();
+        config.put(KeycloakMapper.SCOPE_FAMILIES, "team:=ext.team, region:=region, zone:=region");
+        AccessToken token = new AccessToken();
+        token.getOtherClaims().put("ext", "flat");
+
+        issue(mapperModel("audit-families", config), "openid team:red region:eu zone:z1", token);
+
+        assertThat(token.getOtherClaims()).containsEntry("ext", "flat").containsEntry("region", "z1");
+        List<Map<?, ?>> records = auditRecords(auditFile);
+        assertThat(records).hasSize(1);
+        assertThat(records.get(0).get("claim")).isEqualTo("region");
+        assertThat(records.get(0).get("value")).isEqualTo("z1");
+    }
+
+    @Test
+    public void computesTheClaimsOfTheToken() {
+        when(realm.getAttribute(ProjectAliases.REALM_ATTRIBUTE)).thenReturn("apollo: legacy; gemini: gem");
+        when(realm.getAttribute(ProjectDictionary.REALM_ATTRIBUTE)).thenReturn("apollo,gemini,mercury");
+        ProjectEntitlements.getCache().put(new EntitlementKey("realm", "alice", "apollo"), true);
+        ProjectEntitlements.getCache().put(new EntitlementKey("realm", "alice", "gemini"), false);
+        ProjectEntitlements.getCache().put(new EntitlementKey("realm", "alice", "mercury"), true);
+        String[] scopes = { "openid", "openid project:gem team:red", "openid project:legacy project:gem project:mercury team:red" };
+
+        List<Map<String, String>> configs = new ArrayList<>();
+        configs.add(mapperConfig());
+        configs.add(mapperConfig(KeycloakMapper.MEMBERSHIP_CHECK, "true"));
+        configs.add(mapperConfig(KeycloakMapper.MULTI_PROJECT, "true"));
+        configs.add(mapperConfig(KeycloakMapper.MULTI_PROJECT, "true", KeycloakMapper.MEMBERSHIP_CHECK, "true"));
+        configs.add(mapperConfig(KeycloakMapper.MULTI_PROJECT, "true", KeycloakMapper.MEMBERSHIP_CHECK, "true", KeycloakMapper.PROJECT_ENCODING, "bitset"));
+        configs.add(mapperConfig(KeycloakMapper.SCOPE_FAMILIES, "project:=access.projects, team:=access.team", KeycloakMapper.MEMBERSHIP_CHECK, "true"));
+
+        Map<String, Object> issued = new HashMap<>();
+        for (int i = 0; i < configs.size(); i++) {
+            ProtocolMapperModel model = mapperModel("compute-" + i, configs.get(i));
+            for (int j = 0; j < scopes.length; j++) {
+                AccessToken token = issue(model, scopes[j], new AccessToken());
+                Map<String, Object> claims = KeycloakMapper.computeClaims(MapperPlanCache.get(model), scopes[j], realm, user, session);
+                assertThat(claims).as("claims of %s for %s", configs.get(i), scopes[j]).isEqualTo(token.getOtherClaims());
+                issued.put(i + " " + j, claims.containsKey("access") ? claims.get("access") : claims.get("project"));
+            }
+        }
+        assertThat(issued.get("0 1")).isEqualTo("gemini");
+        assertThat(issued.get("1 1")).isNull();
+        assertThat(issued.get("3 2")).isEqualTo(Arrays.asList("apollo", "mercury"));
+        assertThat(issued.get("5 2")).isInstanceOf(Map.class);
+    }
+
+    private static Map<String, String> mapperConfig(String... settings) {
+        Map<String, String> config = new HashMap<>();
+        config.put(UtilMapper.TOKEN_CLAIM_NAME, "project");
+        for (int i = 0; i < settings.length; i += 2)
+            config.put(settings[i], settings[i + 1]);
+        return config;
+    }
+}
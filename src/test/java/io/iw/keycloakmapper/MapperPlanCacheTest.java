@@ -0,0 +1,93 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Test;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.representations.AccessToken;
+
+public class MapperPlanCacheTest {
+
+    private static ProtocolMapperModel mapper(String id, String claimName) {
+        ProtocolMapperModel mapper = UtilMapper.createClaimMapper("mapper " + id, "attribute", claimName, "String", true, true, "test-mapper");
+        mapper.setId(id);
+        return mapper;
+    }
+
+    private static boolean isRegistered(String id) throws Exception {
+        return ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName(Jmx.DOMAIN + ":type=MapperMetrics,id=" + ObjectName.quote(id)));
+    }
+
+    @After
+    public void clear() {
+        MapperPlanCache.clear();
+    }
+
+    @Test
+    public void reusesThePlanUntilTheConfigChanges() {
+        ProtocolMapperModel mapper = mapper("plan-reuse", "project");
+        MapperPlan plan = MapperPlanCache.get(mapper);
+        assertThat(MapperPlanCache.get(mapper)).isSameAs(plan);
+        assertThat(MapperPlanCache.get(mapper("plan-reuse", "project"))).isSameAs(plan);
+
+        MapperPlan changed = MapperPlanCache.get(mapper("plan-reuse", "ext.project"));
+        assertThat(changed).isNotSameAs(plan);
+        assertThat(changed.getClaimPath().getClaimName()).isEqualTo("ext.project");
+    }
+
+    @Test
+    public void recompilesForAnotherConfigWithTheSameHash() {
+        ProtocolMapperModel mapper = mapper("plan-collision", "Aa");
+        ProtocolMapperModel colliding = mapper("plan-collision", "BB");
+        assertThat(colliding.getConfig().hashCode()).isEqualTo(mapper.getConfig().hashCode());
+
+        MapperPlanCache.get(mapper);
+        assertThat(MapperPlanCache.get(colliding).getClaimPath().getClaimName()).isEqualTo("BB");
+    }
+
+    @Test
+    public void recordsInvocationsOfEveryMapperMappingThroughUtilMapper() {
+        ProtocolMapperModel mapper = mapper("plan-metrics", "project");
+        UtilMapper.mapClaim(new AccessToken(), mapper, "apollo");
+        UtilMapper.mapClaim(new AccessToken(), mapper, null);
+
+        assertThat(MapperPlanCache.get(mapper).getMetrics().getInvocationCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void mapsNothingForAnEmptyClaimName() {
+        ProtocolMapperModel mapper = mapper("plan-empty-claim", "");
+        assertThat(MapperPlanCache.get(mapper).getClaimPath()).isNull();
+
+        AccessToken token = new AccessToken();
+        UtilMapper.mapClaim(token, mapper, "apollo");
+        assertThat(token.getOtherClaims()).isEmpty();
+        assertThat(MapperPlanCache.get(mapper).getMetrics().getErrorCount()).isZero();
+    }
+
+    @Test
+    public void evictsIdlePlansAndUnregistersTheirMetrics() throws Exception {
+        ProtocolMapperModel mapper = mapper("plan-idle", "project");
+        MapperPlan plan = MapperPlanCache.get(mapper);
+        assertThat(isRegistered("plan-idle")).isTrue();
+
+        assertThat(MapperPlanCache.evictIdle(60000)).isZero();
+        Thread.sleep(20);
+        assertThat(MapperPlanCache.evictIdle(10)).isEqualTo(1);
+        assertThat(isRegistered("plan-idle")).isFalse();
+
+        assertThat(MapperPlanCache.get(mapper)).isNotSameAs(plan);
+        assertThat(isRegistered("plan-idle")).isTrue();
+    }
+
+    @Test
+    public void invalidateUnregistersTheMetrics() throws Exception {
+        MapperPlanCache.get(mapper("plan-removed", "project"));
+        MapperPlanCache.invalidate("plan-removed");
+        assertThat(isRegistered("plan-removed")).isFalse();
+    }
+}
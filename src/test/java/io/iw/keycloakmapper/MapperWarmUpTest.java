@@ -0,0 +1,120 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientScopeModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.utils.PostMigrationEvent;
+import org.keycloak.provider.ProviderEvent;
+import org.keycloak.provider.ProviderEventListener;
+import org.mockito.ArgumentCaptor;
+
+public class MapperWarmUpTest {
+
+    private final KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+
+    private final RealmProvider realms = mock(RealmProvider.class);
+
+    @Before
+    public void openSessions() {
+        when(factory.create()).thenAnswer(invocation -> {
+            KeycloakSession session = mock(KeycloakSession.class);
+            when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+            when(session.realms()).thenReturn(realms);
+            return session;
+        });
+    }
+
+    @After
+    public void clear() {
+        MapperPlanCache.clear();
+        ClientIdResolver.invalidateRealm("first");
+        ClientIdResolver.invalidateRealm("third");
+    }
+
+    private static ProtocolMapperModel projectMapper(String id) {
+        Map<String, String> config = new HashMap<>();
+        config.put(UtilMapper.TOKEN_CLAIM_NAME, "project");
+        config.put(KeycloakMapper.SOURCE_CLIENTS, "portal");
+        config.put(KeycloakMapper.PROJECT_ENCODING, "bitset");
+        ProtocolMapperModel mapper = new ProtocolMapperModel();
+        mapper.setId(id);
+        mapper.setName("mapper " + id);
+        mapper.setProtocolMapper(KeycloakMapper.ID);
+        mapper.setConfig(config);
+        return mapper;
+    }
+
+    private RealmModel realm(String id) {
+        RealmModel realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn(id);
+        when(realm.getName()).thenReturn(id);
+        when(realms.getRealm(id)).thenReturn(realm);
+        return realm;
+    }
+
+    private RealmModel realmWithMappers(String id) {
+        RealmModel realm = realm(id);
+        ClientScopeModel clientScope = mock(ClientScopeModel.class);
+        when(clientScope.getProtocolMappers()).thenReturn(Collections.singleton(projectMapper(id + "-scope")));
+        ClientModel client = mock(ClientModel.class);
+        ProtocolMapperModel other = projectMapper(id + "-other");
+        other.setProtocolMapper("oidc-usermodel-attribute-mapper");
+        when(client.getProtocolMappers()).thenReturn(new HashSet<>(Arrays.asList(projectMapper(id + "-client"), other)));
+        when(realm.getClientScopes()).thenReturn(Collections.singletonList(clientScope));
+        when(realm.getClients()).thenReturn(Collections.singletonList(client));
+        return realm;
+    }
+
+    @Test
+    public void warmsUpEveryRealmAfterTheMigration() {
+        RealmModel first = realmWithMappers("first");
+        RealmModel second = realm("second");
+        when(second.getClientScopes()).thenThrow(new IllegalStateException("realm cannot be read"));
+        RealmModel third = realmWithMappers("third");
+        when(realms.getRealms()).thenReturn(Arrays.asList(first, second, third));
+        MapperWarmUp.register(factory, KeycloakMapper.ID, 0);
+        ArgumentCaptor<ProviderEventListener> listener = ArgumentCaptor.forClass(ProviderEventListener.class);
+        verify(factory).register(listener.capture());
+
+        listener.getValue().onEvent(new PostMigrationEvent());
+
+        // Two project mappers of each readable realm, but not the other mapper
+        assertThat(MapperPlanCache.size()).isEqualTo(4);
+        for (RealmModel realm : Arrays.asList(first, third)) {
+            verify(realm).getClientByClientId("portal");
+            verify(realm, atLeastOnce()).getAttribute(ProjectDictionary.REALM_ATTRIBUTE);
+        }
+    }
+
+    @Test
+    public void ignoresOtherEvents() {
+        MapperWarmUp.register(factory, KeycloakMapper.ID, 0);
+        ArgumentCaptor<ProviderEventListener> listener = ArgumentCaptor.forClass(ProviderEventListener.class);
+        verify(factory).register(listener.capture());
+
+        listener.getValue().onEvent(new ProviderEvent() {
+        });
+
+        verify(factory, never()).create();
+    }
+}
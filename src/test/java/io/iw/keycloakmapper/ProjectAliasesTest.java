@@ -0,0 +1,80 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import org.junit.Test;
+import org.keycloak.models.RealmModel;
+
+public class ProjectAliasesTest {
+
+    private final ProjectAliases aliases = ProjectAliases.compile("apollo: Apollo-Legacy, proj-17 # renamed in 2019\ngemini: gem; mercury");
+
+    @Test
+    public void mapsAliasesToCanonicalIdsIgnoringCase() {
+        assertThat(aliases.size()).isEqualTo(6);
+        assertThat(aliases.canonicalize("apollo-legacy", true)).isEqualTo("apollo");
+        assertThat(aliases.canonicalize("PROJ-17", true)).isEqualTo("apollo");
+        assertThat(aliases.canonicalize("Apollo", true)).isEqualTo("apollo");
+        assertThat(aliases.canonicalize("gem", true)).isEqualTo("gemini");
+        assertThat(aliases.canonicalize("Mercury", true)).isEqualTo("mercury");
+    }
+
+    @Test
+    public void keepsOrRejectsUnknownProjects() {
+        assertThat(aliases.canonicalize("renamed", false)).isEqualTo("renamed");
+        assertThat(aliases.canonicalize("renamed", true)).isNull();
+        assertThat(aliases.canonicalize(Arrays.asList("gem", "unknown", "gemini", "proj-17"), true)).containsExactly("gemini", "apollo");
+        assertThat(ProjectAliases.compile(" # nothing yet").canonicalize("renamed", true)).isEqualTo("renamed");
+    }
+
+    @Test
+    public void findsEveryAliasOfALargeTable() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            source.append("project-").append(i).append(": p").append(i).append(", legacy-").append(i).append('\n');
+        ProjectAliases table = ProjectAliases.compile(source.toString());
+
+        assertThat(table.size()).isEqualTo(3000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(table.canonicalize("P" + i, true)).isEqualTo("project-" + i);
+            assertThat(table.canonicalize("LEGACY-" + i, true)).isEqualTo("project-" + i);
+        }
+    }
+
+    @Test
+    public void rejectsMalformedTables() {
+        assertThatThrownBy(() -> ProjectAliases.compile(": orphan")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ProjectAliases.compile("apollo: two words")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ProjectAliases.compile("apollo: shared\ngemini: SHARED"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("names both apollo and gemini");
+    }
+
+    @Test
+    public void digestsTheSourceBeyondItsStringHash() {
+        // "Aa" and "BB" have the same String hash code
+        ProjectAliases first = ProjectAliases.compile("apollo: Aa");
+        ProjectAliases second = ProjectAliases.compile("apollo: BB");
+
+        assertThat(first.getSourceDigest()).isNotEqualTo(second.getSourceDigest());
+        assertThat(ProjectAliases.compile("apollo: Aa").getSourceDigest()).isEqualTo(first.getSourceDigest());
+    }
+
+    @Test
+    public void keepsTheRealmsPreviousTableWhenTheAttributeDoesNotCompile() {
+        RealmModel realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn("aliases-test");
+        when(realm.getAttribute(ProjectAliases.REALM_ATTRIBUTE)).thenReturn("apollo: legacy");
+        assertThat(ProjectAliases.forRealm(realm).canonicalize("legacy", true)).isEqualTo("apollo");
+
+        when(realm.getAttribute(ProjectAliases.REALM_ATTRIBUTE)).thenReturn("apollo: legacy\ngemini: legacy");
+        ProjectAliases kept = ProjectAliases.forRealm(realm);
+        assertThat(kept.canonicalize("legacy", true)).isEqualTo("apollo");
+        assertThat(kept.getSourceDigest()).isNotEqualTo(ProjectAliases.compile("apollo: legacy").getSourceDigest());
+        assertThat(ProjectAliases.forRealm(realm)).isSameAs(kept);
+    }
+}
@@ -0,0 +1,64 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+public class ProjectEntitlementsTest {
+
+    private final EntitlementKey key = new EntitlementKey("realm", "alice", "apollo");
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    private final KeycloakSession session = mock(KeycloakSession.class);
+
+    private final RealmModel realm = mock(RealmModel.class);
+
+    private final UserModel user = mock(UserModel.class);
+
+    @Before
+    public void setUp() {
+        when(session.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(session).setAttribute(anyString(), any());
+        when(realm.getId()).thenReturn("realm");
+        when(realm.getTopLevelGroups()).thenReturn(Collections.emptyList());
+        when(user.getId()).thenReturn("alice");
+        when(user.getGroups()).thenReturn(Collections.emptySet());
+        ProjectEntitlements.getCache().put(key, true);
+    }
+
+    @After
+    public void clear() {
+        ProjectEntitlements.getCache().invalidateAll();
+        ProjectEntitlements.getGroupIndex().clear();
+    }
+
+    @Test
+    public void answersFromTheCache() {
+        assertThat(ProjectEntitlements.isMember(session, realm, user, "apollo")).isTrue();
+    }
+
+    @Test
+    public void bypassesTheCacheWhenAsked() {
+        ProjectEntitlements.bypassCache(session);
+
+        assertThat(ProjectEntitlements.isMember(session, realm, user, "apollo")).isFalse();
+        assertThat(ProjectEntitlements.getCache().getIfPresent(key)).isTrue();
+        assertThat(ProjectEntitlements.isMember(session, realm, user, "hermes")).isFalse();
+        assertThat(ProjectEntitlements.getCache().getIfPresent(new EntitlementKey("realm", "alice", "hermes"))).isNull();
+    }
+}
@@ -0,0 +1,168 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+public class ProjectGroupIndexTest {
+
+    private final ProjectGroupIndex index = new ProjectGroupIndex();
+
+    private final RealmModel realm = mock(RealmModel.class);
+
+    private final List<GroupModel> topLevelGroups = new ArrayList<>();
+
+    private GroupModel projects;
+
+    private GroupModel apollo;
+
+    private GroupModel gemini;
+
+    private final List<GroupModel> apolloTeams = new ArrayList<>();
+
+    /**
+     * A group whose subgroups can be added later, registered with its parent or the realm.
+     */
+    private GroupModel group(String name, GroupModel parent) {
+        String id = parent != null ? parent.getId() + "/" + name : name;
+        GroupModel group = mock(GroupModel.class);
+        Set<GroupModel> subGroups = new HashSet<>();
+        when(group.getId()).thenReturn(id);
+        when(group.getName()).thenReturn(name);
+        when(group.getParent()).thenReturn(parent);
+        when(group.getSubGroups()).thenReturn(subGroups);
+        if (parent != null)
+            parent.getSubGroups().add(group);
+        else
+            topLevelGroups.add(group);
+        return group;
+    }
+
+    private static UserModel user(GroupModel... groups) {
+        UserModel user = mock(UserModel.class);
+        when(user.getGroups()).thenReturn(new HashSet<>(Arrays.asList(groups)));
+        return user;
+    }
+
+    @Before
+    public void createGroups() {
+        when(realm.getId()).thenReturn("realm");
+        when(realm.getTopLevelGroups()).thenReturn(topLevelGroups);
+        projects = group("projects", null);
+        apollo = group("apollo", projects);
+        gemini = group("gemini", projects);
+        for (int i = 0; i < 20; i++)
+            apolloTeams.add(group("team-" + i, apollo));
+        group("lead", apolloTeams.get(7));
+    }
+
+    @Test
+    public void grantsTheProjectToMembersOfItsGroupAndSubgroups() {
+        GroupModel lead = apolloTeams.get(7).getSubGroups().iterator().next();
+
+        assertThat(index.isMember(realm, user(apollo), "/projects/apollo")).isTrue();
+        assertThat(index.isMember(realm, user(lead), "/projects/apollo")).isTrue();
+        assertThat(index.isMember(realm, user(gemini, projects), "/projects/apollo")).isFalse();
+        assertThat(index.isMember(realm, user(), "/projects/apollo")).isFalse();
+        assertThat(index.isMember(realm, user(apollo), "/projects/mercury")).isFalse();
+    }
+
+    @Test
+    public void findsMembersNumberedByOtherProjectsFirst() {
+        // Numbers the teams in reverse before the project, so its members are not numbered in order
+        for (int i = apolloTeams.size() - 1; i >= 0; i--)
+            index.isMember(realm, user(), "/projects/apollo/team-" + i);
+        index.isMember(realm, user(), "/projects/gemini");
+
+        for (GroupModel team : apolloTeams)
+            assertThat(index.isMember(realm, user(team), "/projects/apollo")).as(team.getName()).isTrue();
+        assertThat(index.isMember(realm, user(gemini), "/projects/apollo")).isFalse();
+    }
+
+    @Test
+    public void indexesEachProjectOnceUntilAGroupChanges() {
+        index.isMember(realm, user(apollo), "/projects/apollo");
+        index.isMember(realm, user(gemini), "/projects/apollo");
+        verify(realm, times(1)).getTopLevelGroups();
+    }
+
+    @Test
+    public void dropsOnlyTheProjectsAChangedGroupAffects() {
+        index.isMember(realm, user(), "/projects/apollo");
+        index.isMember(realm, user(), "/projects/gemini");
+        reset(realm);
+        when(realm.getId()).thenReturn("realm");
+        when(realm.getTopLevelGroups()).thenReturn(topLevelGroups);
+
+        // A subgroup of gemini affects gemini only
+        GroupModel geminiTeam = group("team", gemini);
+        index.groupChanged("realm", gemini.getId());
+        index.isMember(realm, user(), "/projects/apollo");
+        verify(realm, times(0)).getTopLevelGroups();
+        assertThat(index.isMember(realm, user(geminiTeam), "/projects/gemini")).isTrue();
+        verify(realm, times(1)).getTopLevelGroups();
+
+        // A renamed ancestor affects both
+        index.groupChanged("realm", projects.getId());
+        index.isMember(realm, user(), "/projects/apollo");
+        index.isMember(realm, user(), "/projects/gemini");
+        verify(realm, times(3)).getTopLevelGroups();
+    }
+
+    @Test
+    public void dropsMissingProjectsOnAnyChange() {
+        assertThat(index.isMember(realm, user(), "/projects/mercury")).isFalse();
+        GroupModel mercury = group("mercury", projects);
+        assertThat(index.isMember(realm, user(mercury), "/projects/mercury")).isFalse();
+
+        index.groupChanged("realm", mercury.getId());
+        assertThat(index.isMember(realm, user(mercury), "/projects/mercury")).isTrue();
+    }
+
+    @Test
+    public void forgetsTheNumbersOfRemovedGroups() {
+        index.isMember(realm, user(), "/projects/apollo");
+        index.isMember(realm, user(), "/projects/gemini");
+        int numbered = index.numberedGroupCount("realm");
+        assertThat(numbered).isEqualTo(apolloTeams.size() + 4);
+
+        GroupModel removed = apolloTeams.remove(3);
+        apollo.getSubGroups().remove(removed);
+        index.groupChanged("realm", removed.getId());
+        assertThat(index.numberedGroupCount("realm")).isEqualTo(numbered - 1);
+
+        index.groupChanged("realm", projects.getId());
+        assertThat(index.numberedGroupCount("realm")).isZero();
+
+        for (int i = 0; i < 100; i++) {
+            GroupModel temporary = group("temporary-" + i, apollo);
+            index.isMember(realm, user(temporary), "/projects/apollo");
+            apollo.getSubGroups().remove(temporary);
+            index.groupChanged("realm", temporary.getId());
+        }
+        assertThat(index.numberedGroupCount("realm")).isLessThanOrEqualTo(numbered);
+    }
+
+    @Test
+    public void rebuildsAfterTheRealmIsInvalidated() {
+        index.isMember(realm, user(), "/projects/apollo");
+        index.invalidateRealm("realm");
+        assertThat(index.numberedGroupCount("realm")).isZero();
+        assertThat(index.isMember(realm, user(apollo), "/projects/apollo")).isTrue();
+        verify(realm, times(2)).getTopLevelGroups();
+    }
+}
@@ -0,0 +1,74 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ScopeMatcherTest {
+
+    private final ScopeMatcher matcher = ScopeMatcher.compile("team:=team, team:lead:=leads;many, region:=regions;many, label:=ext.labels;2");
+
+    @Test
+    public void compilesTheFamilies() {
+        assertThat(matcher.size()).isEqualTo(4);
+        assertThat(matcher.getFamily(0).getCardinality()).isEqualTo(ScopeFamily.Cardinality.ONE);
+        assertThat(matcher.getFamily(1).getCardinality()).isEqualTo(ScopeFamily.Cardinality.MANY);
+        assertThat(matcher.getFamily(3).getCardinality()).isEqualTo(ScopeFamily.Cardinality.AT_MOST);
+        assertThat(matcher.getFamily(3).getLimit()).isEqualTo(2);
+        assertThat(matcher.getFamily(3).getClaimPath().length()).isEqualTo(2);
+        assertThat(matcher.getFamily(3).toString()).isEqualTo("label:=ext.labels;2");
+        assertThat(ScopeMatcher.compile(" , ").size()).isZero();
+    }
+
+    @Test
+    public void picksTheFamilyOfTheLongestPrefix() {
+        Object[] values = matcher.match("openid team:lead:alice team:red:write region:eu");
+
+        assertThat(values[0]).isEqualTo("red");
+        assertThat(values[1]).isEqualTo(Arrays.asList("alice"));
+        assertThat(values[2]).isEqualTo(Arrays.asList("eu"));
+        assertThat(values[3]).isNull();
+        // Without the longer family the same scope belongs to the shorter one
+        assertThat(ScopeMatcher.compile("team:=team").match("team:lead:alice")).containsExactly("lead");
+    }
+
+    @Test
+    public void mapsASingleValueOnlyWhenItIsTheOnlyOne() {
+        assertThat(matcher.match("team:red team:blue")[0]).isNull();
+        assertThat(matcher.match("team:red team:re")[0]).isNull();
+        assertThat(matcher.match("team:red openid team:red team:red:write")[0]).isEqualTo("red");
+    }
+
+    @Test
+    public void collectsDistinctValuesUpToTheLimit() {
+        assertThat(matcher.match("region:eu region:us region:eu")[2]).isEqualTo(Arrays.asList("eu", "us"));
+        assertThat(matcher.match("label:a label:b label:a")[3]).isEqualTo(Arrays.asList("a", "b"));
+        assertThat(matcher.match("label:a label:b label:c")[3]).isNull();
+    }
+
+    @Test
+    public void ignoresEmptyValues() {
+        Object[] values = matcher.match("team: region: region::read label: team:lead:");
+
+        assertThat(values).containsOnlyNulls();
+        assertThat(matcher.match(null)).containsOnlyNulls();
+        assertThat(matcher.match("")).containsOnlyNulls();
+        assertThat(matcher.match("team: team:red")[0]).isEqualTo("red");
+    }
+
+    @Test
+    public void cutsValuesAtTheEndOfTheirScope() {
+        assertThat(matcher.match("team:red openid:x")[0]).isEqualTo("red");
+        assertThat(matcher.match("region:eu other:scope region:us")[2]).isEqualTo(Arrays.asList("eu", "us"));
+    }
+
+    @Test
+    public void rejectsMalformedEntries() {
+        for (String table : Arrays.asList("team:", "=team", "team:=", "team:= ", "my team:=team", "team:=team;0",
+                "team:=team;-1", "team:=team;some", "team:=team;", "team:=team, team:=other")) {
+            assertThatThrownBy(() -> ScopeMatcher.compile(table)).as(table).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
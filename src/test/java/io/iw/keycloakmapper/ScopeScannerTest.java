@@ -0,0 +1,52 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ScopeScannerTest {
+
+    @Test
+    public void findsTheOnlyRequestedValue() {
+        assertThat(ScopeScanner.findSingleValue("openid project:apollo email", "project:")).isEqualTo("apollo");
+        assertThat(ScopeScanner.findSingleValue("project:apollo:read", "project:")).isEqualTo("apollo");
+        assertThat(ScopeScanner.findSingleValue("project:apollo project:apollo", "project:")).isEqualTo("apollo");
+    }
+
+    @Test
+    public void findsNoSingleValueWhenNoneOrSeveralAreRequested() {
+        assertThat(ScopeScanner.findSingleValue(null, "project:")).isNull();
+        assertThat(ScopeScanner.findSingleValue("openid email", "project:")).isNull();
+        assertThat(ScopeScanner.findSingleValue("project: project:", "project:")).isNull();
+        assertThat(ScopeScanner.findSingleValue("project:apollo project:gemini", "project:")).isNull();
+        assertThat(ScopeScanner.findSingleValue("project:ab project:abc", "project:")).isNull();
+    }
+
+    @Test
+    public void findsAllDistinctValuesInRequestOrder() {
+        assertThat(ScopeScanner.findAllValues("project:b openid project:a:read project:b project:", "project:"))
+                .containsExactly("b", "a");
+        assertThat(ScopeScanner.findAllValues("openid", "project:")).isEmpty();
+        assertThat(ScopeScanner.findAllValues(null, "project:")).isEmpty();
+    }
+
+    @Test
+    public void ignoresThePrefixInsideOtherScopes() {
+        assertThat(ScopeScanner.findAllValues("xproject:a team:project:b project:c", "project:")).containsExactly("c");
+    }
+
+    @Test
+    public void cutsValuesAtTheEndOfTheirScope() {
+        assertThat(ScopeScanner.findSingleValue("project:apollo openid:x", "project:")).isEqualTo("apollo");
+        assertThat(ScopeScanner.findAllValues("project:a other:x project:b", "project:")).containsExactly("a", "b");
+    }
+
+    @Test
+    public void sharesTheValuesOfEveryRequest() {
+        String value = ScopeScanner.findSingleValue("openid project:interned-apollo", "project:");
+
+        assertThat(ScopeScanner.findSingleValue("project:interned-apollo:read email", "project:")).isSameAs(value);
+        assertThat(ScopeScanner.findAllValues("project:interned-apollo", "project:").get(0)).isSameAs(value);
+        assertThat(ScopeMatcher.compile("project:=project").match("project:interned-apollo")[0]).isSameAs(value);
+    }
+}
@@ -0,0 +1,33 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ScopeValueInternerTest {
+
+    @Test
+    public void sharesOneInstancePerValue() {
+        ScopeValueInterner interner = new ScopeValueInterner(16);
+        String first = interner.intern("openid project:apollo", 15, 21);
+
+        assertThat(first).isEqualTo("apollo");
+        assertThat(interner.intern("project:apollo:read", 8, 14)).isSameAs(first);
+        assertThat(interner.intern("project:apollo-2", 8, 16)).isEqualTo("apollo-2");
+        assertThat(interner.intern("", 0, 0)).isEmpty();
+    }
+
+    @Test
+    public void staysWithinItsCapacity() {
+        ScopeValueInterner interner = new ScopeValueInterner(10);
+        assertThat(interner.capacity()).isEqualTo(16);
+
+        for (int i = 0; i < 1000; i++) {
+            String value = "project-" + i;
+            assertThat(interner.intern(value, 0, value.length())).isEqualTo(value);
+        }
+        // Values requested again take back a slot
+        String common = interner.intern("common", 0, 6);
+        assertThat(interner.intern("xcommon", 1, 7)).isSameAs(common);
+    }
+}
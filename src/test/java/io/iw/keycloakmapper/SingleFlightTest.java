@@ -0,0 +1,139 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private String slowLoad(String value) {
+        loads.incrementAndGet();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return value;
+    }
+
+    /**
+     * Leads a flight for the key on another thread and returns once it is in the air.
+     */
+    private Future<String> lead(String key, long generation, String value) throws InterruptedException {
+        int inFlight = flights.getInFlightCount();
+        Future<String> leader = executor.submit(() -> flights.execute(key, generation, () -> slowLoad(value), 0));
+        while (flights.getInFlightCount() == inFlight)
+            Thread.sleep(1);
+        return leader;
+    }
+
+    @Test
+    public void sharesTheLookupWithConcurrentCallers() throws Exception {
+        Future<String> leader = lead("alice", 0, "granted");
+        Future<String> follower = executor.submit(() -> flights.execute("alice", 0, () -> slowLoad("other"), 0));
+        while (flights.getJoinedCount() == 0)
+            Thread.sleep(1);
+        release.countDown();
+
+        assertThat(leader.get()).isEqualTo("granted");
+        assertThat(follower.get()).isEqualTo("granted");
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(flights.getLedCount()).isEqualTo(1);
+        assertThat(flights.getInFlightCount()).isZero();
+    }
+
+    @Test
+    public void stopsWaitingAfterTheTimeout() throws Exception {
+        Future<String> leader = lead("alice", 0, "granted");
+
+        assertThatThrownBy(() -> flights.execute("alice", 0, () -> "other", 20))
+                .hasMessageContaining("not completed within 20 ms")
+                .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(flights.getTimeoutCount()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(leader.get()).isEqualTo("granted");
+    }
+
+    @Test
+    public void failsEveryCallerWhenTheLookupFails() throws Exception {
+        CountDownLatch failing = new CountDownLatch(1);
+        executor.submit(() -> flights.execute("alice", 0, () -> {
+            try {
+                failing.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("directory down");
+        }, 0));
+        while (flights.getInFlightCount() == 0)
+            Thread.sleep(1);
+        Future<String> follower = executor.submit(() -> flights.execute("alice", 0, () -> "other", 0));
+        while (flights.getJoinedCount() == 0)
+            Thread.sleep(1);
+        failing.countDown();
+
+        assertThatThrownBy(follower::get)
+                .hasRootCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("concurrent lookup of alice failed");
+        assertThat(flights.getFailureCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotShareOutdatedLookups() throws Exception {
+        lead("alice", 0, "before");
+
+        assertThat(flights.execute("alice", 1, () -> "after", 0)).isEqualTo("after");
+        assertThat(flights.getJoinedCount()).isZero();
+    }
+
+    @Test
+    public void exposesOnlySubmittedFlights() throws Exception {
+        lead("alice", 0, "granted");
+        assertThat(flights.getSubmitted("alice", 0)).isNull();
+
+        assertThat(flights.submit("bob", 0, executor, () -> slowLoad("granted"))).isTrue();
+        assertThat(flights.submit("bob", 0, executor, () -> "other")).isFalse();
+        CompletableFuture<String> submitted = flights.getSubmitted("bob", 0);
+        assertThat(submitted).isNotNull();
+        assertThat(flights.getSubmitted("bob", 1)).isNull();
+
+        release.countDown();
+        assertThat(submitted.get()).isEqualTo("granted");
+    }
+
+    @Test
+    public void landsFlightsTheExecutorRejects() {
+        assertThatThrownBy(() -> flights.submit("alice", 0, runnable -> {
+            throw new RejectedExecutionException("saturated");
+        }, () -> "granted")).isInstanceOf(RejectedExecutionException.class);
+
+        assertThat(flights.getInFlightCount()).isZero();
+        assertThat(flights.getLedCount()).isZero();
+        assertThat(flights.execute("alice", 0, () -> "granted", 0)).isEqualTo("granted");
+    }
+}
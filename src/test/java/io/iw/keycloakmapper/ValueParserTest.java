@@ -0,0 +1,69 @@
+package io.iw.keycloakmapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+
+public class ValueParserTest {
+
+    @Test
+    public void parsesLongsWithoutOverflow() {
+        assertThat(ValueParser.parseLong("42")).isEqualTo(42L);
+        assertThat(ValueParser.parseLong("-42")).isEqualTo(-42L);
+        assertThat(ValueParser.parseLong("+7")).isEqualTo(7L);
+        assertThat(ValueParser.parseLong("9223372036854775807")).isEqualTo(Long.MAX_VALUE);
+        assertThat(ValueParser.parseLong("9223372036854775808")).isEqualTo(ValueParser.INVALID);
+        assertThat(ValueParser.parseLong("-9223372036854775808")).isEqualTo(ValueParser.INVALID);
+        assertThat(ValueParser.parseLong("")).isEqualTo(ValueParser.INVALID);
+        assertThat(ValueParser.parseLong("-")).isEqualTo(ValueParser.INVALID);
+        assertThat(ValueParser.parseLong("12a")).isEqualTo(ValueParser.INVALID);
+        assertThat(ValueParser.parseLong(" 1")).isEqualTo(ValueParser.INVALID);
+    }
+
+    @Test
+    public void rejectsIntsOutOfRange() {
+        assertThat(ValueParser.parseInt("2147483647")).isEqualTo(Integer.MAX_VALUE);
+        assertThat(ValueParser.parseInt("-2147483648")).isEqualTo(Integer.MIN_VALUE);
+        assertThat(ValueParser.parseInt("2147483648")).isEqualTo(ValueParser.INVALID);
+    }
+
+    @Test
+    public void parsesDoublesLikeTheJdk() {
+        String[] values = { "0", "-0.0", "1.5", "+2.25", "3.", ".5", "1e3", "1E-3", "2.5e+2", "0.1", "123456789012345",
+                "1234567890123456789", "0.000000000000000000000001", "1.7976931348623157e308", "4.9e-324", "123.456e-30" };
+        for (String value : values)
+            assertThat(ValueParser.parseDouble(value)).as(value).isEqualTo(Double.parseDouble(value));
+    }
+
+    @Test
+    public void reportsMalformedDoublesAsNaN() {
+        String[] values = { "", "-", ".", "e3", "1e", "1e+", "1.2.3", "1,5", "NaN", "Infinity", "0x10", "1e400", " 1" };
+        for (String value : values)
+            assertThat(ValueParser.parseDouble(value)).as(value).isNaN();
+    }
+
+    @Test
+    public void convertsSingleValuesByKind() {
+        assertThat(ValueParser.parse(BulkConverter.Kind.STRING, 12)).isEqualTo("12");
+        assertThat(ValueParser.parse(BulkConverter.Kind.LONG, "12")).isEqualTo(12L);
+        assertThat(ValueParser.parse(BulkConverter.Kind.LONG, 12)).isSameAs(ValueParser.FAILED);
+        assertThat(ValueParser.parse(BulkConverter.Kind.INT, "12")).isEqualTo(12);
+        assertThat(ValueParser.parse(BulkConverter.Kind.DOUBLE, 12)).isEqualTo(12.0);
+        assertThat(ValueParser.parse(BulkConverter.Kind.BOOLEAN, "TRUE")).isEqualTo(true);
+        assertThat(ValueParser.parse(BulkConverter.Kind.BOOLEAN, 1)).isSameAs(ValueParser.FAILED);
+        assertThat(ValueParser.parse(BulkConverter.Kind.UNCONVERTED, 1)).isEqualTo(1);
+    }
+
+    @Test
+    public void parsesJsonOfTheExpectedShape() {
+        Object object = ValueParser.parse(BulkConverter.Kind.JSON_OBJECT, " {\"a\": [1, 2]}");
+        assertThat(object).isInstanceOf(JsonNode.class);
+        assertThat(((JsonNode) object).get("a").size()).isEqualTo(2);
+        assertThat(ValueParser.parse(BulkConverter.Kind.JSON_ARRAY, "[1, 2]")).isInstanceOf(JsonNode.class);
+
+        assertThat(ValueParser.parse(BulkConverter.Kind.JSON_OBJECT, "[1, 2]")).isSameAs(ValueParser.FAILED);
+        assertThat(ValueParser.parse(BulkConverter.Kind.JSON_OBJECT, "{\"a\":")).isSameAs(ValueParser.FAILED);
+        assertThat(ValueParser.parse(BulkConverter.Kind.JSON_ARRAY, 5)).isSameAs(ValueParser.FAILED);
+    }
+}